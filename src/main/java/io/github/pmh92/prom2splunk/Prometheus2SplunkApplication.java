@@ -10,6 +10,18 @@
 
 package io.github.pmh92.prom2splunk;
 
+import io.github.pmh92.prom2splunk.properties.AdmissionConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.AnalyticsConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.BufferConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.DeduplicationConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.DownsamplingConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.ExecutionConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.HecSinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.IngestConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.MetricsConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.SinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.SpoolConfigurationProperties;
 import io.github.pmh92.prom2splunk.properties.TcpSinkConfigurationProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -19,7 +31,11 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
  * Main application process
  */
 @SpringBootApplication
-@EnableConfigurationProperties(TcpSinkConfigurationProperties.class)
+@EnableConfigurationProperties({SinkConfigurationProperties.class, TcpSinkConfigurationProperties.class, HecSinkConfigurationProperties.class,
+        IngestConfigurationProperties.class, SpoolConfigurationProperties.class, AdmissionConfigurationProperties.class,
+        DownsamplingConfigurationProperties.class, RoutingConfigurationProperties.class, MetricsConfigurationProperties.class,
+        ExecutionConfigurationProperties.class, BufferConfigurationProperties.class, DeduplicationConfigurationProperties.class,
+        AnalyticsConfigurationProperties.class})
 public class Prometheus2SplunkApplication {
 
     public static void main(String[] args) {
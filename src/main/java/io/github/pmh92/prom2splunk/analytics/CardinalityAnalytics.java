@@ -0,0 +1,361 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.analytics;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.AnalyticsConfigurationProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Estimates the number of active series, overall and per metric name, with HyperLogLog sketches, and finds the metric names and the label
+ * pairs sending the most samples. A series is active when received within the current or the previous window; the sketches are rotated at
+ * the end of every window. The memory is bounded by the number of metric names with their own sketch and the number of label pairs counted.
+ * Every series costs a couple of register updates and a counter increment, and only a sample of them feed the label pairs sketch.
+ */
+public class CardinalityAnalytics implements Closeable {
+
+    /**
+     * A disabled instance, observing nothing
+     */
+    public static final CardinalityAnalytics DISABLED = new CardinalityAnalytics();
+
+    /**
+     * The metric name the series beyond the maximum number of metric names are estimated under
+     */
+    public static final String OTHER_METRICS = "__other__";
+
+    private static final String NAME_LABEL = "__name__";
+    private static final UnaryOperator<Map.Entry<String, String>> COPY = label -> new AbstractMap.SimpleImmutableEntry<>(label);
+
+    private final AnalyticsConfigurationProperties properties;
+    private final int sampling;
+    private final long sampleMask;
+    private final Metric all;
+    private final Metric other;
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+    private final SpaceSaving<Map.Entry<String, String>> labelPairs;
+    private volatile List<Map.Entry<Map.Entry<String, String>, Long>> previousLabelPairs = new ArrayList<>();
+    private final MultiGauge seriesGauge;
+    private final MultiGauge samplesGauge;
+    private final MultiGauge labelsGauge;
+    private final Disposable rotation;
+    private final Disposable refresh;
+
+    private CardinalityAnalytics() {
+        this.properties = null;
+        this.sampling = 0;
+        this.sampleMask = 0;
+        this.all = null;
+        this.other = null;
+        this.labelPairs = null;
+        this.seriesGauge = null;
+        this.samplesGauge = null;
+        this.labelsGauge = null;
+        this.rotation = null;
+        this.refresh = null;
+    }
+
+    public CardinalityAnalytics(AnalyticsConfigurationProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.sampling = Integer.highestOneBit(properties.getLabelSampling() * 2 - 1);
+        this.sampleMask = this.sampling - 1;
+        this.all = new Metric(properties.getPrecision());
+        this.other = new Metric(properties.getPrecision());
+        this.labelPairs = new SpaceSaving<>(properties.getLabelPairs());
+
+        Gauge.builder("analytics.series", this, CardinalityAnalytics::getSeries)
+                .description("Estimated number of active series").register(registry);
+        Gauge.builder("analytics.metrics", metrics, Map::size)
+                .description("Metric names with their own sketch").register(registry);
+        this.seriesGauge = MultiGauge.builder("analytics.metric.series")
+                .description("Estimated number of active series of the metric names with the most series").register(registry);
+        this.samplesGauge = MultiGauge.builder("analytics.metric.samples")
+                .description("Samples received in the current and previous windows by the metric names with the most samples").register(registry);
+        this.labelsGauge = MultiGauge.builder("analytics.label.samples")
+                .description("Estimated samples received in the current and previous windows by the label pairs with the most samples")
+                .register(registry);
+
+        this.rotation = Flux.interval(properties.getWindow()).onBackpressureDrop().subscribe(tick -> rotate());
+        this.refresh = Flux.interval(properties.getRefreshInterval()).onBackpressureDrop().subscribe(tick -> refreshGauges());
+    }
+
+    public boolean isEnabled() {
+        return properties != null;
+    }
+
+    /**
+     * @return the series, analyzed as they are decoded
+     */
+    public Flux<PrometheusSeries> observe(Flux<PrometheusSeries> series) {
+        return isEnabled() ? series.doOnNext(this::record) : series;
+    }
+
+    void record(PrometheusSeries series) {
+        final LabelSet labels = series.getLabelSet();
+        final long hash = mix(labels.fingerprint());
+        all.add(hash, series.size());
+        metric(labels.getLabels().get(NAME_LABEL)).add(hash, series.size());
+        // The low bits of the hash select the sampled series, the high ones index the registers
+        if ((hash & sampleMask) == 0) {
+            final long weight = (long) series.size() * sampling;
+            for (Map.Entry<String, String> label : labels.getLabels().entrySet()) {
+                if (!NAME_LABEL.equals(label.getKey())) {
+                    labelPairs.add(label, weight, COPY);
+                }
+            }
+        }
+    }
+
+    private Metric metric(String name) {
+        if (name == null) {
+            return other;
+        }
+        final Metric metric = metrics.get(name);
+        if (metric != null) {
+            return metric;
+        }
+        return metrics.size() < properties.getMaxMetrics() ? metrics.computeIfAbsent(name, n -> new Metric(properties.getPrecision())) : other;
+    }
+
+    /**
+     * Starts a new window, forgetting the metric names without samples in the one ending
+     */
+    void rotate() {
+        all.rotate();
+        other.rotate();
+        metrics.values().removeIf(metric -> !metric.rotate());
+        previousLabelPairs = labelPairs.top(properties.getLabelPairs());
+        labelPairs.clear();
+    }
+
+    /**
+     * @return the estimated number of active series
+     */
+    public long getSeries() {
+        return isEnabled() ? all.estimate() : 0;
+    }
+
+    /**
+     * @return the estimated active series overall and the top talkers
+     */
+    public Report report() {
+        final List<MetricStats> stats = new ArrayList<>(metrics.size() + 1);
+        for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+            stats.add(metric.getValue().stats(metric.getKey()));
+        }
+        if (other.samples() > 0) {
+            stats.add(other.stats(OTHER_METRICS));
+        }
+        final int limit = properties.getTopK();
+        final List<MetricStats> bySeries = stats.stream().sorted(Comparator.comparingLong(MetricStats::getSeries).reversed())
+                .limit(limit).collect(Collectors.toList());
+        final List<MetricStats> bySamples = stats.stream().sorted(Comparator.comparingLong(MetricStats::getSamples).reversed())
+                .limit(limit).collect(Collectors.toList());
+
+        final Map<Map.Entry<String, String>, Long> pairs = new HashMap<>();
+        for (Map.Entry<Map.Entry<String, String>, Long> pair : previousLabelPairs) {
+            pairs.merge(pair.getKey(), pair.getValue(), Long::sum);
+        }
+        for (Map.Entry<Map.Entry<String, String>, Long> pair : labelPairs.top(properties.getLabelPairs())) {
+            pairs.merge(pair.getKey(), pair.getValue(), Long::sum);
+        }
+        final List<LabelStats> labels = pairs.entrySet().stream()
+                .sorted(Map.Entry.<Map.Entry<String, String>, Long>comparingByValue().reversed())
+                .limit(limit)
+                .map(pair -> new LabelStats(pair.getKey().getKey(), pair.getKey().getValue(), pair.getValue()))
+                .collect(Collectors.toList());
+        return new Report(all.estimate(), bySeries, bySamples, labels);
+    }
+
+    private void refreshGauges() {
+        final Report report = report();
+        seriesGauge.register(report.getCardinality().stream()
+                .map(metric -> MultiGauge.Row.of(Tags.of("metric", metric.getName()), metric.getSeries()))
+                .collect(Collectors.toList()), true);
+        samplesGauge.register(report.getSamples().stream()
+                .map(metric -> MultiGauge.Row.of(Tags.of("metric", metric.getName()), metric.getSamples()))
+                .collect(Collectors.toList()), true);
+        labelsGauge.register(report.getLabels().stream()
+                .map(label -> MultiGauge.Row.of(Tags.of("label", label.getName(), "value", label.getValue()), label.getSamples()))
+                .collect(Collectors.toList()), true);
+    }
+
+    /**
+     * A murmur3 finalizer, so every bit of the fingerprint depends on every label
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public void close() {
+        if (isEnabled()) {
+            rotation.dispose();
+            refresh.dispose();
+        }
+    }
+
+    /**
+     * The sketches of the series and the samples of a metric name, for the current and the previous window
+     */
+    private static final class Metric {
+        private final int precision;
+        private final LongAdder samples = new LongAdder();
+        private volatile HyperLogLog current;
+        private volatile HyperLogLog previous;
+        private volatile long previousSamples;
+
+        private Metric(int precision) {
+            this.precision = precision;
+            this.current = new HyperLogLog(precision);
+        }
+
+        private void add(long hash, int count) {
+            current.add(hash);
+            samples.add(count);
+        }
+
+        /**
+         * @return whether the metric received samples in the window ending
+         */
+        private boolean rotate() {
+            previousSamples = samples.sumThenReset();
+            previous = current;
+            current = new HyperLogLog(precision);
+            return previousSamples > 0;
+        }
+
+        private long estimate() {
+            return HyperLogLog.estimate(current, previous);
+        }
+
+        private long samples() {
+            return previousSamples + samples.sum();
+        }
+
+        private MetricStats stats(String name) {
+            return new MetricStats(name, estimate(), samples());
+        }
+    }
+
+    /**
+     * The estimated active series and the top talkers
+     */
+    public static final class Report {
+        private final long series;
+        private final List<MetricStats> cardinality;
+        private final List<MetricStats> samples;
+        private final List<LabelStats> labels;
+
+        Report(long series, List<MetricStats> cardinality, List<MetricStats> samples, List<LabelStats> labels) {
+            this.series = series;
+            this.cardinality = cardinality;
+            this.samples = samples;
+            this.labels = labels;
+        }
+
+        public long getSeries() {
+            return series;
+        }
+
+        /**
+         * @return the metric names with the most active series
+         */
+        public List<MetricStats> getCardinality() {
+            return cardinality;
+        }
+
+        /**
+         * @return the metric names with the most samples
+         */
+        public List<MetricStats> getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the label pairs with the most samples
+         */
+        public List<LabelStats> getLabels() {
+            return labels;
+        }
+    }
+
+    public static final class MetricStats {
+        private final String name;
+        private final long series;
+        private final long samples;
+
+        MetricStats(String name, long series, long samples) {
+            this.name = name;
+            this.series = series;
+            this.samples = samples;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSeries() {
+            return series;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+    }
+
+    public static final class LabelStats {
+        private final String name;
+        private final String value;
+        private final long samples;
+
+        LabelStats(String name, String value, long samples) {
+            this.name = name;
+            this.value = value;
+            this.samples = samples;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.analytics;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * The space-saving sketch of the heaviest keys of a stream, within a fixed number of counters. A new key takes over the counter of the
+ * lightest key, keeping its count as the overestimation of the new one. The counters are kept in a min-heap, so every update takes
+ * logarithmic time.
+ */
+final class SpaceSaving<K> {
+
+    private final Object[] keys;
+    private final long[] counts;
+    private final int[] heap;
+    private final int[] positions;
+    private final Map<K, Integer> slots;
+    private int size;
+
+    SpaceSaving(int capacity) {
+        this.keys = new Object[capacity];
+        this.counts = new long[capacity];
+        this.heap = new int[capacity];
+        this.positions = new int[capacity];
+        this.slots = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * @param key the key to count. It is only kept when new, as returned by {@code copy}
+     * @param weight the weight of the occurrence
+     */
+    synchronized void add(K key, long weight, UnaryOperator<K> copy) {
+        final Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += weight;
+            siftDown(positions[slot]);
+            return;
+        }
+        final K kept = copy.apply(key);
+        if (size < keys.length) {
+            final int added = size++;
+            keys[added] = kept;
+            counts[added] = weight;
+            heap[added] = added;
+            positions[added] = added;
+            slots.put(kept, added);
+            siftUp(added);
+            return;
+        }
+        final int lightest = heap[0];
+        slots.remove(keys[lightest]);
+        keys[lightest] = kept;
+        counts[lightest] += weight;
+        slots.put(kept, lightest);
+        siftDown(0);
+    }
+
+    /**
+     * @return the heaviest keys along with their counts, heaviest first
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<Map.Entry<K, Long>> top(int limit) {
+        final List<Map.Entry<K, Long>> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>((K) keys[i], counts[i]));
+        }
+        entries.sort(Map.Entry.<K, Long>comparingByValue(Comparator.reverseOrder()));
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(keys, 0, size, null);
+        slots.clear();
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[position]]) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            final int left = position * 2 + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int child = right < size && counts[heap[right]] < counts[heap[left]] ? right : left;
+            if (counts[heap[position]] <= counts[heap[child]]) {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        final int slot = heap[a];
+        heap[a] = heap[b];
+        heap[b] = slot;
+        positions[heap[a]] = a;
+        positions[heap[b]] = b;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.config;
+
+import io.github.pmh92.prom2splunk.metrics.BufferMetrics;
+import io.github.pmh92.prom2splunk.properties.BufferConfigurationProperties;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the allocator shared by the HTTP server, the sink clients and the encoders
+ */
+@Configuration(proxyBeanMethods = false)
+public class BufferConfiguration {
+
+    /**
+     * Netty's pooled allocator is shared when it allocates the requested kind of buffers, so there is a single pool in the process
+     */
+    @Bean
+    public ByteBufAllocator byteBufAllocator(BufferConfigurationProperties properties) {
+        if (!properties.isPooled()) {
+            return new UnpooledByteBufAllocator(properties.isDirect());
+        }
+        return properties.isDirect() == PooledByteBufAllocator.defaultPreferDirect()
+                ? PooledByteBufAllocator.DEFAULT
+                : new PooledByteBufAllocator(properties.isDirect());
+    }
+
+    @Bean
+    public BufferMetrics bufferMetrics(ByteBufAllocator alloc) {
+        return new BufferMetrics(alloc);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.config;
+
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.properties.ExecutionConfigurationProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.netty.buffer.ByteBufAllocator;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.resources.LoopResources;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configures the threads the requests are received, decoded and written to the sink on
+ */
+@Configuration(proxyBeanMethods = false)
+public class ExecutionConfiguration {
+
+    private static final String OFFLOAD = "prom2splunk-offload";
+    private static final String PARALLEL = "prom2splunk-parallel";
+
+    @Bean(destroyMethod = "dispose")
+    public ExecutionResources executionResources(ExecutionConfigurationProperties properties, ByteBufAllocator alloc, MeterRegistry registry) {
+        final ExecutionConfigurationProperties.Parallel parallel = properties.getParallel();
+        final int parallelism = parallel.getThreads() > 0 ? parallel.getThreads() : Runtime.getRuntime().availableProcessors();
+        return new ExecutionResources(loops("prom2splunk-ingest", properties.getIngest()), loops("prom2splunk-sink", properties.getSink()),
+                properties.isNativeTransport(), alloc, properties.getOffload().isEnabled() ? offload(properties.getOffload(), registry) : null,
+                parallel.isEnabled() ? parallel(parallelism, registry) : null, parallelism, parallel.getChunkSeries());
+    }
+
+    /**
+     * Runs the HTTP server on the ingest event loops
+     */
+    @Bean
+    public NettyServerCustomizer ingestLoopsCustomizer(ExecutionResources resources) {
+        return resources::configure;
+    }
+
+    private static LoopResources loops(String prefix, ExecutionConfigurationProperties.Loops loops) {
+        return loops.getThreads() > 0
+                ? LoopResources.create(prefix, loops.getThreads(), true)
+                : LoopResources.create(prefix);
+    }
+
+    /**
+     * A fixed number of threads with a bounded queue, so that a burst of large requests is rejected rather than piling up. The executor is
+     * monitored as {@code executor.*} with the name {@code prom2splunk-offload}
+     */
+    private static Scheduler offload(ExecutionConfigurationProperties.Offload offload, MeterRegistry registry) {
+        final int threads = offload.getThreads() > 0 ? offload.getThreads() : Runtime.getRuntime().availableProcessors();
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(OFFLOAD + "-");
+        threadFactory.setDaemon(true);
+        final ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(offload.getQueueSize()), threadFactory);
+        return Schedulers.fromExecutorService(ExecutorServiceMetrics.monitor(registry, executor, OFFLOAD), OFFLOAD);
+    }
+
+    /**
+     * A work-stealing pool, so that the threads done with their chunks take over the chunks queued on the busy ones. The pool is monitored as
+     * {@code executor.*} with the name {@code prom2splunk-parallel}
+     */
+    private static Scheduler parallel(int parallelism, MeterRegistry registry) {
+        final AtomicInteger count = new AtomicInteger();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism, factory -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(factory);
+            thread.setName(PARALLEL + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+        return Schedulers.fromExecutorService(ExecutorServiceMetrics.monitor(registry, pool, PARALLEL), PARALLEL);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.config;
+
+import io.github.pmh92.prom2splunk.http.protobuf.ProtobufRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.http.protobuf.RemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.http.protobuf.RemoteWriteV2Decoder;
+import io.github.pmh92.prom2splunk.http.protobuf.SeriesCache;
+import io.github.pmh92.prom2splunk.http.protobuf.StreamingRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.properties.IngestConfigurationProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures how the remote_write requests are received
+ */
+@Configuration(proxyBeanMethods = false)
+public class IngestConfiguration {
+
+    /**
+     * Shared by the decoders of both remote_write versions, so the series are bounded and reported as a single cache
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "prom2splunk.ingest.series-cache", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public SeriesCache seriesCache(IngestConfigurationProperties properties, MeterRegistry registry) {
+        return new SeriesCache(properties.getSeriesCache().getMaximumSize(), registry);
+    }
+
+    @Bean
+    public RemoteWriteDecoder remoteWriteDecoder(IngestConfigurationProperties properties, ObjectProvider<SeriesCache> cache, StageMetrics stages) {
+        if (properties.getDecoder() == IngestConfigurationProperties.Decoder.STREAMING) {
+            return new StreamingRemoteWriteDecoder(cache.getIfAvailable(), stages);
+        }
+        return new ProtobufRemoteWriteDecoder(stages);
+    }
+
+    @Bean
+    public RemoteWriteV2Decoder remoteWriteV2Decoder(ObjectProvider<SeriesCache> cache, StageMetrics stages) {
+        return new RemoteWriteV2Decoder(cache.getIfAvailable(), stages);
+    }
+}
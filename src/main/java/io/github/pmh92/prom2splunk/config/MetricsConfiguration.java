@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.config;
+
+import io.github.pmh92.prom2splunk.analytics.CardinalityAnalytics;
+import io.github.pmh92.prom2splunk.analytics.CardinalityEndpoint;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.properties.AnalyticsConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.MetricsConfigurationProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the detailed metrics of the pipeline
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfiguration {
+
+    @Bean
+    public StageMetrics stageMetrics(MetricsConfigurationProperties properties, MeterRegistry registry) {
+        return properties.isEnabled() ? new StageMetrics(registry, properties.isPercentileHistogram()) : StageMetrics.DISABLED;
+    }
+
+    @Bean
+    public CardinalityAnalytics cardinalityAnalytics(AnalyticsConfigurationProperties properties, MeterRegistry registry) {
+        return properties.isEnabled() ? new CardinalityAnalytics(properties, registry) : CardinalityAnalytics.DISABLED;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "prom2splunk.analytics", name = "enabled", havingValue = "true")
+    public CardinalityEndpoint cardinalityEndpoint(CardinalityAnalytics analytics) {
+        return new CardinalityEndpoint(analytics);
+    }
+}
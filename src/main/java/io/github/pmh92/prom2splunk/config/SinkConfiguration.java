@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.properties.DeduplicationConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.DownsamplingConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.HecSinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.SinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.SpoolConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.DefaultTcpSplunkSink;
+import io.github.pmh92.prom2splunk.sink.SinkMetrics;
+import io.github.pmh92.prom2splunk.sink.SinkFilter;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.github.pmh92.prom2splunk.sink.filter.DeduplicationSinkFilter;
+import io.github.pmh92.prom2splunk.sink.filter.DownsamplingSinkFilter;
+import io.github.pmh92.prom2splunk.sink.filter.RoutingSinkFilter;
+import io.github.pmh92.prom2splunk.sink.hec.HecSplunkSink;
+import io.github.pmh92.prom2splunk.sink.spool.SpoolingSplunkSink;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Assembles the sink the received metrics are handed to
+ */
+@Configuration(proxyBeanMethods = false)
+public class SinkConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(prefix = "prom2splunk.sink", name = "type", havingValue = "hec")
+    public HecSplunkSink hecSplunkSink(HecSinkConfigurationProperties properties, ObjectMapper mapper, MeterRegistry registry, StageMetrics stages,
+                                       ExecutionResources execution) {
+        return new HecSplunkSink(SinkMetrics.DEFAULT_SINK, properties, mapper, registry, stages, execution);
+    }
+
+    /**
+     * The deduplication goes first, so the samples of the replicas not elected are dropped before anything else
+     */
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @ConditionalOnProperty(prefix = "prom2splunk.deduplication", name = "enabled", havingValue = "true")
+    public DeduplicationSinkFilter deduplicationSinkFilter(DeduplicationConfigurationProperties properties, MeterRegistry registry) {
+        return new DeduplicationSinkFilter(properties, registry);
+    }
+
+    /**
+     * The routing rules go next, so the series they drop are not aggregated and the series they route skip the rest of the chain. The named
+     * sinks are closed along with the filter
+     */
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    @ConditionalOnProperty(prefix = "prom2splunk.routing", name = "enabled", havingValue = "true")
+    public RoutingSinkFilter routingSinkFilter(RoutingConfigurationProperties properties, ObjectMapper mapper, MeterRegistry registry,
+                                               StageMetrics stages, ExecutionResources execution) {
+        final Map<String, SplunkSink> sinks = new LinkedHashMap<>();
+        for (Map.Entry<String, RoutingConfigurationProperties.Sink> sink : properties.getSinks().entrySet()) {
+            final RoutingConfigurationProperties.Sink target = sink.getValue();
+            sinks.put(sink.getKey(), target.getType() == SinkConfigurationProperties.Type.HEC
+                    ? new HecSplunkSink(sink.getKey(), target.getHec(), mapper, registry, stages, execution)
+                    : new DefaultTcpSplunkSink(sink.getKey(), registry, target.getTcp(), mapper, stages, execution));
+        }
+        return new RoutingSinkFilter(properties, sinks, registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "prom2splunk.downsampling", name = "enabled", havingValue = "true")
+    public DownsamplingSinkFilter downsamplingSinkFilter(DownsamplingConfigurationProperties properties, MeterRegistry registry) {
+        return new DownsamplingSinkFilter(properties, registry);
+    }
+
+    /**
+     * The spool is a bean of its own, rather than hidden behind the filters, so it is closed on shutdown: the drainer is stopped and the
+     * spool is synced and checkpointed. The drained series are handed to the sink in chunks of the size of the parallel execution
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "prom2splunk.spool", name = "enabled", havingValue = "true")
+    public SpoolingSplunkSink spoolingSplunkSink(ObjectProvider<DefaultTcpSplunkSink> tcpSink, ObjectProvider<HecSplunkSink> hecSink,
+                                                 SinkConfigurationProperties sinkProperties, SpoolConfigurationProperties spool,
+                                                 ExecutionResources execution, MeterRegistry registry) throws IOException {
+        return new SpoolingSplunkSink(sink(tcpSink, hecSink, sinkProperties), spool, execution.getChunkSeries(), registry);
+    }
+
+    /**
+     * The received metrics go through the {@link SinkFilter} beans, in order, then through the spool if enabled, and finally to the sink
+     */
+    @Bean
+    @Primary
+    public SplunkSink splunkSink(ObjectProvider<DefaultTcpSplunkSink> tcpSink, ObjectProvider<HecSplunkSink> hecSink,
+                                 ObjectProvider<SpoolingSplunkSink> spoolingSink, ObjectProvider<SinkFilter> filters,
+                                 SinkConfigurationProperties sinkProperties) {
+        final SpoolingSplunkSink spool = spoolingSink.getIfAvailable();
+        final SplunkSink sink = spool != null ? spool : sink(tcpSink, hecSink, sinkProperties);
+        final Optional<SinkFilter> chain = filters.orderedStream().reduce(SinkFilter::andThen);
+        return chain.isPresent() ? chain.get().apply(sink) : sink;
+    }
+
+    private static SplunkSink sink(ObjectProvider<DefaultTcpSplunkSink> tcpSink, ObjectProvider<HecSplunkSink> hecSink,
+                                   SinkConfigurationProperties sinkProperties) {
+        return sinkProperties.getType() == SinkConfigurationProperties.Type.HEC ? hecSink.getObject() : tcpSink.getObject();
+    }
+}
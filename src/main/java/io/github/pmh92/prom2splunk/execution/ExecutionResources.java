@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.execution;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpClient;
+
+import java.util.function.Function;
+
+/**
+ * The event loops the requests are received on and the sinks are written from, kept apart so that a busy ingest does not delay the writes
+ * to the sinks, the schedulers the CPU-heavy decoding and encoding may be moved to, and the allocator shared by all of them.
+ */
+public class ExecutionResources implements Disposable {
+
+    /**
+     * Reactor Netty's global resources, Netty's default allocator and no offload, for the components built outside of the application context
+     */
+    public static final ExecutionResources DEFAULT = new ExecutionResources(null, null, true, null);
+
+    private final LoopResources ingest;
+    private final LoopResources sink;
+    private final boolean preferNative;
+    private final ByteBufAllocator alloc;
+    private final Scheduler offload;
+    private final Scheduler parallel;
+    private final int parallelism;
+    private final int chunkSeries;
+
+    public ExecutionResources(LoopResources ingest, LoopResources sink, boolean preferNative, Scheduler offload) {
+        this(ingest, sink, preferNative, ByteBufAllocator.DEFAULT, offload, null, 0, 0);
+    }
+
+    /**
+     * @param ingest the event loops of the HTTP server, Reactor Netty's global ones when {@code null}
+     * @param sink the event loops of the sink clients, Reactor Netty's global ones when {@code null}
+     * @param preferNative whether the native transport is used when available
+     * @param alloc the allocator of the channels and of the encoded events
+     * @param offload the scheduler the requests are decoded on, {@code null} to decode them on the event loop that received them
+     * @param parallel the scheduler the chunks of large requests are decoded and encoded on, {@code null} to not split the requests
+     * @param parallelism the number of chunks handled at the same time
+     * @param chunkSeries the maximum number of time series of a chunk
+     */
+    public ExecutionResources(LoopResources ingest, LoopResources sink, boolean preferNative, ByteBufAllocator alloc, Scheduler offload,
+                              Scheduler parallel, int parallelism, int chunkSeries) {
+        this.ingest = ingest;
+        this.sink = sink;
+        this.preferNative = preferNative;
+        this.alloc = alloc;
+        this.offload = offload;
+        this.parallel = parallel;
+        this.parallelism = parallelism;
+        this.chunkSeries = chunkSeries;
+    }
+
+    public HttpServer configure(HttpServer server) {
+        final HttpServer allocating = server.childOption(ChannelOption.ALLOCATOR, alloc);
+        return ingest != null ? allocating.runOn(ingest, preferNative) : allocating;
+    }
+
+    public TcpClient configure(TcpClient client) {
+        final TcpClient allocating = client.option(ChannelOption.ALLOCATOR, alloc);
+        return sink != null ? allocating.runOn(sink, preferNative) : allocating;
+    }
+
+    public HttpClient configure(HttpClient client) {
+        final HttpClient allocating = client.option(ChannelOption.ALLOCATOR, alloc);
+        return sink != null ? allocating.runOn(sink, preferNative) : allocating;
+    }
+
+    /**
+     * @return the allocator the events are encoded with. The buffers are owned by whoever holds them until written to a channel, which
+     * releases them once flushed
+     */
+    public ByteBufAllocator alloc() {
+        return alloc;
+    }
+
+    /**
+     * Moves the decoding of a request, and whatever runs on the same thread downstream such as the encoding, to the offload scheduler
+     */
+    public <T> Flux<T> offload(Flux<T> decoded) {
+        return offload != null ? decoded.subscribeOn(offload) : decoded;
+    }
+
+    /**
+     * @return whether the large requests are split in chunks handled in parallel
+     */
+    public boolean isParallel() {
+        return parallel != null;
+    }
+
+    public int getChunkSeries() {
+        return chunkSeries;
+    }
+
+    /**
+     * Runs the work of every chunk on the parallel scheduler. The items of a chunk keep their order, the chunks are merged as they complete
+     */
+    public <T, R> Flux<R> parallel(Flux<T> chunks, Function<T, Publisher<R>> work) {
+        if (parallel == null) {
+            return chunks.concatMap(work);
+        }
+        return chunks.parallel(parallelism)
+                .runOn(parallel, 1)
+                .flatMap(work, false, 1, 256)
+                .sequential();
+    }
+
+    @Override
+    public void dispose() {
+        if (offload != null) {
+            offload.dispose();
+        }
+        if (parallel != null) {
+            parallel.dispose();
+        }
+        if (ingest != null) {
+            ingest.disposeLater().block();
+        }
+        if (sink != null) {
+            sink.disposeLater().block();
+        }
+    }
+}
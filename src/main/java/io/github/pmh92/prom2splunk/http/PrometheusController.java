@@ -10,40 +10,140 @@
 
 package io.github.pmh92.prom2splunk.http;
 
-import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.github.pmh92.prom2splunk.analytics.CardinalityAnalytics;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.http.protobuf.RemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.http.protobuf.RemoteWriteV2Decoder;
+import io.github.pmh92.prom2splunk.http.protobuf.WriteStats;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
 import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
-import prometheus.Types;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.server.UnsupportedMediaTypeStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
- * The controller that receives Promtheus metrics and forwards them to Splunk
+ * The controller that receives Promtheus metrics and forwards them to Splunk. Both the remote_write 1.0 and 2.0 messages are accepted, as told
+ * by the {@code proto} parameter of the content type
  */
 @RestController
 public class PrometheusController {
 
+    static final String PROTO_PARAMETER = "proto";
+    static final String V1_PROTO = "prometheus.WriteRequest";
+    static final String V2_PROTO = "io.prometheus.write.v2.Request";
+
+    static final String SAMPLES_WRITTEN = "X-Prometheus-Remote-Write-Samples-Written";
+    static final String HISTOGRAMS_WRITTEN = "X-Prometheus-Remote-Write-Histograms-Written";
+    static final String EXEMPLARS_WRITTEN = "X-Prometheus-Remote-Write-Exemplars-Written";
+
+    private static final MediaType PROTOBUF = MediaType.parseMediaType("application/x-protobuf");
+    private static final List<MediaType> SUPPORTED = Arrays.asList(
+            new MediaType(PROTOBUF, Collections.singletonMap(PROTO_PARAMETER, V1_PROTO)),
+            new MediaType(PROTOBUF, Collections.singletonMap(PROTO_PARAMETER, V2_PROTO)));
+
     private final SplunkSink sink;
+    private final RemoteWriteDecoder decoder;
+    private final RemoteWriteV2Decoder v2Decoder;
+    private final StageMetrics stages;
+    private final ExecutionResources execution;
+    private final CardinalityAnalytics analytics;
 
-    public PrometheusController(SplunkSink sink) {
+    public PrometheusController(SplunkSink sink, RemoteWriteDecoder decoder, RemoteWriteV2Decoder v2Decoder, StageMetrics stages,
+                                ExecutionResources execution, CardinalityAnalytics analytics) {
         this.sink = sink;
+        this.decoder = decoder;
+        this.v2Decoder = v2Decoder;
+        this.stages = stages;
+        this.execution = execution;
+        this.analytics = analytics;
     }
 
     @PostMapping(value = "/write")
-    public Mono<Void> sendMetric(@RequestBody prometheus.Remote.WriteRequest request) {
-        return Flux.fromIterable(request.getTimeseriesList())
-                .flatMap(ts -> {
-                    Map<String,String> labels = ts.getLabelsList().stream()
-                            .collect(Collectors.toMap(Types.Label::getName, Types.Label::getValue));
-                    return Flux.fromIterable(ts.getSamplesList())
-                            .map(s -> new PrometheusSample(s.getTimestamp(), labels, s.getValue()));
-                })
-                .flatMap(sink::handle)
-                .then();
+    public Mono<Void> sendMetric(@RequestBody Flux<DataBuffer> body, ServerHttpRequest httpRequest, ServerHttpResponse httpResponse) {
+        final MediaType contentType = httpRequest.getHeaders().getContentType();
+        final String proto = contentType != null ? contentType.getParameter(PROTO_PARAMETER) : null;
+        final Function<DataBuffer, Mono<Void>> handler;
+        if (proto == null || V1_PROTO.equals(proto)) {
+            handler = this::handleRequest;
+        } else if (V2_PROTO.equals(proto)) {
+            handler = request -> handleV2Request(request, httpResponse.getHeaders());
+        } else {
+            return Mono.error(new UnsupportedMediaTypeStatusException(contentType, SUPPORTED));
+        }
+        return Mono.usingWhen(DataBufferUtils.join(body),
+                        handler,
+                        request -> Mono.fromRunnable(() -> DataBufferUtils.release(request)))
+                .onErrorMap(InvalidProtocolBufferException.class, ex -> new ServerWebInputException("Invalid remote_write request", null, ex))
+                .onErrorMap(RejectedExecutionException.class,
+                        ex -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "No capacity left to decode the request", ex));
+    }
+
+    /**
+     * The remote_write 2.0 requests are not split, as all their series share the symbols table. Once handled, the sender is told what has
+     * been written
+     */
+    private Mono<Void> handleV2Request(DataBuffer request, HttpHeaders headers) {
+        final WriteStats stats = new WriteStats();
+        final AtomicLong samples = new AtomicLong();
+        final Flux<PrometheusSeries> series = analytics.observe(execution.offload(v2Decoder.decode(request, stats)));
+        final Mono<Void> handled = sink.handleSeries(inFlight(series, samples))
+                .doOnSuccess(r -> {
+                    headers.set(SAMPLES_WRITTEN, Long.toString(stats.getSamples()));
+                    headers.set(HISTOGRAMS_WRITTEN, Long.toString(stats.getHistograms()));
+                    headers.set(EXEMPLARS_WRITTEN, Long.toString(stats.getExemplars()));
+                });
+        return stages.isEnabled() ? handled.doFinally(signal -> stages.addInFlightSamples(-samples.get())) : handled;
+    }
+
+    /**
+     * The requests with more series than a chunk are split, and their chunks decoded and encoded in parallel when enabled
+     */
+    private Mono<Void> handleRequest(DataBuffer request) {
+        final List<DataBuffer> chunks;
+        try {
+            chunks = execution.isParallel() ? decoder.split(request, execution.getChunkSeries()) : Collections.singletonList(request);
+        } catch (IOException ex) {
+            return Mono.error(ex);
+        }
+        final AtomicLong samples = new AtomicLong();
+        final Mono<Void> handled = chunks.size() > 1
+                ? sink.handleChunks(Flux.fromIterable(chunks).map(chunk -> inFlight(analytics.observe(decoder.decode(chunk)), samples)))
+                : sink.handleSeries(inFlight(analytics.observe(execution.offload(decoder.decode(request))), samples));
+        return stages.isEnabled() ? handled.doFinally(signal -> stages.addInFlightSamples(-samples.get())) : handled;
+    }
+
+    /**
+     * Counts the samples of the request as in flight from their decoding until the request completes, that is, until all of them are written
+     */
+    private Flux<PrometheusSeries> inFlight(Flux<PrometheusSeries> decoded, AtomicLong samples) {
+        if (!stages.isEnabled()) {
+            return decoded;
+        }
+        return decoded.doOnNext(series -> {
+            samples.addAndGet(series.size());
+            stages.addInFlightSamples(series.size());
+        });
     }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.admission;
+
+import io.github.pmh92.prom2splunk.properties.AdmissionConfigurationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rejects the remote_write requests when the application is overloaded, so Prometheus backs off and retries later instead of timing out.
+ * A request is admitted while the size of the bodies being processed is within the configured budget and the number of requests being
+ * processed is within the adaptive limit of the {@link AimdLimiter}, driven by the latency and the errors of the requests handled by the sink.
+ *
+ * @see AdmissionConfigurationProperties
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class AdmissionWebFilter implements WebFilter {
+
+    private static final String WRITE_PATH = "/write";
+
+    private final AdmissionConfigurationProperties properties;
+    private final AimdLimiter limiter;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Counter concurrencyRejections;
+    private final Counter bytesRejections;
+
+    public AdmissionWebFilter(AdmissionConfigurationProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.limiter = new AimdLimiter(properties.getInitialLimit(), properties.getMinLimit(), properties.getMaxLimit(),
+                properties.getLatencyThreshold().toNanos(), TimeUnit.NANOSECONDS, properties.getBackoffRatio());
+        this.concurrencyRejections = Counter.builder("admission.rejections").description("Requests rejected by the admission control")
+                .tag("reason", "concurrency").register(registry);
+        this.bytesRejections = Counter.builder("admission.rejections").description("Requests rejected by the admission control")
+                .tag("reason", "bytes").register(registry);
+        Gauge.builder("admission.inflight.requests", limiter, AimdLimiter::getInFlight)
+                .description("Requests being processed").register(registry);
+        Gauge.builder("admission.inflight.bytes", inFlightBytes, AtomicLong::get).baseUnit("bytes")
+                .description("Size of the request bodies being processed").register(registry);
+        Gauge.builder("admission.limit", limiter, AimdLimiter::getLimit)
+                .description("Maximum number of requests processed at the same time").register(registry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        final ServerHttpRequest request = exchange.getRequest();
+        if (!properties.isEnabled() || request.getMethod() != HttpMethod.POST || !WRITE_PATH.equals(request.getPath().pathWithinApplication().value())) {
+            return chain.filter(exchange);
+        }
+        final long contentLength = request.getHeaders().getContentLength();
+        final long bytes = contentLength >= 0 ? contentLength : properties.getUnknownLengthEstimate().toBytes();
+        if (!tryAcquireBytes(bytes)) {
+            bytesRejections.increment();
+            return reject(exchange.getResponse());
+        }
+        if (!limiter.tryAcquire()) {
+            inFlightBytes.addAndGet(-bytes);
+            concurrencyRejections.increment();
+            return reject(exchange.getResponse());
+        }
+        final AdmittedBytes admitted = new AdmittedBytes(inFlightBytes, bytes);
+        exchange.getAttributes().put(AdmittedBytes.ATTRIBUTE, admitted);
+        final long start = System.nanoTime();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        return chain.filter(exchange).doOnError(error::set).doFinally(signal -> {
+            admitted.release();
+            if (isNeutral(signal, error.get(), exchange.getResponse())) {
+                limiter.release();
+            } else {
+                limiter.release(start, signal == SignalType.ON_ERROR);
+            }
+        });
+    }
+
+    /**
+     * Only the latency and the errors of the sink drive the limit. The requests cancelled by the client, rejected as invalid or too large, or
+     * rejected because there is no capacity left to decode them tell nothing about the sink
+     */
+    private static boolean isNeutral(SignalType signal, Throwable error, ServerHttpResponse response) {
+        if (signal == SignalType.CANCEL) {
+            return true;
+        }
+        if (signal == SignalType.ON_COMPLETE) {
+            final HttpStatus status = response.getStatusCode();
+            return status != null && status.is4xxClientError();
+        }
+        return error instanceof ResponseStatusException && (((ResponseStatusException) error).getStatus().is4xxClientError()
+                || error.getCause() instanceof RejectedExecutionException);
+    }
+
+    /**
+     * A request is always admitted when no other request is being processed, even if it exceeds the budget on its own
+     */
+    private boolean tryAcquireBytes(long bytes) {
+        final long max = properties.getMaxInFlightBytes().toBytes();
+        while (true) {
+            final long current = inFlightBytes.get();
+            if (current > 0 && current + bytes > max) {
+                return false;
+            }
+            if (inFlightBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private Mono<Void> reject(ServerHttpResponse response) {
+        response.setStatusCode(properties.getRejectStatus());
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, properties.getRetryAfter().getSeconds())));
+        return response.setComplete();
+    }
+}
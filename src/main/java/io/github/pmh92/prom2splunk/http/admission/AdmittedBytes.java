@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bytes an admitted request holds in the budget of the {@link AdmissionWebFilter}. The request is admitted with an estimate of its size,
+ * which is replaced by the size of its decompressed body as soon as it is known, so the budget bounds the memory actually held.
+ */
+public final class AdmittedBytes {
+
+    /**
+     * The exchange attribute holding the bytes of an admitted remote_write request
+     */
+    public static final String ATTRIBUTE = AdmittedBytes.class.getName();
+
+    private final AtomicLong inFlightBytes;
+    private long charged;
+    private boolean released;
+
+    AdmittedBytes(AtomicLong inFlightBytes, long estimate) {
+        this.inFlightBytes = inFlightBytes;
+        this.charged = estimate;
+    }
+
+    /**
+     * Replaces the bytes charged to the budget. Nothing is charged once the request has completed
+     * @param bytes the size held by the request
+     */
+    public synchronized void charge(long bytes) {
+        if (!released) {
+            inFlightBytes.addAndGet(bytes - charged);
+            charged = bytes;
+        }
+    }
+
+    synchronized void release() {
+        if (!released) {
+            inFlightBytes.addAndGet(-charged);
+            released = true;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import org.springframework.core.io.buffer.DataBuffer;
+import prometheus.Remote;
+import prometheus.Types;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Decodes the whole request into the generated {@link Remote.WriteRequest} before emitting any sample
+ */
+public class ProtobufRemoteWriteDecoder implements RemoteWriteDecoder {
+
+    private final StageMetrics stages;
+
+    public ProtobufRemoteWriteDecoder() {
+        this(StageMetrics.DISABLED);
+    }
+
+    public ProtobufRemoteWriteDecoder(StageMetrics stages) {
+        this.stages = stages;
+    }
+
+    @Override
+    public Flux<PrometheusSeries> decode(DataBuffer body) {
+        return Flux.defer(() -> {
+            final long start = stages.start();
+            final Remote.WriteRequest request;
+            try {
+                request = Remote.WriteRequest.parseFrom(body.asByteBuffer());
+            } catch (Exception ex) {
+                return Flux.error(ex);
+            } finally {
+                stages.record(StageMetrics.Stage.DECODE, start);
+            }
+            // Time spent building the label sets. Recorded once for the whole request
+            final long[] nanos = new long[1];
+            return Flux.fromIterable(request.getTimeseriesList())
+                    .map(ts -> {
+                        final long started = stages.start();
+                        LabelSet labels = LabelSet.of(ts.getLabelsList().stream()
+                                .collect(Collectors.toMap(Types.Label::getName, Types.Label::getValue)));
+                        nanos[0] += stages.start() - started;
+                        final int size = ts.getSamplesCount();
+                        final long[] timestamps = new long[size];
+                        final double[] values = new double[size];
+                        for (int i = 0; i < size; i++) {
+                            final Types.Sample sample = ts.getSamples(i);
+                            timestamps[i] = sample.getTimestamp();
+                            values[i] = sample.getValue();
+                        }
+                        return new PrometheusSeries(labels, timestamps, values, size);
+                    })
+                    .doFinally(signal -> stages.recordNanos(StageMetrics.Stage.LABELS, nanos[0]));
+        });
+    }
+
+    @Override
+    public List<DataBuffer> split(DataBuffer body, int seriesPerChunk) throws IOException {
+        return WriteRequestSplitter.split(body, seriesPerChunk);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes the body of a Prometheus remote_write request
+ */
+@FunctionalInterface
+public interface RemoteWriteDecoder {
+
+    /**
+     * Decodes an uncompressed remote_write request. The body is owned by the caller and shall not be released until the returned
+     * {@code Flux} terminates
+     * @param body the uncompressed request body
+     * @return a {@code Flux} with the series contained in the request
+     */
+    Flux<PrometheusSeries> decode(DataBuffer body);
+
+    /**
+     * Splits an uncompressed remote_write request in chunks that can be decoded on their own. By default, the request is not split
+     * @param body the uncompressed request body
+     * @param seriesPerChunk the maximum number of time series of every chunk
+     * @return slices of the body, in order, sharing its memory
+     */
+    default List<DataBuffer> split(DataBuffer body, int seriesPerChunk) throws IOException {
+        return Collections.singletonList(body);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Decodes the body of a remote_write 2.0 request, {@code io.prometheus.write.v2.Request}, walking its protobuf wire format one time series at a
+ * time as {@link StreamingRemoteWriteDecoder} does. The symbols table is read first, so every label name and value is decoded a single time
+ * however many series refer to it. When a {@link SeriesCache} is available, the label set of a known series is looked up by its resolved
+ * references instead of being built again. The samples are sent as they are, the native histograms as their {@code <metric>_count} and
+ * {@code <metric>_sum}. The exemplars, the metadata and the created timestamps are not sent.
+ */
+public class RemoteWriteV2Decoder {
+
+    private static final String METRIC_NAME = "__name__";
+
+    private static final int REQUEST_SYMBOLS = tag(4, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int REQUEST_TIMESERIES = tag(5, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TIMESERIES_LABELS_REFS_PACKED = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TIMESERIES_LABELS_REFS = tag(1, WireFormat.WIRETYPE_VARINT);
+    private static final int TIMESERIES_SAMPLES = tag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TIMESERIES_HISTOGRAMS = tag(3, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int SAMPLE_VALUE = tag(1, WireFormat.WIRETYPE_FIXED64);
+    private static final int SAMPLE_TIMESTAMP = tag(2, WireFormat.WIRETYPE_VARINT);
+    private static final int HISTOGRAM_COUNT_INT = tag(1, WireFormat.WIRETYPE_VARINT);
+    private static final int HISTOGRAM_COUNT_FLOAT = tag(2, WireFormat.WIRETYPE_FIXED64);
+    private static final int HISTOGRAM_SUM = tag(3, WireFormat.WIRETYPE_FIXED64);
+    private static final int HISTOGRAM_TIMESTAMP = tag(15, WireFormat.WIRETYPE_VARINT);
+
+    private final SeriesCache cache;
+    private final StageMetrics stages;
+
+    public RemoteWriteV2Decoder() {
+        this(null, StageMetrics.DISABLED);
+    }
+
+    public RemoteWriteV2Decoder(SeriesCache cache, StageMetrics stages) {
+        this.cache = cache;
+        this.stages = stages;
+    }
+
+    /**
+     * Decodes an uncompressed remote_write 2.0 request. The body is owned by the caller and shall not be released until the returned
+     * {@code Flux} terminates
+     * @param body the uncompressed request body
+     * @param stats counts the samples and histograms emitted
+     * @return a {@code Flux} with the series contained in the request
+     */
+    public Flux<PrometheusSeries> decode(DataBuffer body, WriteStats stats) {
+        return Flux.defer(() -> {
+            final ByteBuffer bytes = body.asByteBuffer();
+            // Time spent decoding the series and, out of it, their labels. Recorded once for the whole request
+            final long[] nanos = new long[2];
+            final long start = stages.start();
+            final String[] symbols;
+            try {
+                symbols = readSymbols(CodedInputStream.newInstance(bytes.duplicate()));
+            } catch (IOException ex) {
+                stages.record(StageMetrics.Stage.DECODE, start);
+                return Flux.error(ex);
+            }
+            nanos[0] += stages.start() - start;
+            return Flux.<PrometheusSeries, Reader>generate(() -> new Reader(CodedInputStream.newInstance(bytes.duplicate()), symbols, stats),
+                    (reader, sink) -> {
+                        final long started = stages.start();
+                        try {
+                            final PrometheusSeries series = reader.next(nanos);
+                            if (series != null) {
+                                sink.next(series);
+                            } else {
+                                sink.complete();
+                            }
+                        } catch (IOException ex) {
+                            sink.error(ex);
+                        } finally {
+                            nanos[0] += stages.start() - started;
+                        }
+                        return reader;
+                    }, reader -> {
+                        stages.recordNanos(StageMetrics.Stage.DECODE, nanos[0] - nanos[1]);
+                        stages.recordNanos(StageMetrics.Stage.LABELS, nanos[1]);
+                    });
+        });
+    }
+
+    /**
+     * Reads the symbols table, skipping the time series. The table usually comes first, but may be anywhere in the request
+     */
+    private static String[] readSymbols(CodedInputStream input) throws IOException {
+        final List<String> symbols = new ArrayList<>();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == REQUEST_SYMBOLS) {
+                symbols.add(input.readStringRequireUtf8());
+            } else {
+                input.skipField(tag);
+            }
+        }
+        return symbols.toArray(new String[0]);
+    }
+
+    /**
+     * Reads the time series of a request in turn. A time series may become up to three series, which are handed out one at a time
+     */
+    private final class Reader {
+        private final CodedInputStream input;
+        private final String[] symbols;
+        private final WriteStats stats;
+        private final Queue<PrometheusSeries> pending = new ArrayDeque<>(2);
+        private int[] refs = new int[16];
+        private String[] resolved = new String[16];
+
+        Reader(CodedInputStream input, String[] symbols, WriteStats stats) {
+            this.input = input;
+            this.symbols = symbols;
+            this.stats = stats;
+        }
+
+        /**
+         * @return the next series or {@code null} if the end of the request has been reached
+         */
+        PrometheusSeries next(long[] nanos) throws IOException {
+            while (pending.isEmpty()) {
+                final int tag = input.readTag();
+                if (tag == 0) {
+                    return null;
+                }
+                if (tag == REQUEST_TIMESERIES) {
+                    final int limit = input.pushLimit(input.readRawVarint32());
+                    readTimeSeries(nanos);
+                    input.popLimit(limit);
+                } else {
+                    input.skipField(tag);
+                }
+            }
+            return pending.poll();
+        }
+
+        private void readTimeSeries(long[] nanos) throws IOException {
+            int refCount = 0;
+            long[] timestamps = null;
+            double[] values = null;
+            int samples = 0;
+            long[] histogramTimestamps = null;
+            double[] counts = null;
+            double[] sums = null;
+            int histograms = 0;
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (tag == TIMESERIES_LABELS_REFS_PACKED) {
+                    final int limit = input.pushLimit(input.readRawVarint32());
+                    while (!input.isAtEnd()) {
+                        refCount = addRef(refCount, input.readRawVarint32());
+                    }
+                    input.popLimit(limit);
+                } else if (tag == TIMESERIES_LABELS_REFS) {
+                    refCount = addRef(refCount, input.readRawVarint32());
+                } else if (tag == TIMESERIES_SAMPLES) {
+                    if (timestamps == null) {
+                        timestamps = new long[1];
+                        values = new double[1];
+                    } else if (samples == timestamps.length) {
+                        timestamps = Arrays.copyOf(timestamps, samples * 2);
+                        values = Arrays.copyOf(values, samples * 2);
+                    }
+                    final int limit = input.pushLimit(input.readRawVarint32());
+                    long timestamp = 0;
+                    double value = 0;
+                    int field;
+                    while ((field = input.readTag()) != 0) {
+                        if (field == SAMPLE_VALUE) {
+                            value = input.readDouble();
+                        } else if (field == SAMPLE_TIMESTAMP) {
+                            timestamp = input.readInt64();
+                        } else {
+                            input.skipField(field);
+                        }
+                    }
+                    input.popLimit(limit);
+                    timestamps[samples] = timestamp;
+                    values[samples] = value;
+                    samples++;
+                } else if (tag == TIMESERIES_HISTOGRAMS) {
+                    if (histogramTimestamps == null) {
+                        histogramTimestamps = new long[1];
+                        counts = new double[1];
+                        sums = new double[1];
+                    } else if (histograms == histogramTimestamps.length) {
+                        histogramTimestamps = Arrays.copyOf(histogramTimestamps, histograms * 2);
+                        counts = Arrays.copyOf(counts, histograms * 2);
+                        sums = Arrays.copyOf(sums, histograms * 2);
+                    }
+                    final int limit = input.pushLimit(input.readRawVarint32());
+                    long timestamp = 0;
+                    double count = 0;
+                    double sum = 0;
+                    int field;
+                    while ((field = input.readTag()) != 0) {
+                        if (field == HISTOGRAM_COUNT_INT) {
+                            count = unsigned(input.readUInt64());
+                        } else if (field == HISTOGRAM_COUNT_FLOAT) {
+                            count = input.readDouble();
+                        } else if (field == HISTOGRAM_SUM) {
+                            sum = input.readDouble();
+                        } else if (field == HISTOGRAM_TIMESTAMP) {
+                            timestamp = input.readInt64();
+                        } else {
+                            input.skipField(field);
+                        }
+                    }
+                    input.popLimit(limit);
+                    histogramTimestamps[histograms] = timestamp;
+                    counts[histograms] = count;
+                    sums[histograms] = sum;
+                    histograms++;
+                } else {
+                    input.skipField(tag);
+                }
+            }
+            if (samples == 0 && histograms == 0) {
+                return;
+            }
+            final long started = stages.start();
+            final LabelSet labels = labels(refCount);
+            nanos[1] += stages.start() - started;
+            if (samples > 0) {
+                pending.add(new PrometheusSeries(labels, timestamps, values, samples));
+                stats.addSamples(samples);
+            }
+            if (histograms > 0) {
+                // The count and the sum are named after the metric, as the classic histograms do
+                final String name = labels.getLabels().getOrDefault(METRIC_NAME, "");
+                pending.add(new PrometheusSeries(renamed(labels, name + "_count"), histogramTimestamps, counts, histograms));
+                pending.add(new PrometheusSeries(renamed(labels, name + "_sum"), histogramTimestamps, sums, histograms));
+                stats.addHistograms(histograms);
+            }
+        }
+
+        private int addRef(int count, int ref) {
+            if (count == refs.length) {
+                refs = Arrays.copyOf(refs, count * 2);
+            }
+            refs[count] = ref;
+            return count + 1;
+        }
+
+        /**
+         * Resolves the label references against the symbols table, then looks the label set up in the cache when available
+         */
+        private LabelSet labels(int count) throws InvalidProtocolBufferException {
+            if (count % 2 != 0) {
+                throw new InvalidProtocolBufferException("Odd number of label references");
+            }
+            if (resolved.length < count) {
+                resolved = new String[refs.length];
+            }
+            for (int i = 0; i < count; i++) {
+                final int ref = refs[i];
+                if (ref < 0 || ref >= symbols.length) {
+                    throw new InvalidProtocolBufferException("Symbol reference out of range: " + Integer.toUnsignedString(ref));
+                }
+                resolved[i] = symbols[ref];
+            }
+            return cache != null ? cache.get(resolved, count) : LabelSet.of(SeriesCache.toMap(resolved, count));
+        }
+    }
+
+    private static LabelSet renamed(LabelSet labels, String name) {
+        final Map<String, String> renamed = new HashMap<>(labels.getLabels());
+        renamed.put(METRIC_NAME, name);
+        return LabelSet.of(renamed);
+    }
+
+    private static double unsigned(long value) {
+        return value >= 0 ? value : (double) (value >>> 1) * 2.0;
+    }
+
+    private static int tag(int fieldNumber, int wireType) {
+        return (fieldNumber << 3) | wireType;
+    }
+}
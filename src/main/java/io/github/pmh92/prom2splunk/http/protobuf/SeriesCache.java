@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the series received, keyed by the raw bytes of their labels as found in the request. Prometheus resends the same series
+ * on every request, so the labels of a known series are neither decoded nor encoded again. The series of the remote_write 2.0 requests refer
+ * to a symbols table built for every request, so they are keyed by their label references resolved against it instead.
+ */
+public class SeriesCache {
+
+    private final Cache<Object, LabelSet> cache;
+
+    public SeriesCache(long maximumSize, MeterRegistry registry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, this.cache, "series");
+    }
+
+    /**
+     * Looks up the label set of a series
+     * @param rawLabels the encoded label fields of the series. It is not retained by the cache
+     * @param decoder decodes the label fields on a cache miss
+     * @return the interned label set
+     */
+    public LabelSet get(ByteBuffer rawLabels, LabelsDecoder decoder) throws IOException {
+        final LabelSet cached = cache.getIfPresent(UnsafeByteOperations.unsafeWrap(rawLabels.duplicate()));
+        if (cached != null) {
+            return cached;
+        }
+        final LabelSet labels = LabelSet.interned(decoder.decode(rawLabels.duplicate()));
+        cache.put(ByteString.copyFrom(rawLabels.duplicate()), labels);
+        return labels;
+    }
+
+    /**
+     * Looks up the label set of a series from its resolved label references
+     * @param resolved the label names and values in turn, as referenced by the series. It is not retained by the cache
+     * @param count the number of strings, twice the number of labels
+     * @return the interned label set
+     */
+    public LabelSet get(String[] resolved, int count) {
+        final LabelSet cached = cache.getIfPresent(new ResolvedLabels(resolved, count));
+        if (cached != null) {
+            return cached;
+        }
+        final LabelSet labels = LabelSet.interned(toMap(resolved, count));
+        cache.put(new ResolvedLabels(Arrays.copyOf(resolved, count), count), labels);
+        return labels;
+    }
+
+    /**
+     * @param resolved the label names and values in turn
+     * @param count the number of strings, twice the number of labels
+     */
+    static Map<String, String> toMap(String[] resolved, int count) {
+        final Map<String, String> labels = new HashMap<>(count);
+        for (int i = 0; i < count; i += 2) {
+            labels.put(resolved[i], resolved[i + 1]);
+        }
+        return labels;
+    }
+
+    /**
+     * Decodes the raw label fields of a series
+     */
+    @FunctionalInterface
+    public interface LabelsDecoder {
+        Map<String, String> decode(ByteBuffer rawLabels) throws IOException;
+    }
+
+    /**
+     * The label names and values of a series in the order they are referenced. The hash builds on the hashes the strings cache
+     */
+    private static final class ResolvedLabels {
+        private final String[] strings;
+        private final int count;
+        private final int hash;
+
+        ResolvedLabels(String[] strings, int count) {
+            this.strings = strings;
+            this.count = count;
+            int h = 1;
+            for (int i = 0; i < count; i++) {
+                h = 31 * h + strings[i].hashCode();
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResolvedLabels)) {
+                return false;
+            }
+            final ResolvedLabels other = (ResolvedLabels) o;
+            if (hash != other.hash || count != other.count) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (!strings[i].equals(other.strings[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
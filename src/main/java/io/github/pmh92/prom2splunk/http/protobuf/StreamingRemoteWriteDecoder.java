@@ -0,0 +1,222 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Walks the protobuf wire format of the request one time series at a time, without building the {@code WriteRequest} message tree. The
+ * field numbers are the ones declared in {@code remote.proto} and {@code types.proto}. When a {@link SeriesCache} is available, the labels
+ * of an already known series are looked up by their raw bytes instead of being decoded.
+ */
+public class StreamingRemoteWriteDecoder implements RemoteWriteDecoder {
+
+    private static final int WRITE_REQUEST_TIMESERIES = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TIMESERIES_LABELS = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int TIMESERIES_SAMPLES = tag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int LABEL_NAME = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int LABEL_VALUE = tag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int SAMPLE_VALUE = tag(1, WireFormat.WIRETYPE_FIXED64);
+    private static final int SAMPLE_TIMESTAMP = tag(2, WireFormat.WIRETYPE_VARINT);
+
+    private final SeriesCache cache;
+    private final StageMetrics stages;
+
+    public StreamingRemoteWriteDecoder() {
+        this(null);
+    }
+
+    public StreamingRemoteWriteDecoder(SeriesCache cache) {
+        this(cache, StageMetrics.DISABLED);
+    }
+
+    public StreamingRemoteWriteDecoder(SeriesCache cache, StageMetrics stages) {
+        this.cache = cache;
+        this.stages = stages;
+    }
+
+    @Override
+    public Flux<PrometheusSeries> decode(DataBuffer body) {
+        return Flux.defer(() -> {
+            final ByteBuffer bytes = body.asByteBuffer();
+            // Time spent decoding the series and, out of it, their labels. Recorded once for the whole request
+            final long[] nanos = new long[2];
+            return Flux.<PrometheusSeries, CodedInputStream>generate(() -> CodedInputStream.newInstance(bytes.duplicate()), (input, sink) -> {
+                final long start = stages.start();
+                try {
+                    final PrometheusSeries series = readTimeSeries(bytes, input, nanos);
+                    if (series != null) {
+                        sink.next(series);
+                    } else {
+                        sink.complete();
+                    }
+                } catch (IOException ex) {
+                    sink.error(ex);
+                } finally {
+                    nanos[0] += stages.start() - start;
+                }
+                return input;
+            }, input -> {
+                stages.recordNanos(StageMetrics.Stage.DECODE, nanos[0] - nanos[1]);
+                stages.recordNanos(StageMetrics.Stage.LABELS, nanos[1]);
+            });
+        });
+    }
+
+    @Override
+    public List<DataBuffer> split(DataBuffer body, int seriesPerChunk) throws IOException {
+        return WriteRequestSplitter.split(body, seriesPerChunk);
+    }
+
+    /**
+     * Reads the next time series of the request
+     * @return the time series or {@code null} if the end of the request has been reached
+     */
+    private PrometheusSeries readTimeSeries(ByteBuffer bytes, CodedInputStream input, long[] nanos) throws IOException {
+        while (true) {
+            final int tag = input.readTag();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag == WRITE_REQUEST_TIMESERIES) {
+                final int length = input.readRawVarint32();
+                final int start = input.getTotalBytesRead();
+                final int limit = input.pushLimit(length);
+                final PrometheusSeries series = readTimeSeriesFields(slice(bytes, start, start + length), input, nanos);
+                input.popLimit(limit);
+                return series;
+            }
+            input.skipField(tag);
+        }
+    }
+
+    /**
+     * Reads the samples of a time series, skipping its labels. The labels are decoded afterwards, or looked up in the cache when they are
+     * laid out contiguously as Prometheus does.
+     */
+    private PrometheusSeries readTimeSeriesFields(ByteBuffer series, CodedInputStream input, long[] nanos) throws IOException {
+        final int offset = input.getTotalBytesRead();
+        int labelsStart = -1;
+        int labelsEnd = -1;
+        boolean contiguous = true;
+        long[] timestamps = new long[1];
+        double[] values = new double[1];
+        int count = 0;
+        int position = offset;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == TIMESERIES_LABELS) {
+                if (labelsStart < 0) {
+                    labelsStart = position;
+                } else if (labelsEnd != position) {
+                    contiguous = false;
+                }
+                input.skipField(tag);
+                labelsEnd = input.getTotalBytesRead();
+            } else if (tag == TIMESERIES_SAMPLES) {
+                if (count == timestamps.length) {
+                    timestamps = Arrays.copyOf(timestamps, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                final int limit = input.pushLimit(input.readRawVarint32());
+                long timestamp = 0;
+                double value = 0;
+                int field;
+                while ((field = input.readTag()) != 0) {
+                    if (field == SAMPLE_VALUE) {
+                        value = input.readDouble();
+                    } else if (field == SAMPLE_TIMESTAMP) {
+                        timestamp = input.readInt64();
+                    } else {
+                        input.skipField(field);
+                    }
+                }
+                input.popLimit(limit);
+                timestamps[count] = timestamp;
+                values[count] = value;
+                count++;
+            } else {
+                input.skipField(tag);
+            }
+            position = input.getTotalBytesRead();
+        }
+        final long started = stages.start();
+        final LabelSet labels;
+        if (cache != null && contiguous && labelsStart >= 0) {
+            labels = cache.get(slice(series, labelsStart - offset, labelsEnd - offset), this::readLabels);
+        } else {
+            labels = LabelSet.of(readLabels(series));
+        }
+        nanos[1] += stages.start() - started;
+        return new PrometheusSeries(labels, timestamps, values, count);
+    }
+
+    /**
+     * Decodes the label fields found in the given bytes, skipping any other field
+     */
+    private Map<String, String> readLabels(ByteBuffer bytes) throws IOException {
+        final CodedInputStream input = CodedInputStream.newInstance(bytes);
+        final Map<String, String> labels = new HashMap<>();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == TIMESERIES_LABELS) {
+                final int limit = input.pushLimit(input.readRawVarint32());
+                readLabel(input, labels);
+                input.popLimit(limit);
+            } else {
+                input.skipField(tag);
+            }
+        }
+        return labels;
+    }
+
+    private void readLabel(CodedInputStream input, Map<String, String> labels) throws IOException {
+        String name = "";
+        String value = "";
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == LABEL_NAME) {
+                name = input.readStringRequireUtf8();
+            } else if (tag == LABEL_VALUE) {
+                value = input.readStringRequireUtf8();
+            } else {
+                input.skipField(tag);
+            }
+        }
+        labels.put(name, value);
+    }
+
+    private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+        final ByteBuffer slice = bytes.duplicate();
+        // Cast to Buffer so that the Java 8 method signatures are used
+        ((Buffer) slice).limit(bytes.position() + end);
+        ((Buffer) slice).position(bytes.position() + start);
+        return slice.slice();
+    }
+
+    private static int tag(int fieldNumber, int wireType) {
+        return (fieldNumber << 3) | wireType;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a {@code WriteRequest} at the boundaries of its time series. Since the time series are a repeated field, every run of them is
+ * itself a valid {@code WriteRequest}. Finding the boundaries only reads the tag and the length of the top-level fields.
+ */
+final class WriteRequestSplitter {
+
+    private static final int WRITE_REQUEST_TIMESERIES = (1 << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    private WriteRequestSplitter() {
+    }
+
+    static List<DataBuffer> split(DataBuffer body, int seriesPerChunk) throws IOException {
+        final CodedInputStream input = CodedInputStream.newInstance(body.asByteBuffer());
+        final List<DataBuffer> chunks = new ArrayList<>();
+        int start = 0;
+        int position = 0;
+        int series = 0;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == WRITE_REQUEST_TIMESERIES) {
+                if (series == seriesPerChunk) {
+                    chunks.add(body.slice(body.readPosition() + start, position - start));
+                    start = position;
+                    series = 0;
+                }
+                series++;
+            }
+            input.skipField(tag);
+            position = input.getTotalBytesRead();
+        }
+        if (chunks.isEmpty()) {
+            return Collections.singletonList(body);
+        }
+        chunks.add(body.slice(body.readPosition() + start, position - start));
+        return chunks;
+    }
+}
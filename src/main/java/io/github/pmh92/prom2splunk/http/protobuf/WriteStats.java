@@ -0,0 +1,47 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what a remote_write 2.0 request carried that has been handed to the sink, as reported back to the sender
+ */
+public class WriteStats {
+
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong histograms = new AtomicLong();
+    private final AtomicLong exemplars = new AtomicLong();
+
+    public void addSamples(long count) {
+        samples.addAndGet(count);
+    }
+
+    public void addHistograms(long count) {
+        histograms.addAndGet(count);
+    }
+
+    public void addExemplars(long count) {
+        exemplars.addAndGet(count);
+    }
+
+    public long getSamples() {
+        return samples.get();
+    }
+
+    public long getHistograms() {
+        return histograms.get();
+    }
+
+    public long getExemplars() {
+        return exemplars.get();
+    }
+}
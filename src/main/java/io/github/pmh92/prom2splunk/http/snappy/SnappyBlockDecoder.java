@@ -0,0 +1,275 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.snappy;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+/**
+ * Decompresses a body in the Snappy block format, as sent by Prometheus, while its chunks arrive. The uncompressed length preamble is read
+ * first, then a single buffer of exactly that size is allocated and the chunks are decompressed straight into it. The decoder is a state
+ * machine, so the elements of the compressed stream may be split across chunks.
+ * <p>
+ * The uncompressed length is checked against the most the compressed body may expand to, so a few bytes cannot reserve a large buffer.
+ * When the size of the compressed body is not known beforehand, the buffer starts at the most the bytes received so far may expand to and
+ * grows as the body arrives.
+ *
+ * @see <a href="https://github.com/google/snappy/blob/main/format_description.txt">Snappy format description</a>
+ */
+class SnappyBlockDecoder {
+
+    private static final int PREAMBLE = 0;
+    private static final int TAG = 1;
+    private static final int TAG_BYTES = 2;
+    private static final int LITERAL = 3;
+
+    private static final int LITERAL_TAG = 0;
+    private static final int COPY_1_BYTE_OFFSET_TAG = 1;
+    private static final int COPY_2_BYTE_OFFSET_TAG = 2;
+
+    /**
+     * The most a Snappy body may expand: a copy of 64 bytes takes a 3 bytes element
+     */
+    private static final int MAX_RATIO = 22;
+
+    private final long maxLength;
+    private final long compressedLength;
+    private final LongConsumer onAllocate;
+
+    private int state = PREAMBLE;
+    private long length;
+    private int shift;
+    private int tag;
+    private int tagBytes;
+    private int tagBytesRead;
+    private long tagValue;
+    private long literalRemaining;
+    private long received;
+
+    private DataBufferFactory factory;
+    private DataBuffer target;
+    private ByteBuffer output;
+
+    /**
+     * @param maxLength maximum length of the decompressed body
+     * @param compressedLength length of the compressed body, or -1 when not known
+     * @param onAllocate told the size of the buffer holding the decompressed body whenever it is allocated
+     */
+    SnappyBlockDecoder(long maxLength, long compressedLength, LongConsumer onAllocate) {
+        this.maxLength = maxLength;
+        this.compressedLength = compressedLength;
+        this.onAllocate = onAllocate;
+    }
+
+    /**
+     * Decompresses the next chunk of the body, releasing it
+     * @param chunk the chunk of the compressed body
+     */
+    void decode(DataBuffer chunk) {
+        try {
+            final ByteBuffer input = chunk.asByteBuffer();
+            received += input.remaining();
+            if (state == PREAMBLE) {
+                readPreamble(input, chunk.factory());
+            }
+            while (input.hasRemaining()) {
+                switch (state) {
+                    case TAG:
+                        readTag(input.get() & 0xFF);
+                        break;
+                    case TAG_BYTES:
+                        tagValue |= (long) (input.get() & 0xFF) << (8 * tagBytesRead++);
+                        if (tagBytesRead == tagBytes) {
+                            completeTag();
+                        }
+                        break;
+                    case LITERAL:
+                        copyLiteral(input);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected decoder state: " + state);
+                }
+            }
+        } finally {
+            DataBufferUtils.release(chunk);
+        }
+    }
+
+    /**
+     * @return the decompressed body, owned by the caller
+     */
+    DataBuffer finish() {
+        if (state == PREAMBLE) {
+            throw invalid("Missing uncompressed length");
+        }
+        if (state != TAG || output.position() != length) {
+            throw invalid("Truncated body");
+        }
+        final DataBuffer result = target.writePosition(target.writePosition() + (int) length);
+        target = null;
+        output = null;
+        return result;
+    }
+
+    /**
+     * Releases the decompressed body unless it was handed over by {@link #finish()}
+     */
+    void release() {
+        if (target != null) {
+            DataBufferUtils.release(target);
+            target = null;
+            output = null;
+        }
+    }
+
+    private void readPreamble(ByteBuffer input, DataBufferFactory factory) {
+        while (input.hasRemaining()) {
+            final int b = input.get() & 0xFF;
+            length |= (long) (b & 0x7F) << shift;
+            shift += 7;
+            if ((b & 0x80) == 0) {
+                if (length > maxLength || length > Integer.MAX_VALUE) {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                            String.format("Decompressed size %d exceeds the limit of %d bytes", length, maxLength));
+                }
+                if (compressedLength >= 0 && length > compressedLength * MAX_RATIO) {
+                    throw invalid(String.format("Uncompressed length %d exceeds what %d bytes may expand to", length, compressedLength));
+                }
+                this.factory = factory;
+                allocate((int) Math.min(length, (compressedLength >= 0 ? compressedLength : received) * MAX_RATIO));
+                state = TAG;
+                return;
+            }
+            if (shift >= 35) {
+                throw invalid("Invalid uncompressed length");
+            }
+        }
+    }
+
+    private void readTag(int tag) {
+        this.tag = tag;
+        this.tagValue = 0;
+        this.tagBytesRead = 0;
+        switch (tag & 0x03) {
+            case LITERAL_TAG:
+                final int literalLength = tag >>> 2;
+                if (literalLength < 60) {
+                    literalRemaining = literalLength + 1;
+                    checkOutput(literalRemaining);
+                    state = LITERAL;
+                    return;
+                }
+                tagBytes = literalLength - 59;
+                break;
+            case COPY_1_BYTE_OFFSET_TAG:
+                tagBytes = 1;
+                break;
+            case COPY_2_BYTE_OFFSET_TAG:
+                tagBytes = 2;
+                break;
+            default:
+                tagBytes = 4;
+        }
+        state = TAG_BYTES;
+    }
+
+    private void completeTag() {
+        switch (tag & 0x03) {
+            case LITERAL_TAG:
+                literalRemaining = tagValue + 1;
+                checkOutput(literalRemaining);
+                state = LITERAL;
+                return;
+            case COPY_1_BYTE_OFFSET_TAG:
+                copy(((tag >>> 5) << 8) | tagValue, 4 + ((tag >>> 2) & 0x07));
+                break;
+            default:
+                copy(tagValue, (tag >>> 2) + 1);
+        }
+        state = TAG;
+    }
+
+    private void copyLiteral(ByteBuffer input) {
+        final int count = (int) Math.min(literalRemaining, input.remaining());
+        ensureCapacity(count);
+        final ByteBuffer literal = input.slice();
+        // Cast to Buffer so that the Java 8 method signatures are used
+        ((Buffer) literal).limit(count);
+        output.put(literal);
+        ((Buffer) input).position(input.position() + count);
+        literalRemaining -= count;
+        if (literalRemaining == 0) {
+            state = TAG;
+        }
+    }
+
+    /**
+     * Copies previously decompressed bytes. The source and the destination may overlap, repeating the source bytes
+     */
+    private void copy(long offset, int count) {
+        final int position = output.position();
+        if (offset <= 0 || offset > position) {
+            throw invalid("Invalid copy offset " + offset);
+        }
+        checkOutput(count);
+        ensureCapacity(count);
+        final int from = position - (int) offset;
+        if (offset >= count) {
+            final ByteBuffer source = output.duplicate();
+            // Cast to Buffer so that the Java 8 method signatures are used
+            ((Buffer) source).limit(from + count).position(from);
+            output.put(source);
+        } else {
+            for (int i = 0; i < count; i++) {
+                output.put(output.get(from + i));
+            }
+        }
+    }
+
+    private void checkOutput(long count) {
+        if (count > length - output.position()) {
+            throw invalid("Decompressed data exceeds the uncompressed length");
+        }
+    }
+
+    /**
+     * Grows the buffer when the next bytes do not fit, up to the uncompressed length and to the most the bytes received so far may expand to
+     */
+    private void ensureCapacity(int count) {
+        if (count > output.remaining()) {
+            final long grown = Math.max(output.position() + count, Math.max(2L * output.limit(), received * MAX_RATIO));
+            final ByteBuffer written = output.duplicate();
+            // Cast to Buffer so that the Java 8 method signatures are used
+            ((Buffer) written).flip();
+            final DataBuffer previous = target;
+            allocate((int) Math.min(length, grown));
+            output.put(written);
+            DataBufferUtils.release(previous);
+        }
+    }
+
+    private void allocate(int capacity) {
+        target = factory.allocateBuffer(capacity);
+        output = target.asByteBuffer(target.writePosition(), capacity);
+        onAllocate.accept(capacity);
+    }
+
+    private static ServerWebInputException invalid(String reason) {
+        return new ServerWebInputException("Invalid Snappy body: " + reason);
+    }
+}
@@ -10,32 +10,58 @@
 
 package io.github.pmh92.prom2splunk.http.snappy;
 
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
-import org.xerial.snappy.SnappyInputStream;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.LongConsumer;
 
 /**
- * By default, all
+ * A request whose body is compressed with Snappy's block format. The body is decompressed as its chunks arrive, into a single buffer
+ *
+ * @see SnappyBlockDecoder
  */
 public class SnappyContentEncodedRequest extends ServerHttpRequestDecorator {
 
-    public SnappyContentEncodedRequest(ServerHttpRequest delegate) {
+    private final long maxDecompressedSize;
+    private final LongConsumer onAllocate;
+    private final StageMetrics stages;
+
+    /**
+     * @param onAllocate told the size of the buffer holding the decompressed body whenever it is allocated
+     */
+    public SnappyContentEncodedRequest(ServerHttpRequest delegate, long maxDecompressedSize, LongConsumer onAllocate, StageMetrics stages) {
         super(delegate);
+        this.maxDecompressedSize = maxDecompressedSize;
+        this.onAllocate = onAllocate;
+        this.stages = stages;
     }
 
     /**
-     * The content body shall is encoded with Snappy.
+     * The content body shall is encoded with Snappy. The time spent decompressing the chunks is recorded once the whole body is decompressed
      *
      * @return a new {@code Flux<DataFuffer>} containing the decoded body
      */
     @Override
-    @SuppressWarnings("IOResourceOpenedButNotSafelyClosed")
     public Flux<DataBuffer> getBody() {
-        return DataBufferUtils.join(super.getBody()).flatMapMany(body ->
-                DataBufferUtils.readInputStream(() -> new SnappyInputStream(body.asInputStream(true)), body.factory(), body.capacity()));
+        final long[] nanos = new long[1];
+        return Mono.usingWhen(Mono.fromSupplier(() -> new SnappyBlockDecoder(maxDecompressedSize, getHeaders().getContentLength(), onAllocate)),
+                        // Reduced rather than ignored, since the chunks already released must not be discarded again
+                        decoder -> super.getBody().reduce(decoder, (d, chunk) -> {
+                            final long start = stages.start();
+                            d.decode(chunk);
+                            nanos[0] += stages.start() - start;
+                            return d;
+                        }).map(d -> {
+                            final DataBuffer body = d.finish();
+                            stages.recordNanos(StageMetrics.Stage.DECOMPRESS, nanos[0]);
+                            return body;
+                        }),
+                        decoder -> Mono.fromRunnable(decoder::release))
+                .flux();
     }
 
 }
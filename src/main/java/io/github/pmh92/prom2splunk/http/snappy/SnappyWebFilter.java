@@ -10,6 +10,9 @@
 
 package io.github.pmh92.prom2splunk.http.snappy;
 
+import io.github.pmh92.prom2splunk.http.admission.AdmittedBytes;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.properties.IngestConfigurationProperties;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
@@ -28,6 +31,14 @@ import java.util.List;
 @Component
 public class SnappyWebFilter implements WebFilter {
 
+    private final IngestConfigurationProperties properties;
+    private final StageMetrics stages;
+
+    public SnappyWebFilter(IngestConfigurationProperties properties, StageMetrics stages) {
+        this.properties = properties;
+        this.stages = stages;
+    }
+
     /**
      * Filter the request to perform Snappy decompression if required
      *
@@ -40,7 +51,10 @@ public class SnappyWebFilter implements WebFilter {
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
         ServerHttpRequest request = exchange.getRequest();
         if (isSnappy(request)) {
-            request = new SnappyContentEncodedRequest(request);
+            // The admission control charges the decompressed size of the body as soon as it is known
+            final AdmittedBytes admitted = exchange.getAttribute(AdmittedBytes.ATTRIBUTE);
+            request = new SnappyContentEncodedRequest(request, properties.getMaxDecompressedSize().toBytes(),
+                    admitted != null ? admitted::charge : size -> { }, stages);
         }
         return chain.filter(exchange.mutate().request(request).build());
     }
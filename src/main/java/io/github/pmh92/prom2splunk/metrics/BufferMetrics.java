@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+
+/**
+ * Reports the memory held by the buffer allocator, and counts the buffers found to be leaked by Netty's leak detection
+ */
+public class BufferMetrics implements MeterBinder {
+
+    private final ByteBufAllocator alloc;
+    private volatile Counter leaks;
+
+    public BufferMetrics(ByteBufAllocator alloc) {
+        this.alloc = alloc;
+        ResourceLeakDetectorFactory.setResourceLeakDetectorFactory(new CountingLeakDetectorFactory());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (alloc instanceof ByteBufAllocatorMetricProvider) {
+            final ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) alloc).metric();
+            Gauge.builder("buffers.memory.used", metric, ByteBufAllocatorMetric::usedDirectMemory)
+                    .description("The memory held by the buffer allocator").tag("area", "direct").baseUnit(BaseUnits.BYTES).register(registry);
+            Gauge.builder("buffers.memory.used", metric, ByteBufAllocatorMetric::usedHeapMemory)
+                    .description("The memory held by the buffer allocator").tag("area", "heap").baseUnit(BaseUnits.BYTES).register(registry);
+        }
+        if (alloc instanceof PooledByteBufAllocator) {
+            final PooledByteBufAllocator pooled = (PooledByteBufAllocator) alloc;
+            Gauge.builder("buffers.memory.pinned", pooled, PooledByteBufAllocator::pinnedDirectMemory)
+                    .description("The memory of the buffers in use").tag("area", "direct").baseUnit(BaseUnits.BYTES).register(registry);
+            Gauge.builder("buffers.memory.pinned", pooled, PooledByteBufAllocator::pinnedHeapMemory)
+                    .description("The memory of the buffers in use").tag("area", "heap").baseUnit(BaseUnits.BYTES).register(registry);
+            Gauge.builder("buffers.arenas", pooled, a -> a.metric().numDirectArenas())
+                    .description("The number of arenas of the pool").tag("area", "direct").register(registry);
+            Gauge.builder("buffers.arenas", pooled, a -> a.metric().numHeapArenas())
+                    .description("The number of arenas of the pool").tag("area", "heap").register(registry);
+            Gauge.builder("buffers.thread.caches", pooled, a -> a.metric().numThreadLocalCaches())
+                    .description("The number of thread-local caches of the pool").register(registry);
+            Gauge.builder("buffers.chunk.size", pooled, PooledByteBufAllocator::chunkSize)
+                    .description("The size of the chunks the arenas allocate").baseUnit(BaseUnits.BYTES).register(registry);
+        }
+        this.leaks = Counter.builder("buffers.leaks")
+                .description("The number of leaked buffers reported by the leak detection")
+                .register(registry);
+    }
+
+    private void leaked() {
+        final Counter counter = this.leaks;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * Creates leak detectors that count the leaks they report. Only the detectors created afterwards are affected, so it must be installed
+     * before the first buffer is allocated
+     */
+    private class CountingLeakDetectorFactory extends ResourceLeakDetectorFactory {
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval, long maxActive) {
+            return new ResourceLeakDetector<T>(resource, samplingInterval) {
+                @Override
+                protected void reportTracedLeak(String resourceType, String records) {
+                    leaked();
+                    super.reportTracedLeak(resourceType, records);
+                }
+
+                @Override
+                protected void reportUntracedLeak(String resourceType) {
+                    leaked();
+                    super.reportUntracedLeak(resourceType);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.pool.InstrumentedPool;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time spent in every stage of the pipeline, from the decompression of the request to the write to the sink, along with the
+ * connection pools, the samples in flight and the batch sizes. All the meters are registered upfront. When disabled, nothing is measured
+ * and the clock is not even read.
+ */
+public class StageMetrics {
+
+    /**
+     * A disabled instance, for the components built outside of the application context
+     */
+    public static final StageMetrics DISABLED = new StageMetrics();
+
+    public enum Stage {
+        /**
+         * Snappy decompression of the request body
+         */
+        DECOMPRESS,
+        /**
+         * Protobuf decoding of the series, excluding their labels
+         */
+        DECODE,
+        /**
+         * Decoding or lookup of the label sets
+         */
+        LABELS,
+        /**
+         * Encoding of the events
+         */
+        ENCODE,
+        /**
+         * Wait for a connection to the sink
+         */
+        ACQUIRE,
+        /**
+         * Write and flush of the events to the sink
+         */
+        WRITE;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final Timer[] timers;
+    private final AtomicLong inFlightSamples;
+    private final DistributionSummary batchEvents;
+    private final DistributionSummary batchBytes;
+
+    private StageMetrics() {
+        this.registry = null;
+        this.enabled = false;
+        this.timers = null;
+        this.inFlightSamples = null;
+        this.batchEvents = null;
+        this.batchBytes = null;
+    }
+
+    public StageMetrics(MeterRegistry registry, boolean percentileHistogram) {
+        this.registry = registry;
+        this.enabled = true;
+        this.timers = new Timer[Stage.values().length];
+        for (Stage stage : Stage.values()) {
+            this.timers[stage.ordinal()] = Timer.builder("pipeline.stage").description("Time spent in every stage of the pipeline")
+                    .tag("stage", stage.tag)
+                    .publishPercentileHistogram(percentileHistogram)
+                    .minimumExpectedValue(Duration.ofNanos(1000))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(registry);
+        }
+        this.inFlightSamples = new AtomicLong();
+        Gauge.builder("pipeline.inflight.samples", inFlightSamples, AtomicLong::get)
+                .description("Samples received and not yet written to the sink").register(registry);
+        this.batchEvents = DistributionSummary.builder("sink.batch.events").description("Events written to the sink at once")
+                .publishPercentileHistogram(percentileHistogram)
+                .register(registry);
+        this.batchBytes = DistributionSummary.builder("sink.batch.bytes").description("Bytes written to the sink at once")
+                .baseUnit("bytes")
+                .publishPercentileHistogram(percentileHistogram)
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time of a stage, to be passed to {@link #record(Stage, long)}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records the time spent in a stage since {@code start}
+     */
+    public void record(Stage stage, long start) {
+        if (enabled) {
+            timers[stage.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records the time spent in a stage, when it has been accumulated rather than measured at once
+     */
+    public void recordNanos(Stage stage, long nanos) {
+        if (enabled) {
+            timers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void addInFlightSamples(long samples) {
+        if (enabled) {
+            inFlightSamples.addAndGet(samples);
+        }
+    }
+
+    public void recordBatch(int events, int bytes) {
+        if (enabled) {
+            batchEvents.record(events);
+            batchBytes.record(bytes);
+        }
+    }
+
+    /**
+     * Exposes the active, idle and pending connections of a pool
+     * @param sink the name of the sink the pool belongs to
+     * @param name the name of the pool
+     */
+    public void monitor(String sink, String name, InstrumentedPool<?> pool) {
+        if (enabled) {
+            final InstrumentedPool.PoolMetrics metrics = pool.metrics();
+            Gauge.builder("sink.pool.active", metrics, InstrumentedPool.PoolMetrics::acquiredSize)
+                    .description("Connections to the sink in use").tag("sink", sink).tag("pool", name).register(registry);
+            Gauge.builder("sink.pool.idle", metrics, InstrumentedPool.PoolMetrics::idleSize)
+                    .description("Connections to the sink available").tag("sink", sink).tag("pool", name).register(registry);
+            Gauge.builder("sink.pool.pending", metrics, InstrumentedPool.PoolMetrics::pendingAcquireSize)
+                    .description("Writes waiting for a connection to the sink").tag("sink", sink).tag("pool", name).register(registry);
+        }
+    }
+}
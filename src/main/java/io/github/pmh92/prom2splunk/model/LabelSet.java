@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The immutable set of labels identifying a Prometheus time series. Interned label sets are shared by every request sending the same series
+ * and may carry the encoded form of their labels, so they are only serialized once.
+ */
+public final class LabelSet {
+    private final Map<String, String> labels;
+    private final boolean interned;
+    private volatile byte[] encoded;
+    private int hash;
+    private long fingerprint;
+
+    private LabelSet(Map<String, String> labels, boolean interned) {
+        this.labels = Collections.unmodifiableMap(labels);
+        this.interned = interned;
+    }
+
+    /**
+     * @param labels the labels of the series. The map shall not be modified afterwards
+     * @return a label set only used by the current request
+     */
+    public static LabelSet of(Map<String, String> labels) {
+        return new LabelSet(labels, false);
+    }
+
+    /**
+     * @param labels the labels of the series. The map shall not be modified afterwards
+     * @return a label set shared across requests
+     */
+    public static LabelSet interned(Map<String, String> labels) {
+        return new LabelSet(labels, true);
+    }
+
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    public boolean isInterned() {
+        return interned;
+    }
+
+    /**
+     * @return the labels as previously encoded by a sink, or {@code null} if not available
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public void setEncoded(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof LabelSet && labels.equals(((LabelSet) o).labels);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = labels.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return a 64-bit hash of the labels, in order. Unlike {@link #hashCode()}, which sums the hashes of the labels, it tells apart the
+     * label sets with similar values, as needed to estimate their cardinality. It builds on the hashes the label strings cache
+     */
+    public long fingerprint() {
+        long f = fingerprint;
+        if (f == 0) {
+            f = 1;
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                f = (f * 0x9e3779b97f4a7c15L + label.getKey().hashCode()) * 0x9e3779b97f4a7c15L + label.getValue().hashCode();
+                f ^= f >>> 29;
+            }
+            fingerprint = f;
+        }
+        return f;
+    }
+
+    @Override
+    public String toString() {
+        return labels.toString();
+    }
+}
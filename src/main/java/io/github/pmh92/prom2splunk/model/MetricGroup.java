@@ -0,0 +1,204 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The series of a request sharing every label but {@code __name__}. The samples of the group taken at the same timestamp are written as a
+ * single multi-metric event, with the labels of the group as dimensions and a measurement per metric name.
+ */
+public final class MetricGroup {
+
+    private static final String NAME_LABEL = "__name__";
+
+    private final LabelSet dimensions;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    // The index in names of the metric name of every series
+    private final List<Integer> nameIndexes = new ArrayList<>();
+    private final List<PrometheusSeries> series = new ArrayList<>();
+    private int events = -1;
+
+    private MetricGroup(LabelSet dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * Groups the series by their labels but {@code __name__}, in the order the groups are first seen
+     * @param series the series of a request
+     * @return the groups of series
+     */
+    public static List<MetricGroup> group(List<PrometheusSeries> series) {
+        final Map<Map<String, String>, MetricGroup> groups = new LinkedHashMap<>();
+        for (PrometheusSeries s : series) {
+            final Map<String, String> dimensions = new LinkedHashMap<>(s.getLabels());
+            final String name = dimensions.remove(NAME_LABEL);
+            MetricGroup group = groups.get(dimensions);
+            if (group == null) {
+                group = new MetricGroup(LabelSet.of(dimensions));
+                groups.put(dimensions, group);
+            }
+            group.add(name == null ? "" : name, s);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private void add(String name, PrometheusSeries s) {
+        Integer index = nameIndex.get(name);
+        if (index == null) {
+            index = names.size();
+            nameIndex.put(name, index);
+            names.add(name);
+        }
+        nameIndexes.add(index);
+        series.add(s);
+    }
+
+    /**
+     * @return the labels shared by the series of the group, without {@code __name__}
+     */
+    public LabelSet getDimensions() {
+        return dimensions;
+    }
+
+    public List<PrometheusSeries> getSeries() {
+        return Collections.unmodifiableList(series);
+    }
+
+    /**
+     * @return a cursor over the events of the group
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return the number of events the group is written as. Once a cursor has walked every event, e.g. while encoding the group, the number
+     * it counted is returned without walking the events again
+     */
+    public int countEvents() {
+        if (events < 0) {
+            final Cursor cursor = cursor();
+            while (cursor.next()) {
+                // Counted by the cursor
+            }
+        }
+        return events;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricGroup{" +
+                "dimensions=" + dimensions +
+                ", series=" + series.size() +
+                '}';
+    }
+
+    /**
+     * Walks the samples of the group in timestamp order, one event at a time. Every event holds the finite samples of the group taken at
+     * the same timestamp; samples with a non-finite value, such as the staleness markers, are skipped since they are not measurements.
+     * An event holds a single measurement per metric name: when several series of the group share it, e.g. a series repeated in the
+     * request, the last one wins, as a JSON object keeps the last value of a key.
+     */
+    public final class Cursor {
+        private final int[] positions = new int[series.size()];
+        private final int[] members = new int[series.size()];
+        private final int[] nameOf = new int[series.size()];
+        // The member holding every metric name in the current event, -1 if none
+        private final int[] memberOf = new int[names.size()];
+        private int size;
+        private long timestamp;
+        private int count;
+
+        private Cursor() {
+            for (int i = 0; i < nameOf.length; i++) {
+                nameOf[i] = nameIndexes.get(i);
+            }
+            Arrays.fill(memberOf, -1);
+        }
+
+        /**
+         * Moves to the next event
+         * @return {@code false} once every sample has been visited
+         */
+        public boolean next() {
+            do {
+                boolean found = false;
+                long min = 0;
+                for (int i = 0; i < positions.length; i++) {
+                    final PrometheusSeries s = series.get(i);
+                    if (positions[i] < s.size() && (!found || s.getTimestamp(positions[i]) < min)) {
+                        min = s.getTimestamp(positions[i]);
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    events = count;
+                    return false;
+                }
+                timestamp = min;
+                size = 0;
+                for (int i = 0; i < positions.length; i++) {
+                    final PrometheusSeries s = series.get(i);
+                    if (positions[i] < s.size() && s.getTimestamp(positions[i]) == min) {
+                        if (Double.isFinite(s.getValue(positions[i]))) {
+                            final int member = memberOf[nameOf[i]];
+                            if (member >= 0) {
+                                members[member] = i;
+                            } else {
+                                memberOf[nameOf[i]] = size;
+                                members[size++] = i;
+                            }
+                        }
+                        positions[i]++;
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    memberOf[nameOf[members[i]]] = -1;
+                }
+            } while (size == 0);
+            count++;
+            return true;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the number of measurements of the current event
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the metric name of a measurement of the current event
+         */
+        public String getName(int index) {
+            return names.get(nameOf[members[index]]);
+        }
+
+        /**
+         * @return the value of a measurement of the current event
+         */
+        public double getValue(int index) {
+            final int member = members[index];
+            return series.get(member).getValue(positions[member] - 1);
+        }
+    }
+}
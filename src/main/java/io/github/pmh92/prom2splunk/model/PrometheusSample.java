@@ -10,6 +10,8 @@
 
 package io.github.pmh92.prom2splunk.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.Map;
 
 /**
@@ -17,10 +19,14 @@ import java.util.Map;
  */
 public class PrometheusSample {
     private final long timestamp;
-    private final Map<String,String> labels;
+    private final LabelSet labels;
     private final double value;
 
     public PrometheusSample(long timestamp, Map<String, String> labels, double value) {
+        this(timestamp, LabelSet.of(labels), value);
+    }
+
+    public PrometheusSample(long timestamp, LabelSet labels, double value) {
         this.timestamp = timestamp;
         this.labels = labels;
         this.value = value;
@@ -31,6 +37,11 @@ public class PrometheusSample {
     }
 
     public Map<String, String> getLabels() {
+        return labels.getLabels();
+    }
+
+    @JsonIgnore
+    public LabelSet getLabelSet() {
         return labels;
     }
 
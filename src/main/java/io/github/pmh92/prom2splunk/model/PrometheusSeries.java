@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The samples of a Prometheus time series, stored column by column so that no object is created per sample
+ */
+public class PrometheusSeries {
+    private final LabelSet labels;
+    private final long[] timestamps;
+    private final double[] values;
+    private final int size;
+
+    /**
+     * @param labels the labels of the series
+     * @param timestamps the timestamps of the samples. The array is not copied
+     * @param values the values of the samples. The array is not copied
+     * @param size the number of samples in the arrays
+     */
+    public PrometheusSeries(LabelSet labels, long[] timestamps, double[] values, int size) {
+        if (size > timestamps.length || size > values.length) {
+            throw new IllegalArgumentException("Size exceeds the number of samples: " + size);
+        }
+        this.labels = labels;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+    }
+
+    public LabelSet getLabelSet() {
+        return labels;
+    }
+
+    public Map<String, String> getLabels() {
+        return labels.getLabels();
+    }
+
+    /**
+     * @return the same samples with other labels. The samples are shared, not copied
+     */
+    public PrometheusSeries withLabels(LabelSet labels) {
+        return new PrometheusSeries(labels, timestamps, values, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return a view of the series as individual samples. Every sample is created upon access
+     */
+    public List<PrometheusSample> getSamples() {
+        return new AbstractList<PrometheusSample>() {
+            @Override
+            public PrometheusSample get(int index) {
+                if (index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return new PrometheusSample(timestamps[index], labels, values[index]);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "PrometheusSeries{" +
+                "labels=" + labels +
+                ", size=" + size +
+                '}';
+    }
+}
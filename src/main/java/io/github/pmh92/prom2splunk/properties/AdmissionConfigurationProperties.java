@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Configures the admission control of the remote_write requests
+ */
+@Validated
+@ConfigurationProperties("prom2splunk.admission")
+public class AdmissionConfigurationProperties {
+
+    /**
+     * Whether the remote_write requests shall be rejected when the application is overloaded
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum size of the request bodies being processed at the same time
+     */
+    @NotNull
+    private DataSize maxInFlightBytes = DataSize.ofMegabytes(256);
+
+    /**
+     * Size charged to the budget for a request without a Content-Length, until the size of its decompressed body is known
+     */
+    @NotNull
+    private DataSize unknownLengthEstimate = DataSize.ofMegabytes(1);
+
+    /**
+     * Initial number of requests processed at the same time
+     */
+    @Min(1)
+    private int initialLimit = 32;
+
+    /**
+     * Minimum number of requests processed at the same time
+     */
+    @Min(1)
+    private int minLimit = 4;
+
+    /**
+     * Maximum number of requests processed at the same time
+     */
+    @Min(1)
+    private int maxLimit = 512;
+
+    /**
+     * Request latency above which the concurrency limit is decreased
+     */
+    @NotNull
+    private Duration latencyThreshold = Duration.ofSeconds(1);
+
+    /**
+     * Factor applied to the concurrency limit when a request is slow or fails
+     */
+    @DecimalMin("0.1")
+    @DecimalMax("0.99")
+    private double backoffRatio = 0.9;
+
+    /**
+     * The status returned when a request is rejected
+     */
+    @NotNull
+    private HttpStatus rejectStatus = HttpStatus.SERVICE_UNAVAILABLE;
+
+    /**
+     * The time a client is asked to wait before retrying a rejected request
+     */
+    @NotNull
+    private Duration retryAfter = Duration.ofSeconds(5);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public DataSize getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public void setMaxInFlightBytes(DataSize maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    public DataSize getUnknownLengthEstimate() {
+        return unknownLengthEstimate;
+    }
+
+    public void setUnknownLengthEstimate(DataSize unknownLengthEstimate) {
+        this.unknownLengthEstimate = unknownLengthEstimate;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    public Duration getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    public void setLatencyThreshold(Duration latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    public HttpStatus getRejectStatus() {
+        return rejectStatus;
+    }
+
+    public void setRejectStatus(HttpStatus rejectStatus) {
+        this.rejectStatus = rejectStatus;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(Duration retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+}
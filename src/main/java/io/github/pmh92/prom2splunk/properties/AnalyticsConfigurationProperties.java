@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Configures the estimation of the cardinality and the top talkers of the received series
+ */
+@Validated
+@ConfigurationProperties("prom2splunk.analytics")
+public class AnalyticsConfigurationProperties {
+
+    /**
+     * Whether the received series are analyzed
+     */
+    private boolean enabled = false;
+
+    /**
+     * The series are active when received within the current or the previous window
+     */
+    @NotNull
+    private Duration window = Duration.ofMinutes(10);
+
+    /**
+     * Interval at which the gauges of the top talkers are refreshed
+     */
+    @NotNull
+    private Duration refreshInterval = Duration.ofSeconds(15);
+
+    /**
+     * Number of registers of the HyperLogLog sketches, as a power of two. Every sketch takes twice that many bytes
+     */
+    @Min(4)
+    @Max(16)
+    private int precision = 10;
+
+    /**
+     * Maximum number of metric names with their own sketch. The series of the rest are estimated together
+     */
+    @Min(1)
+    private int maxMetrics = 1000;
+
+    /**
+     * Number of metric names and label pairs reported
+     */
+    @Min(1)
+    private int topK = 10;
+
+    /**
+     * Number of label pairs counted by the space-saving sketch
+     */
+    @Min(1)
+    private int labelPairs = 1000;
+
+    /**
+     * Only one out of this number of series feeds the label pairs sketch, rounded up to a power of two
+     */
+    @Min(1)
+    private int labelSampling = 64;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+
+    public Duration getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(int precision) {
+        this.precision = precision;
+    }
+
+    public int getMaxMetrics() {
+        return maxMetrics;
+    }
+
+    public void setMaxMetrics(int maxMetrics) {
+        this.maxMetrics = maxMetrics;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public int getLabelPairs() {
+        return labelPairs;
+    }
+
+    public void setLabelPairs(int labelPairs) {
+        this.labelPairs = labelPairs;
+    }
+
+    public int getLabelSampling() {
+        return labelSampling;
+    }
+
+    public void setLabelSampling(int labelSampling) {
+        this.labelSampling = labelSampling;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("prom2splunk.deduplication")
+public class DeduplicationConfigurationProperties {
+
+    /**
+     * Whether only the samples of one replica of every Prometheus cluster are sent to the sink
+     */
+    private boolean enabled = false;
+
+    /**
+     * The label identifying the cluster of the replicas
+     */
+    @NotEmpty
+    private String clusterLabel = "cluster";
+
+    /**
+     * The label identifying the replica within its cluster
+     */
+    @NotEmpty
+    private String replicaLabel = "__replica__";
+
+    /**
+     * Whether the replica label is removed from the accepted series, so the series of every replica end up the same in Splunk
+     */
+    private boolean dropReplicaLabel = true;
+
+    /**
+     * Time without samples from the elected replica after which the next replica sending samples is elected
+     */
+    @NotNull
+    private Duration failoverTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Time without samples from a cluster after which it is forgotten
+     */
+    @NotNull
+    private Duration clusterIdleTimeout = Duration.ofMinutes(10);
+
+    /**
+     * Maximum number of clusters tracked at the same time. Samples of new clusters beyond it are sent as they are
+     */
+    @Min(1)
+    private int maxClusters = 10_000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getClusterLabel() {
+        return clusterLabel;
+    }
+
+    public void setClusterLabel(String clusterLabel) {
+        this.clusterLabel = clusterLabel;
+    }
+
+    public String getReplicaLabel() {
+        return replicaLabel;
+    }
+
+    public void setReplicaLabel(String replicaLabel) {
+        this.replicaLabel = replicaLabel;
+    }
+
+    public boolean isDropReplicaLabel() {
+        return dropReplicaLabel;
+    }
+
+    public void setDropReplicaLabel(boolean dropReplicaLabel) {
+        this.dropReplicaLabel = dropReplicaLabel;
+    }
+
+    public Duration getFailoverTimeout() {
+        return failoverTimeout;
+    }
+
+    public void setFailoverTimeout(Duration failoverTimeout) {
+        this.failoverTimeout = failoverTimeout;
+    }
+
+    public Duration getClusterIdleTimeout() {
+        return clusterIdleTimeout;
+    }
+
+    public void setClusterIdleTimeout(Duration clusterIdleTimeout) {
+        this.clusterIdleTimeout = clusterIdleTimeout;
+    }
+
+    public int getMaxClusters() {
+        return maxClusters;
+    }
+
+    public void setMaxClusters(int maxClusters) {
+        this.maxClusters = maxClusters;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+@Validated
+@ConfigurationProperties("prom2splunk.downsampling")
+public class DownsamplingConfigurationProperties {
+
+    /**
+     * Whether the series matching a rule are aggregated before being sent to the sink
+     */
+    private boolean enabled = false;
+
+    /**
+     * Interval at which the aggregated samples are emitted
+     */
+    @NotNull
+    private Duration interval = Duration.ofMinutes(1);
+
+    /**
+     * Maximum number of series aggregated at the same time. Samples of new series beyond it are sent as they are
+     */
+    @Min(1)
+    private int maxSeries = 1_000_000;
+
+    /**
+     * The rules selecting the series to aggregate, by metric name. The first matching rule applies, series not matching any rule are sent as
+     * they are
+     */
+    @Valid
+    private List<Rule> rules = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public int getMaxSeries() {
+        return maxSeries;
+    }
+
+    public void setMaxSeries(int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Aggregates the series whose metric name matches a regular expression
+     */
+    public static class Rule {
+
+        /**
+         * Regular expression the whole metric name shall match
+         */
+        @NotEmpty
+        private String metric;
+
+        /**
+         * The aggregated samples emitted for every series
+         */
+        @NotEmpty
+        private Set<Aggregation> aggregations = EnumSet.of(Aggregation.LAST);
+
+        public String getMetric() {
+            return metric;
+        }
+
+        public void setMetric(String metric) {
+            this.metric = metric;
+        }
+
+        public Set<Aggregation> getAggregations() {
+            return aggregations;
+        }
+
+        public void setAggregations(Set<Aggregation> aggregations) {
+            this.aggregations = aggregations;
+        }
+    }
+
+    /**
+     * The aggregations of the samples of a series received during an interval
+     */
+    public enum Aggregation {
+        /**
+         * The last sample, under the original metric name
+         */
+        LAST,
+        /**
+         * The minimum value, as {@code <metric>_min}
+         */
+        MIN,
+        /**
+         * The maximum value, as {@code <metric>_max}
+         */
+        MAX,
+        /**
+         * The sum of the values, as {@code <metric>_sum}
+         */
+        SUM,
+        /**
+         * The number of samples, as {@code <metric>_count}
+         */
+        COUNT,
+        /**
+         * The per-second increase of a counter, accounting for resets, as {@code <metric>_rate}
+         */
+        RATE
+    }
+}
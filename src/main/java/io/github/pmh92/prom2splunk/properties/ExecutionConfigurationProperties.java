@@ -0,0 +1,192 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Configures the threads the requests are received, decoded and written to the sink on
+ */
+@Validated
+@ConfigurationProperties("prom2splunk.execution")
+public class ExecutionConfigurationProperties {
+
+    /**
+     * Whether the native transport, such as epoll on Linux, is used when available
+     */
+    private boolean nativeTransport = true;
+
+    /**
+     * Event loops receiving the remote_write requests
+     */
+    @Valid
+    private final Loops ingest = new Loops();
+
+    /**
+     * Event loops writing to the sinks
+     */
+    @Valid
+    private final Loops sink = new Loops();
+
+    /**
+     * Threads the requests are decoded and encoded on, instead of the event loop that received them
+     */
+    @Valid
+    private final Offload offload = new Offload();
+
+    /**
+     * Threads the chunks of a large request are decoded and encoded on, in parallel
+     */
+    @Valid
+    private final Parallel parallel = new Parallel();
+
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    public void setNativeTransport(boolean nativeTransport) {
+        this.nativeTransport = nativeTransport;
+    }
+
+    public Loops getIngest() {
+        return ingest;
+    }
+
+    public Loops getSink() {
+        return sink;
+    }
+
+    public Offload getOffload() {
+        return offload;
+    }
+
+    public Parallel getParallel() {
+        return parallel;
+    }
+
+    /**
+     * A group of event loops
+     */
+    public static class Loops {
+
+        /**
+         * Number of event loops. Reactor Netty's default, the number of processors with a minimum of 4, when 0
+         */
+        @Min(0)
+        private int threads = 0;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * Configures the threads CPU-heavy work is moved to
+     */
+    public static class Offload {
+
+        /**
+         * Whether the requests are decoded and encoded on the offload threads
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of offload threads. The number of processors when 0
+         */
+        @Min(0)
+        private int threads = 0;
+
+        /**
+         * Maximum number of requests waiting for an offload thread. Further requests are rejected with 503
+         */
+        @Min(1)
+        private int queueSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+    }
+
+    /**
+     * Configures the splitting of large requests in chunks handled in parallel
+     */
+    public static class Parallel {
+
+        /**
+         * Whether the requests with more time series than a chunk are split and their chunks decoded and encoded in parallel
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of threads of the work-stealing pool. The number of processors when 0
+         */
+        @Min(0)
+        private int threads = 0;
+
+        /**
+         * Maximum number of time series of a chunk
+         */
+        @Min(1)
+        private int chunkSeries = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getChunkSeries() {
+            return chunkSeries;
+        }
+
+        public void setChunkSeries(int chunkSeries) {
+            this.chunkSeries = chunkSeries;
+        }
+    }
+}
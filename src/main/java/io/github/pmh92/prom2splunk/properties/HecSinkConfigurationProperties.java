@@ -0,0 +1,361 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.net.URI;
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("prom2splunk.sink.hec")
+public class HecSinkConfigurationProperties {
+
+    /**
+     * The base URL of the HTTP Event Collector
+     */
+    @NotNull
+    private URI url = URI.create("http://localhost:8088");
+
+    /**
+     * The path of the endpoint the events are posted to. The acknowledgement endpoint is the {@code ack} endpoint next to it
+     */
+    @NotEmpty
+    private String path = "/services/collector";
+
+    /**
+     * The HEC token
+     */
+    private String token;
+
+    /**
+     * The channel sent with every request. A random one is used when the acknowledgement is enabled and no channel is set
+     */
+    private String channel;
+
+    /**
+     * The index of the events. When not set, the default index of the token is used
+     */
+    private String index;
+
+    /**
+     * The host of the events
+     */
+    private String host;
+
+    /**
+     * The source of the events
+     */
+    private String source;
+
+    /**
+     * The sourcetype of the events
+     */
+    private String sourcetype;
+
+    /**
+     * Whether the requests are compressed with gzip
+     */
+    private boolean gzip = true;
+
+    /**
+     * The shape of the events posted to the HTTP Event Collector
+     */
+    @NotNull
+    private SinkConfigurationProperties.EventFormat eventFormat = SinkConfigurationProperties.EventFormat.SINGLE_METRIC;
+
+    /**
+     * Maximum number of concurrent connections to the HTTP Event Collector
+     */
+    @Min(1)
+    private int maxConnections = 16;
+
+    /**
+     * Maximum time to wait for the response of a request
+     */
+    @NotNull
+    private Duration responseTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Batching of the events posted in a single request
+     */
+    @Valid
+    private final Batch batch = new Batch();
+
+    /**
+     * Retries of the failed requests
+     */
+    @Valid
+    private final Retry retry = new Retry();
+
+    /**
+     * Indexer acknowledgement of the requests
+     */
+    @Valid
+    private final Ack ack = new Ack();
+
+    public URI getUrl() {
+        return url;
+    }
+
+    public void setUrl(URI url) {
+        this.url = url;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getSourcetype() {
+        return sourcetype;
+    }
+
+    public void setSourcetype(String sourcetype) {
+        this.sourcetype = sourcetype;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public SinkConfigurationProperties.EventFormat getEventFormat() {
+        return eventFormat;
+    }
+
+    public void setEventFormat(SinkConfigurationProperties.EventFormat eventFormat) {
+        this.eventFormat = eventFormat;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    public void setResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public Ack getAck() {
+        return ack;
+    }
+
+    /**
+     * Configures how many events are posted in a single request
+     */
+    public static class Batch {
+
+        /**
+         * Maximum number of events posted in a single request
+         */
+        @Min(1)
+        private int maxEvents = 1000;
+
+        /**
+         * Maximum size of the events posted in a single request, before compression
+         */
+        @NotNull
+        private DataSize maxBytes = DataSize.ofMegabytes(1);
+
+        /**
+         * Maximum time to wait for a batch to be filled before posting it
+         */
+        @NotNull
+        private Duration maxLinger = Duration.ofMillis(50);
+
+        public int getMaxEvents() {
+            return maxEvents;
+        }
+
+        public void setMaxEvents(int maxEvents) {
+            this.maxEvents = maxEvents;
+        }
+
+        public DataSize getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(DataSize maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public Duration getMaxLinger() {
+            return maxLinger;
+        }
+
+        public void setMaxLinger(Duration maxLinger) {
+            this.maxLinger = maxLinger;
+        }
+    }
+
+    /**
+     * Configures the retries of the requests failing with a connection error, a server error or a throttling response
+     */
+    public static class Retry {
+
+        /**
+         * Maximum number of retries of a request
+         */
+        @Min(0)
+        private int maxAttempts = 5;
+
+        /**
+         * Backoff before the first retry, doubled on every following retry
+         */
+        @NotNull
+        private Duration minBackoff = Duration.ofMillis(200);
+
+        /**
+         * Maximum backoff between retries
+         */
+        @NotNull
+        private Duration maxBackoff = Duration.ofSeconds(10);
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public Duration getMinBackoff() {
+            return minBackoff;
+        }
+
+        public void setMinBackoff(Duration minBackoff) {
+            this.minBackoff = minBackoff;
+        }
+
+        public Duration getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    /**
+     * Configures the wait for the indexer acknowledgement of every request
+     */
+    public static class Ack {
+
+        /**
+         * Whether a request only succeeds once the indexers acknowledge its events
+         */
+        private boolean enabled = false;
+
+        /**
+         * Interval between the queries of the acknowledgement status
+         */
+        @NotNull
+        private Duration pollInterval = Duration.ofSeconds(1);
+
+        /**
+         * Maximum time to wait for the acknowledgement, after which the request fails. It is not posted again, as its events may have been
+         * indexed
+         */
+        @NotNull
+        private Duration timeout = Duration.ofSeconds(60);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(Duration pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configures how the remote_write requests are received
+ */
+@Validated
+@ConfigurationProperties("prom2splunk.ingest")
+public class IngestConfigurationProperties {
+
+    /**
+     * The decoder used to read the remote_write requests
+     */
+    @NotNull
+    private Decoder decoder = Decoder.PROTOBUF;
+
+    /**
+     * Cache of the series received, used by the streaming decoder
+     */
+    @Valid
+    private final SeriesCache seriesCache = new SeriesCache();
+
+    /**
+     * Maximum size of a remote_write request once decompressed. Larger requests are rejected
+     */
+    @NotNull
+    private DataSize maxDecompressedSize = DataSize.ofMegabytes(64);
+
+    public Decoder getDecoder() {
+        return decoder;
+    }
+
+    public void setDecoder(Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    public SeriesCache getSeriesCache() {
+        return seriesCache;
+    }
+
+    public DataSize getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+    public void setMaxDecompressedSize(DataSize maxDecompressedSize) {
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    /**
+     * The available remote_write decoders
+     */
+    public enum Decoder {
+        /**
+         * Parses the whole request into the generated protobuf classes
+         */
+        PROTOBUF,
+        /**
+         * Walks the protobuf wire format emitting the samples of one time series at a time
+         */
+        STREAMING
+    }
+
+    /**
+     * Configures the cache of the series received
+     */
+    public static class SeriesCache {
+
+        /**
+         * Whether the labels of the series received shall be cached
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of series kept in the cache
+         */
+        @Min(1)
+        private long maximumSize = 500_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Validated
+@ConfigurationProperties("prom2splunk.routing")
+public class RoutingConfigurationProperties {
+
+    /**
+     * Whether the rules are applied to the received series
+     */
+    private boolean enabled = false;
+
+    /**
+     * The rules applied to every series, in order
+     */
+    @Valid
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * The sinks the series can be routed to, by name
+     */
+    @Valid
+    private Map<String, Sink> sinks = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public Map<String, Sink> getSinks() {
+        return sinks;
+    }
+
+    public void setSinks(Map<String, Sink> sinks) {
+        this.sinks = sinks;
+    }
+
+    /**
+     * An action applied to the series matching every matcher
+     */
+    public static class Rule {
+
+        /**
+         * The matchers the labels of the series shall match. A rule without matchers matches every series
+         */
+        @Valid
+        private List<Matcher> matchers = new ArrayList<>();
+
+        /**
+         * The action applied to the matching series
+         */
+        @NotNull
+        private Action action;
+
+        /**
+         * The labels set by a {@code relabel} action
+         */
+        private Map<String, String> labels = new LinkedHashMap<>();
+
+        /**
+         * The labels removed by a {@code relabel} action
+         */
+        private List<String> removeLabels = new ArrayList<>();
+
+        /**
+         * The name of the sink a {@code route} action sends the series to
+         */
+        private String sink;
+
+        public List<Matcher> getMatchers() {
+            return matchers;
+        }
+
+        public void setMatchers(List<Matcher> matchers) {
+            this.matchers = matchers;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public void setAction(Action action) {
+            this.action = action;
+        }
+
+        public Map<String, String> getLabels() {
+            return labels;
+        }
+
+        public void setLabels(Map<String, String> labels) {
+            this.labels = labels;
+        }
+
+        public List<String> getRemoveLabels() {
+            return removeLabels;
+        }
+
+        public void setRemoveLabels(List<String> removeLabels) {
+            this.removeLabels = removeLabels;
+        }
+
+        public String getSink() {
+            return sink;
+        }
+
+        public void setSink(String sink) {
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * Matches the value of a label, as the {@code LabelMatcher} of the Prometheus remote read API. A missing label has an empty value
+     */
+    public static class Matcher {
+
+        /**
+         * The name of the label
+         */
+        @NotEmpty
+        private String name;
+
+        /**
+         * How the value of the label is matched
+         */
+        @NotNull
+        private MatchType type = MatchType.EQ;
+
+        /**
+         * The value, or the regular expression the whole value shall match
+         */
+        @NotNull
+        private String value;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public MatchType getType() {
+            return type;
+        }
+
+        public void setType(MatchType type) {
+            this.type = type;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * A sink the series can be routed to
+     */
+    public static class Sink {
+
+        /**
+         * The type of the sink
+         */
+        @NotNull
+        private SinkConfigurationProperties.Type type = SinkConfigurationProperties.Type.TCP;
+
+        /**
+         * The configuration of a {@code tcp} sink
+         */
+        @Valid
+        private final TcpSinkConfigurationProperties tcp = new TcpSinkConfigurationProperties();
+
+        /**
+         * The configuration of a {@code hec} sink
+         */
+        @Valid
+        private final HecSinkConfigurationProperties hec = new HecSinkConfigurationProperties();
+
+        public SinkConfigurationProperties.Type getType() {
+            return type;
+        }
+
+        public void setType(SinkConfigurationProperties.Type type) {
+            this.type = type;
+        }
+
+        public TcpSinkConfigurationProperties getTcp() {
+            return tcp;
+        }
+
+        public HecSinkConfigurationProperties getHec() {
+            return hec;
+        }
+    }
+
+    /**
+     * The available label matchers
+     */
+    public enum MatchType {
+        /**
+         * The value is equal
+         */
+        EQ,
+        /**
+         * The value is not equal
+         */
+        NEQ,
+        /**
+         * The value matches the regular expression
+         */
+        RE,
+        /**
+         * The value does not match the regular expression
+         */
+        NRE
+    }
+
+    /**
+     * The available rule actions
+     */
+    public enum Action {
+        /**
+         * Drops the series not matching the rule
+         */
+        KEEP,
+        /**
+         * Drops the series matching the rule
+         */
+        DROP,
+        /**
+         * Sets or removes labels of the series matching the rule
+         */
+        RELABEL,
+        /**
+         * Sends the series matching the rule to a named sink, skipping the rest of the rules
+         */
+        ROUTE
+    }
+}
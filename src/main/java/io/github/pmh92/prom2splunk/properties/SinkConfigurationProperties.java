@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+
+@Validated
+@ConfigurationProperties("prom2splunk.sink")
+public class SinkConfigurationProperties {
+
+    /**
+     * The sink the events are written to
+     */
+    @NotNull
+    private Type type = Type.TCP;
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * The available sinks
+     */
+    public enum Type {
+        /**
+         * Writes newline-delimited JSON events over TCP, to a Splunk Universal Forwarder
+         */
+        TCP,
+        /**
+         * Posts metric events to the Splunk HTTP Event Collector
+         */
+        HEC
+    }
+
+    /**
+     * The shapes of the events written to the sinks
+     */
+    public enum EventFormat {
+        /**
+         * Every sample is written as an event with a single measurement
+         */
+        SINGLE_METRIC,
+        /**
+         * The samples of a request sharing the timestamp and every label but {@code __name__} are written as a single event, with a
+         * {@code metric_name:<name>} measurement each
+         */
+        MULTI_METRIC
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Configures the local spool where the received series are stored before being sent to the sink
+ */
+@Validated
+@ConfigurationProperties("prom2splunk.spool")
+public class SpoolConfigurationProperties {
+
+    /**
+     * Whether the received series shall be stored in a local spool before being sent to the sink
+     */
+    private boolean enabled = false;
+
+    /**
+     * The directory where the spool segments are stored
+     */
+    @NotNull
+    private Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "prom2splunk-spool");
+
+    /**
+     * The size of each of the spool segments
+     */
+    @NotNull
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    /**
+     * Maximum size of the spool. The oldest segments are dropped when exceeded, even if they have not been sent
+     */
+    @NotNull
+    private DataSize maxSize = DataSize.ofGigabytes(1);
+
+    /**
+     * When the spool is flushed to the disk
+     */
+    @NotNull
+    private Fsync fsync = Fsync.INTERVAL;
+
+    /**
+     * Time between flushes of the spool to the disk when using the interval policy
+     */
+    @NotNull
+    private Duration fsyncInterval = Duration.ofSeconds(1);
+
+    /**
+     * Maximum number of series sent to the sink at once when draining the spool
+     */
+    @Min(1)
+    private int drainBatchSize = 1000;
+
+    /**
+     * Maximum time to wait between retries when the sink is not available
+     */
+    @NotNull
+    private Duration maxRetryBackoff = Duration.ofSeconds(30);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    public DataSize getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(DataSize segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public DataSize getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Fsync getFsync() {
+        return fsync;
+    }
+
+    public void setFsync(Fsync fsync) {
+        this.fsync = fsync;
+    }
+
+    public Duration getFsyncInterval() {
+        return fsyncInterval;
+    }
+
+    public void setFsyncInterval(Duration fsyncInterval) {
+        this.fsyncInterval = fsyncInterval;
+    }
+
+    public int getDrainBatchSize() {
+        return drainBatchSize;
+    }
+
+    public void setDrainBatchSize(int drainBatchSize) {
+        this.drainBatchSize = drainBatchSize;
+    }
+
+    public Duration getMaxRetryBackoff() {
+        return maxRetryBackoff;
+    }
+
+    public void setMaxRetryBackoff(Duration maxRetryBackoff) {
+        this.maxRetryBackoff = maxRetryBackoff;
+    }
+
+    /**
+     * The available policies to flush the spool to the disk
+     */
+    public enum Fsync {
+        /**
+         * Flushes the spool before acknowledging every request
+         */
+        ALWAYS,
+        /**
+         * Flushes the spool periodically
+         */
+        INTERVAL,
+        /**
+         * Leaves the flushing to the operating system
+         */
+        NEVER
+    }
+}
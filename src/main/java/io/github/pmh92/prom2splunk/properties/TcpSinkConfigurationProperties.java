@@ -13,12 +13,17 @@ package io.github.pmh92.prom2splunk.properties;
 import io.netty.channel.ChannelOption;
 import org.hibernate.validator.constraints.Range;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -35,10 +40,9 @@ public class TcpSinkConfigurationProperties {
     private String host = "localhost";
 
     /**
-     * The TCP port where the Splunk sink is listening for connections
+     * The TCP port where the Splunk sink is listening for connections. Required unless targets are configured
      */
-    @NotNull
-    @Range(min = 1, max = 65535)
+    @Range(min = 0, max = 65535)
     private int port;
 
     /**
@@ -55,6 +59,26 @@ public class TcpSinkConfigurationProperties {
      * Time after which, an idle connection will be closed
      */
     private Duration connectionIdleTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Number of long-lived connections the series are routed to by their labels, so the samples of a series are always written over the
+     * same connection. When {@code 0}, any connection of the pool is used instead
+     */
+    @Min(0)
+    private int shards = 0;
+
+    /**
+     * The Splunk sinks the events are spread across. When empty, the {@code host} and {@code port} are used as the only target
+     */
+    @Valid
+    private List<Target> targets = new ArrayList<>();
+
+    /**
+     * How the events are spread across the targets
+     */
+    @Valid
+    private final Balancer balancer = new Balancer();
+
     /**
      * Whether the Splunk sink shall eagerly connect to the target
      */
@@ -67,6 +91,30 @@ public class TcpSinkConfigurationProperties {
      */
     private Map<ChannelOption<Object>, Object> options = new LinkedHashMap<>();
 
+    /**
+     * The encoder used to serialize the events written to the sink
+     */
+    @NotNull
+    private Encoder encoder = Encoder.DIRECT;
+
+    /**
+     * The shape of the events written to the sink
+     */
+    @NotNull
+    private SinkConfigurationProperties.EventFormat eventFormat = SinkConfigurationProperties.EventFormat.SINGLE_METRIC;
+
+    /**
+     * Batching of the events written to the sink
+     */
+    @Valid
+    private final Batch batch = new Batch();
+
+    /**
+     * Buffering and flushing of the data written to the connections
+     */
+    @Valid
+    private final Output output = new Output();
+
     public String getHost() {
         return host;
     }
@@ -107,6 +155,26 @@ public class TcpSinkConfigurationProperties {
         this.connectionIdleTimeout = connectionIdleTimeout;
     }
 
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(List<Target> targets) {
+        this.targets = targets;
+    }
+
+    public Balancer getBalancer() {
+        return balancer;
+    }
+
     public boolean isEagerLoad() {
         return eagerLoad;
     }
@@ -122,4 +190,322 @@ public class TcpSinkConfigurationProperties {
     public void setOptions(Map<ChannelOption<Object>, Object> options) {
         this.options = options;
     }
+
+    public Encoder getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(Encoder encoder) {
+        this.encoder = encoder;
+    }
+
+    public SinkConfigurationProperties.EventFormat getEventFormat() {
+        return eventFormat;
+    }
+
+    public void setEventFormat(SinkConfigurationProperties.EventFormat eventFormat) {
+        this.eventFormat = eventFormat;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Output getOutput() {
+        return output;
+    }
+
+    /**
+     * The available event encoders
+     */
+    public enum Encoder {
+        /**
+         * Serializes the events with Spring's Jackson encoder
+         */
+        JACKSON,
+        /**
+         * Writes the JSON events straight into the network buffers
+         */
+        DIRECT
+    }
+
+    /**
+     * Configures how several events are written together over a single connection
+     */
+    public static class Batch {
+
+        /**
+         * Whether several events shall be written over the same connection with a single flush
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of events written in a single batch
+         */
+        @Min(1)
+        private int maxEvents = 1000;
+
+        /**
+         * Maximum size of the data written in a single batch
+         */
+        @NotNull
+        private DataSize maxBytes = DataSize.ofMegabytes(1);
+
+        /**
+         * Maximum time to wait for a batch to be filled before writing it
+         */
+        @NotNull
+        private Duration maxLinger = Duration.ofMillis(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEvents() {
+            return maxEvents;
+        }
+
+        public void setMaxEvents(int maxEvents) {
+            this.maxEvents = maxEvents;
+        }
+
+        public DataSize getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(DataSize maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public Duration getMaxLinger() {
+            return maxLinger;
+        }
+
+        public void setMaxLinger(Duration maxLinger) {
+            this.maxLinger = maxLinger;
+        }
+    }
+
+    /**
+     * Configures how the data written to a connection reaches the socket
+     */
+    public static class Output {
+
+        /**
+         * Whether the events of a request are streamed over a single connection and its flushes consolidated, so that the events reach the
+         * socket in large writes. Takes precedence over the batching
+         */
+        private boolean coalesce = false;
+
+        /**
+         * Maximum number of flushes consolidated before flushing the connection anyway
+         */
+        @Min(1)
+        private int maxConsolidatedFlushes = 256;
+
+        /**
+         * Amount of pending data below which a connection becomes writable again
+         */
+        @NotNull
+        private DataSize lowWaterMark = DataSize.ofKilobytes(32);
+
+        /**
+         * Amount of pending data above which a connection stops being writable
+         */
+        @NotNull
+        private DataSize highWaterMark = DataSize.ofKilobytes(64);
+
+        /**
+         * Amount of data gathered into every TLS record when the connections are secure. Larger values than the maximum record size of 16KB
+         * wrap several full records at once
+         */
+        @NotNull
+        private DataSize tlsWrapSize = DataSize.ofKilobytes(16);
+
+        public boolean isCoalesce() {
+            return coalesce;
+        }
+
+        public void setCoalesce(boolean coalesce) {
+            this.coalesce = coalesce;
+        }
+
+        public int getMaxConsolidatedFlushes() {
+            return maxConsolidatedFlushes;
+        }
+
+        public void setMaxConsolidatedFlushes(int maxConsolidatedFlushes) {
+            this.maxConsolidatedFlushes = maxConsolidatedFlushes;
+        }
+
+        public DataSize getLowWaterMark() {
+            return lowWaterMark;
+        }
+
+        public void setLowWaterMark(DataSize lowWaterMark) {
+            this.lowWaterMark = lowWaterMark;
+        }
+
+        public DataSize getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public void setHighWaterMark(DataSize highWaterMark) {
+            this.highWaterMark = highWaterMark;
+        }
+
+        public DataSize getTlsWrapSize() {
+            return tlsWrapSize;
+        }
+
+        public void setTlsWrapSize(DataSize tlsWrapSize) {
+            this.tlsWrapSize = tlsWrapSize;
+        }
+    }
+
+    /**
+     * A Splunk sink the events can be written to
+     */
+    public static class Target {
+
+        /**
+         * The host where the Splunk sink is listening for connections
+         */
+        @NotEmpty
+        private String host;
+
+        /**
+         * The TCP port where the Splunk sink is listening for connections
+         */
+        @Range(min = 1, max = 65535)
+        private int port;
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+    }
+
+    /**
+     * Configures how the events are spread across the targets and how the unhealthy targets are ejected
+     */
+    public static class Balancer {
+
+        /**
+         * The strategy used to pick the target of every write
+         */
+        @NotNull
+        private Strategy strategy = Strategy.ROUND_ROBIN;
+
+        /**
+         * Interval between the connection attempts made to check the health of the targets
+         */
+        @NotNull
+        private Duration healthCheckInterval = Duration.ofSeconds(10);
+
+        /**
+         * Maximum time to wait for the connection of a health check
+         */
+        @NotNull
+        private Duration healthCheckTimeout = Duration.ofSeconds(2);
+
+        /**
+         * Number of consecutive failures after which a target is ejected
+         */
+        @Min(1)
+        private int maxFailures = 5;
+
+        /**
+         * Minimum time a target stays ejected
+         */
+        @NotNull
+        private Duration ejectionTime = Duration.ofSeconds(30);
+
+        /**
+         * Time over which the traffic sent to a re-admitted target grows back to its full share
+         */
+        @NotNull
+        private Duration slowStart = Duration.ofSeconds(30);
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(Strategy strategy) {
+            this.strategy = strategy;
+        }
+
+        public Duration getHealthCheckInterval() {
+            return healthCheckInterval;
+        }
+
+        public void setHealthCheckInterval(Duration healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+        }
+
+        public Duration getHealthCheckTimeout() {
+            return healthCheckTimeout;
+        }
+
+        public void setHealthCheckTimeout(Duration healthCheckTimeout) {
+            this.healthCheckTimeout = healthCheckTimeout;
+        }
+
+        public int getMaxFailures() {
+            return maxFailures;
+        }
+
+        public void setMaxFailures(int maxFailures) {
+            this.maxFailures = maxFailures;
+        }
+
+        public Duration getEjectionTime() {
+            return ejectionTime;
+        }
+
+        public void setEjectionTime(Duration ejectionTime) {
+            this.ejectionTime = ejectionTime;
+        }
+
+        public Duration getSlowStart() {
+            return slowStart;
+        }
+
+        public void setSlowStart(Duration slowStart) {
+            this.slowStart = slowStart;
+        }
+    }
+
+    /**
+     * The available strategies to pick the target of a write
+     */
+    public enum Strategy {
+        /**
+         * Every target in turn
+         */
+        ROUND_ROBIN,
+        /**
+         * The target with the fewest writes in progress
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * The best of two random targets, by their measured latency and writes in progress
+         */
+        POWER_OF_TWO_CHOICES
+    }
 }
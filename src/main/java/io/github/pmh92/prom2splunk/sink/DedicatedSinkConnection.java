@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.Connection;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * A single long-lived connection, established again once it is closed. Writes failing close the connection, so the next write reconnects.
+ * The writes go one after the other, each starting once the previous one has completed, so the events of a shard are never interleaved
+ * nor reordered by concurrent requests
+ */
+class DedicatedSinkConnection implements SinkConnections {
+
+    private final Mono<? extends Connection> connection;
+    private final AtomicReference<Mono<Void>> last = new AtomicReference<>(Mono.empty());
+    private volatile Connection current;
+    private volatile boolean disposed;
+
+    DedicatedSinkConnection(Mono<? extends Connection> connect) {
+        this.connection = connect.doOnNext(c -> this.current = c).cacheInvalidateWhen(Connection::onDispose);
+    }
+
+    /**
+     * The write waits for the previous one in the subscription of the caller, so cancelling a write waiting its turn never runs the writer
+     */
+    @Override
+    public Mono<Void> write(Function<Connection, Mono<Void>> writer) {
+        return Mono.defer(() -> {
+            if (this.disposed) {
+                return Mono.error(new IllegalStateException("The connection to the sink has been closed"));
+            }
+            final Sinks.Empty<Void> completed = Sinks.empty();
+            final Mono<Void> previous = this.last.getAndSet(completed.asMono());
+            return previous.then(this.connection.flatMap(c -> writer.apply(c).doOnError(ex -> c.dispose())))
+                    .doFinally(signal -> completed.tryEmitEmpty());
+        });
+    }
+
+    @Override
+    public void dispose() {
+        this.disposed = true;
+        final Connection connection = this.current;
+        if (connection != null) {
+            connection.dispose();
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return this.disposed;
+    }
+}
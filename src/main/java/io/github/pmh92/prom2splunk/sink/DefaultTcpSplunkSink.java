@@ -11,120 +11,419 @@
 package io.github.pmh92.prom2splunk.sink;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.MetricGroup;
 import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.SinkConfigurationProperties;
 import io.github.pmh92.prom2splunk.properties.TcpSinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.encoder.DirectJsonSampleEncoder;
+import io.github.pmh92.prom2splunk.sink.encoder.EncodedEvents;
+import io.github.pmh92.prom2splunk.sink.encoder.JacksonSampleEncoder;
+import io.github.pmh92.prom2splunk.sink.encoder.SampleEncoder;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Tag;
-import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.ResolvableType;
-import org.springframework.core.codec.Encoder;
-import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferFactory;
-import org.springframework.core.io.buffer.NettyDataBufferFactory;
-import org.springframework.core.io.buffer.PooledDataBuffer;
-import org.springframework.http.MediaType;
-import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.Connection;
 import reactor.netty.NettyOutbound;
+import reactor.netty.NettyPipeline;
 import reactor.netty.tcp.TcpClient;
-import reactor.pool.Pool;
-import reactor.pool.PoolBuilder;
+import reactor.netty.tcp.TcpSslContextSpec;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This configures and sets-up the TCP sink for all the metrics received
  */
 @Service
-public class DefaultTcpSplunkSink implements SplunkSink {
+@ConditionalOnProperty(prefix = "prom2splunk.sink", name = "type", havingValue = "tcp", matchIfMissing = true)
+public class DefaultTcpSplunkSink implements SplunkSink, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultTcpSplunkSink.class);
-    private static final Tag NONE_EXCEPTION_TAG = Tag.of("exception", "None");
-    private static final Tag JSON_ENCODING_TAG = Tag.of("encoding", MediaType.APPLICATION_JSON_VALUE);
+    private static final String FLUSH_CONSOLIDATION = "prom2splunk.flushConsolidation";
 
     private final TcpSinkConfigurationProperties properties;
     private final TcpClient client;
-    private final Encoder<? super PrometheusSample> encoder;
-    private final MeterRegistry registry;
+    private final SampleEncoder encoder;
+    private final SinkMetrics metrics;
+    private final StageMetrics stages;
+    private final ExecutionResources execution;
 
-    private final Pool<? extends Connection> pool;
+    private final SinkConnections pool;
+    private final SinkConnections[] shards;
 
-    public DefaultTcpSplunkSink(MeterRegistry metrics, TcpSinkConfigurationProperties properties, ObjectMapper mapper) {
-        // Defaults to JSON encoder / Investigate on using alternative encoders?
-        this.encoder = new Jackson2JsonEncoder(mapper, MediaType.APPLICATION_JSON);
+    @Autowired
+    public DefaultTcpSplunkSink(MeterRegistry metrics, TcpSinkConfigurationProperties properties, ObjectMapper mapper, StageMetrics stages,
+                                ExecutionResources execution) {
+        this(SinkMetrics.DEFAULT_SINK, metrics, properties, mapper, stages, execution);
+    }
+
+    /**
+     * @param name the name of the sink, told apart by the {@code sink} tag of its metrics
+     */
+    public DefaultTcpSplunkSink(String name, MeterRegistry metrics, TcpSinkConfigurationProperties properties, ObjectMapper mapper,
+                                StageMetrics stages, ExecutionResources execution) {
+        this.encoder = properties.getEncoder() == TcpSinkConfigurationProperties.Encoder.JACKSON
+                ? new JacksonSampleEncoder(mapper)
+                : new DirectJsonSampleEncoder();
+        this.metrics = new SinkMetrics(metrics, name, this.encoder.getEncoding());
+        this.stages = stages;
+        this.execution = execution;
         this.properties = properties;
+        final TcpSinkConfigurationProperties.Output output = properties.getOutput();
+        final FlushCountingHandler flushes = new FlushCountingHandler(Counter.builder("sink.flushes")
+                .description("Flushes of the connections to the sink").tag("sink", name).tag("encoding", this.encoder.getEncoding())
+                .register(metrics));
         // Configures the TcpClient to connect to
-        TcpClient builder = TcpClient.create()
+        TcpClient builder = execution.configure(TcpClient.create())
                 .option(ChannelOption.SO_KEEPALIVE, true)
-                .host(this.properties.getHost())
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark((int) output.getLowWaterMark().toBytes(),
+                        (int) output.getHighWaterMark().toBytes()))
                 .metrics(true)
-                .doOnConnected(c -> logger.info(String.format("Connected to: %s", c)))
-                .doOnDisconnected(c -> logger.info(String.format("Disconnected from: %s", c)))
-                .port(this.properties.getPort());
+                .doOnChannelInit((observer, channel, address) -> configurePipeline(channel.pipeline(), flushes, output));
         if (this.properties.isSecure()) {
-            builder = builder.secure();
+            final int wrapSize = (int) output.getTlsWrapSize().toBytes();
+            builder = builder.secure(spec -> spec.sslContext(TcpSslContextSpec.forClient())
+                    .handlerConfigurator(handler -> handler.setWrapDataSize(wrapSize)));
         }
         // Set customized options
         for (Map.Entry<ChannelOption<Object>, Object> options : this.properties.getOptions().entrySet()) {
             builder = builder.option(options.getKey(), options.getValue());
         }
-        this.client = builder;
-        this.registry = metrics;
+        // The health checks connect without logging, as they would log every interval
+        final TcpClient probe = builder;
+        this.client = builder.doOnConnected(c -> logger.info(String.format("Connected to: %s", c)))
+                .doOnDisconnected(c -> logger.info(String.format("Disconnected from: %s", c)));
 
-        this.pool = PoolBuilder.from(this.client.connect())
-                .sizeBetween(1, properties.getMaxConnections())
-                .evictInBackground(properties.getConnectionIdleTimeout())
-                .buildPool();
+        final Mono<? extends Connection> connect;
+        if (properties.getTargets().isEmpty()) {
+            if (properties.getPort() == 0) {
+                throw new IllegalStateException("prom2splunk.sink.tcp.port must be set when no targets are configured");
+            }
+            final TcpClient target = this.client.host(properties.getHost()).port(properties.getPort());
+            this.pool = new PooledSinkConnections(name, properties.getHost() + ":" + properties.getPort(), target,
+                    properties.getMaxConnections(), properties.getConnectionIdleTimeout(), stages);
+            connect = target.connect();
+        } else {
+            // Every target gets its own pool
+            final List<SinkTarget> targets = new ArrayList<>();
+            for (TcpSinkConfigurationProperties.Target target : properties.getTargets()) {
+                final String targetName = target.getHost() + ":" + target.getPort();
+                final TcpClient targetClient = this.client.host(target.getHost()).port(target.getPort());
+                targets.add(new SinkTarget(name, targetName, targetClient, probe.host(target.getHost()).port(target.getPort()),
+                        new PooledSinkConnections(name, targetName, targetClient, properties.getMaxConnections(),
+                                properties.getConnectionIdleTimeout(), stages),
+                        metrics));
+            }
+            final LoadBalancedSinkConnections balancer = new LoadBalancedSinkConnections(targets, properties.getBalancer());
+            this.pool = balancer;
+            connect = balancer.connect();
+        }
+        this.shards = new SinkConnections[properties.getShards()];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new DedicatedSinkConnection(connect);
+        }
+    }
+
+    /**
+     * Counts the flushes reaching the socket and, when coalescing, consolidates the flushes before the encryption, so the events written
+     * to a connection within the same event loop iteration are encrypted in full TLS records and sent with a single system call
+     */
+    private static void configurePipeline(ChannelPipeline pipeline, FlushCountingHandler flushes, TcpSinkConfigurationProperties.Output output) {
+        pipeline.addFirst(FlushCountingHandler.NAME, flushes);
+        if (output.isCoalesce()) {
+            final String previous = pipeline.get(NettyPipeline.SslHandler) != null ? NettyPipeline.SslHandler : FlushCountingHandler.NAME;
+            pipeline.addAfter(previous, FLUSH_CONSOLIDATION, new FlushConsolidationHandler(output.getMaxConsolidatedFlushes(), true));
+        }
     }
 
     @Override
     public Mono<Void> handle(PrometheusSample sample) {
         logger.trace("About to send: {}", sample);
         AtomicInteger bytes = new AtomicInteger(0);
-        return this.pool.withPoolable(connection -> {
+        return connections(sample.getLabelSet()).write(connection -> {
+                    final NettyOutbound outbound = connection.outbound();
+                    final Mono<ByteBuf> buffer = Mono.fromCallable(() -> {
+                                final long start = stages.start();
+                                final ByteBuf encoded = encoder.encode(sample, outbound.alloc());
+                                stages.record(StageMetrics.Stage.ENCODE, start);
+                                return encoded;
+                            })
+                            .doOnNext(buf -> bytes.addAndGet(buf.readableBytes()));
+                    return timeWrite(outbound.send(buffer).then());
+                })
+                .doOnSuccess((r) -> metrics.record(bytes.get(), 1, null))
+                .doOnError((ex) -> metrics.record(bytes.get(), 1, ex));
+    }
+
+    /**
+     * When batching is enabled, the samples are encoded upfront and grouped in batches bounded by the number of events, the number of bytes
+     * and the time waiting for the batch to fill. Each batch is written over a single connection with a single flush.
+     */
+    @Override
+    public Mono<Void> handleBatch(Flux<PrometheusSample> samples) {
+        if (!this.properties.getBatch().isEnabled()) {
+            return SplunkSink.super.handleBatch(samples);
+        }
+        if (this.shards.length > 0) {
+            return samples.groupBy(sample -> shard(sample.getLabelSet()))
+                    .flatMap(shard -> write(shard.map(this::encodeSample), this.shards[shard.key()], 1), this.shards.length)
+                    .then();
+        }
+        return write(samples.map(this::encodeSample), this.pool, this.properties.getMaxConnections());
+    }
+
+    /**
+     * Every series is encoded in a single buffer without creating an object per sample. The buffers are written in batches when batching is
+     * enabled, otherwise every series is written on its own. When sharding is enabled, each series is always written over the same
+     * connection, so the samples of a series reach the sink in order. Multi-metric events group the series of the whole request, and are
+     * sharded by their dimensions.
+     */
+    @Override
+    public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+        if (isMultiMetric()) {
+            if (this.shards.length > 0) {
+                return writeShards(encodeSharded(series));
+            }
+            return write(encode(series), this.pool, this.properties.getMaxConnections());
+        }
+        final Flux<PrometheusSeries> nonEmpty = series.filter(s -> s.size() > 0);
+        if (this.shards.length > 0) {
+            return nonEmpty.groupBy(s -> shard(s.getLabelSet()))
+                    .flatMap(shard -> write(shard.map(this::encodeSeries), this.shards[shard.key()], 1), this.shards.length)
+                    .then();
+        }
+        return write(nonEmpty.map(this::encodeSeries), this.pool, this.properties.getMaxConnections());
+    }
+
+    /**
+     * The chunks are decoded and encoded on the parallel scheduler, so the buffers reach the connections ready to be written. Every series is
+     * still encoded in a single buffer, keeping the order of its samples, and sent to its shard when sharding is enabled. Multi-metric events
+     * only group the series of the same chunk.
+     */
+    @Override
+    public Mono<Void> handleChunks(Flux<Flux<PrometheusSeries>> chunks) {
+        if (!execution.isParallel()) {
+            return SplunkSink.super.handleChunks(chunks);
+        }
+        if (this.shards.length > 0) {
+            return writeShards(execution.parallel(chunks, this::encodeSharded));
+        }
+        return write(execution.parallel(chunks, this::encode), this.pool, this.properties.getMaxConnections());
+    }
+
+    private boolean isMultiMetric() {
+        return this.properties.getEventFormat() == SinkConfigurationProperties.EventFormat.MULTI_METRIC;
+    }
+
+    private Flux<EncodedEvents> encode(Flux<PrometheusSeries> series) {
+        final Flux<PrometheusSeries> nonEmpty = series.filter(s -> s.size() > 0);
+        if (isMultiMetric()) {
+            return nonEmpty.collectList().flatMapIterable(MetricGroup::group).handle((group, sink) -> {
+                final EncodedEvents encoded = encodeGroup(group);
+                if (encoded != null) {
+                    sink.next(encoded);
+                }
+            });
+        }
+        return nonEmpty.map(this::encodeSeries);
+    }
+
+    /**
+     * Encodes the series along with the shard they are written to
+     */
+    private Flux<Tuple2<Integer, EncodedEvents>> encodeSharded(Flux<PrometheusSeries> series) {
+        final Flux<PrometheusSeries> nonEmpty = series.filter(s -> s.size() > 0);
+        if (isMultiMetric()) {
+            return nonEmpty.collectList().flatMapIterable(MetricGroup::group)
+                    .handle((group, sink) -> {
+                        final EncodedEvents encoded = encodeGroup(group);
+                        if (encoded != null) {
+                            sink.next(Tuples.of(shard(group.getDimensions()), encoded));
+                        }
+                    });
+        }
+        return nonEmpty.map(s -> Tuples.of(shard(s.getLabelSet()), encodeSeries(s)));
+    }
+
+    private Mono<Void> writeShards(Flux<Tuple2<Integer, EncodedEvents>> events) {
+        return events.groupBy(Tuple2::getT1)
+                .flatMap(shard -> write(shard.map(Tuple2::getT2), this.shards[shard.key()], 1), this.shards.length)
+                .then();
+    }
+
+    private EncodedEvents encodeSample(PrometheusSample sample) {
+        final long start = stages.start();
+        final EncodedEvents encoded = new EncodedEvents(encoder.encode(sample, execution.alloc()), 1);
+        stages.record(StageMetrics.Stage.ENCODE, start);
+        return encoded;
+    }
+
+    private EncodedEvents encodeSeries(PrometheusSeries series) {
+        final long start = stages.start();
+        final EncodedEvents encoded = new EncodedEvents(encoder.encode(series, execution.alloc()), series.size());
+        stages.record(StageMetrics.Stage.ENCODE, start);
+        return encoded;
+    }
+
+    /**
+     * @return the multi-metric events of the group, or {@code null} if it has no finite sample
+     */
+    private EncodedEvents encodeGroup(MetricGroup group) {
+        final long start = stages.start();
+        final ByteBuf encoded = encoder.encode(group, execution.alloc());
+        // Counted while encoding
+        final int count = group.countEvents();
+        if (count == 0) {
+            encoded.release();
+            return null;
+        }
+        stages.record(StageMetrics.Stage.ENCODE, start);
+        return new EncodedEvents(encoded, count);
+    }
+
+    /**
+     * Writes the encoded events, in batches if enabled. A failed write does not cancel the events still being encoded, since
+     * {@code bufferTimeout} may lose an event added while cancelling. Once a write fails, the remaining batches are released without being
+     * written, and the failure is signalled when the events complete.
+     * @param concurrency maximum number of writes in progress at the same time. Events are written in order when {@code 1}
+     */
+    private Mono<Void> write(Flux<EncodedEvents> events, SinkConnections connections, int concurrency) {
+        if (this.properties.getOutput().isCoalesce()) {
+            return stream(events, connections);
+        }
+        final TcpSinkConfigurationProperties.Batch batch = this.properties.getBatch();
+        final Flux<List<EncodedEvents>> batches = batch.isEnabled()
+                ? events.bufferTimeout(batch.getMaxEvents(), batch.getMaxLinger())
+                        // the linger timer emits regardless of the demand, so the batches of a request wait here instead of overflowing
+                        .onBackpressureBuffer()
+                        .concatMapIterable(buffered -> EncodedEvents.split(buffered, batch.getMaxEvents(), batch.getMaxBytes().toBytes()))
+                : events.map(Collections::singletonList);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        return batches.flatMap(b -> {
+                    final Throwable failed = failure.get();
+                    if (failed != null) {
+                        skipBatch(b, failed);
+                        return Mono.empty();
+                    }
+                    return writeBatch(b, connections).onErrorResume(ex -> {
+                        failure.compareAndSet(null, ex);
+                        return Mono.empty();
+                    });
+                }, concurrency)
+                .doOnDiscard(Object.class, EncodedEvents::discard)
+                .then(Mono.defer(() -> failure.get() != null ? Mono.error(failure.get()) : Mono.empty()));
+    }
+
+    /**
+     * Releases a batch not written because an earlier write of the same events failed, counting its events as failed
+     */
+    private void skipBatch(List<EncodedEvents> batch, Throwable failure) {
+        final int bytes = batch.stream().mapToInt(EncodedEvents::getBytes).sum();
+        final int events = batch.stream().mapToInt(EncodedEvents::getCount).sum();
+        batch.forEach(EncodedEvents::release);
+        metrics.record(bytes, events, failure);
+    }
+
+    /**
+     * Streams the events over a single connection. Reactor Netty writes them as they are encoded and flushes once no more are immediately
+     * available, so the events end up coalesced in large writes. The water marks of the connection hold the encoding back when the sink
+     * does not keep up.
+     */
+    private Mono<Void> stream(Flux<EncodedEvents> events, SinkConnections connections) {
+        final AtomicInteger bytes = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        return connections.write(connection -> timeWrite(connection.outbound().send(events.map(encoded -> {
+                    bytes.addAndGet(encoded.getBytes());
+                    count.addAndGet(encoded.getCount());
+                    return encoded.getContent();
+                })).then()))
+                .doOnSuccess((r) -> {
+                    stages.recordBatch(count.get(), bytes.get());
+                    metrics.record(bytes.get(), count.get(), null);
+                })
+                .doOnError((ex) -> metrics.record(bytes.get(), count.get(), ex));
+    }
+
+    private Mono<Void> writeBatch(List<EncodedEvents> batch, SinkConnections connections) {
+        final int bytes = batch.stream().mapToInt(EncodedEvents::getBytes).sum();
+        final int events = batch.stream().mapToInt(EncodedEvents::getCount).sum();
+        final AtomicBoolean written = new AtomicBoolean(false);
+        return connections.write(connection -> {
+                    written.set(true);
+                    stages.recordBatch(events, bytes);
                     final NettyOutbound outbound = connection.outbound();
-                    final Flux<DataBuffer> buffer = encodeSample(sample, outbound.alloc()).doOnNext(buf -> bytes.addAndGet(buf.readableByteCount()));
-                    return outbound.send(buffer.doOnDiscard(PooledDataBuffer.class, PooledDataBuffer::release)
-                                    .map(NettyDataBufferFactory::toByteBuf))
-                            .then();
-                }).then()
-                .doOnSuccess((r) -> recordMetrics(bytes.get(), 1, sample, null))
-                .doOnError((ex) -> recordMetrics(bytes.get(), 1, sample, ex));
+                    if (batch.size() == 1) {
+                        return timeWrite(outbound.send(Mono.just(batch.get(0).getContent())).then());
+                    }
+                    final CompositeByteBuf chain = outbound.alloc().compositeBuffer(batch.size());
+                    for (EncodedEvents encoded : batch) {
+                        chain.addComponent(true, encoded.getContent());
+                    }
+                    return timeWrite(outbound.send(Mono.just(chain)).then());
+                })
+                .doOnSuccess((r) -> metrics.record(bytes, events, null))
+                .doOnError((ex) -> metrics.record(bytes, events, ex))
+                .doFinally(signal -> {
+                    if (!written.get()) {
+                        batch.forEach(EncodedEvents::release);
+                    }
+                });
     }
 
-    private Flux<DataBuffer> encodeSample(PrometheusSample sample, ByteBufAllocator alloc) {
-        final NettyDataBufferFactory factory = new NettyDataBufferFactory(alloc);
-        return encoder.encode(Mono.just(sample), factory, ResolvableType.forInstance(sample), MediaType.APPLICATION_JSON, null)
-                .concatWith(encodeText("\r\n", StandardCharsets.UTF_8, factory));
+    /**
+     * Records the time taken to write and flush the events, once the connection is acquired
+     */
+    private Mono<Void> timeWrite(Mono<Void> write) {
+        if (!stages.isEnabled()) {
+            return write;
+        }
+        return Mono.defer(() -> {
+            final long start = stages.start();
+            return write.doOnSuccess(r -> stages.record(StageMetrics.Stage.WRITE, start));
+        });
     }
 
-    private void recordMetrics(int bytes, int events, PrometheusSample sample, Throwable error) {
-        final Iterable<Tag> tags = tags(sample, error);
-        Counter.builder("sink.bytes").baseUnit("bytes").description("Bytes sent to the sink")
-                .tags(tags).register(this.registry)
-                .increment(bytes);
-        Counter.builder("sink.events").description("Events sent to the sink")
-                .tags(tags).register(this.registry)
-                .increment(events);
+    private SinkConnections connections(LabelSet labels) {
+        return this.shards.length > 0 ? this.shards[shard(labels)] : this.pool;
     }
 
-    private Iterable<Tag> tags(PrometheusSample sample, Throwable error) {
-        return Arrays.asList(JSON_ENCODING_TAG, error != null ? Tag.of("exception", error.getClass().getName()) : NONE_EXCEPTION_TAG);
+    private int shard(LabelSet labels) {
+        final int hash = labels.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), this.shards.length);
     }
 
-    private Mono<DataBuffer> encodeText(CharSequence text, Charset charset, DataBufferFactory bufferFactory) {
-        byte[] bytes = text.toString().getBytes(charset);
-        return Mono.just(bufferFactory.wrap(bytes)); // wrapping, not allocating
+    /**
+     * Closes the connections of the shards and the pools, and stops the health checks of the targets
+     */
+    @Override
+    public void close() {
+        for (SinkConnections shard : this.shards) {
+            shard.dispose();
+        }
+        this.pool.dispose();
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink;
+
+import io.micrometer.core.instrument.Counter;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+
+/**
+ * Counts the flushes reaching the socket of a connection, each of them being a write system call at least. Placed first in the pipeline, so
+ * that only the flushes left after any consolidation or encryption are counted
+ */
+@ChannelHandler.Sharable
+final class FlushCountingHandler extends ChannelOutboundHandlerAdapter {
+
+    static final String NAME = "prom2splunk.flushCounter";
+
+    private final Counter flushes;
+
+    FlushCountingHandler(Counter flushes) {
+        this.flushes = flushes;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        flushes.increment();
+        ctx.flush();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink;
+
+import io.github.pmh92.prom2splunk.properties.TcpSinkConfigurationProperties;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Spreads the writes across several targets. The targets failing repeatedly are ejected until a health check succeeds, and then receive a
+ * growing share of the writes during the slow start. A write that fails before reaching a connection is retried on another target.
+ */
+class LoadBalancedSinkConnections implements SinkConnections {
+
+    private final List<SinkTarget> targets;
+    private final TargetSelector selector;
+    private final TcpSinkConfigurationProperties.Balancer properties;
+    private final Disposable healthChecks;
+
+    LoadBalancedSinkConnections(List<SinkTarget> targets, TcpSinkConfigurationProperties.Balancer properties) {
+        this.targets = Collections.unmodifiableList(new ArrayList<>(targets));
+        this.selector = TargetSelector.of(properties.getStrategy());
+        this.properties = properties;
+        this.healthChecks = Flux.interval(properties.getHealthCheckInterval())
+                .concatMap(tick -> Flux.fromIterable(this.targets)
+                        .flatMap(target -> target.check(properties.getHealthCheckTimeout(), properties.getEjectionTime()))
+                        .then())
+                .subscribe();
+    }
+
+    @Override
+    public Mono<Void> write(Function<Connection, Mono<Void>> writer) {
+        return write(writer, new ArrayList<>(1));
+    }
+
+    private Mono<Void> write(Function<Connection, Mono<Void>> writer, List<SinkTarget> tried) {
+        return Mono.defer(() -> {
+            final SinkTarget target = select(tried);
+            final AtomicBoolean started = new AtomicBoolean(false);
+            return target.write(connection -> {
+                started.set(true);
+                return writer.apply(connection);
+            }).onErrorResume(ex -> {
+                target.failed(properties.getMaxFailures(), properties.getEjectionTime());
+                tried.add(target);
+                // Nothing was written, so the write can be safely retried on another target
+                if (started.get() || tried.size() >= targets.size()) {
+                    return Mono.error(ex);
+                }
+                return write(writer, tried);
+            });
+        });
+    }
+
+    /**
+     * Connects to one of the targets, trying the others if the connection fails
+     */
+    Mono<Connection> connect() {
+        return Mono.defer(() -> connect(new ArrayList<>(1)));
+    }
+
+    private Mono<Connection> connect(List<SinkTarget> tried) {
+        final SinkTarget target = select(tried);
+        return target.getClient().connect().<Connection>map(Function.identity()).onErrorResume(ex -> {
+            target.failed(properties.getMaxFailures(), properties.getEjectionTime());
+            tried.add(target);
+            if (tried.size() >= targets.size()) {
+                return Mono.error(ex);
+            }
+            return connect(tried);
+        });
+    }
+
+    /**
+     * Picks the target among the available ones that were not tried yet. When every target is ejected, any of them is used rather than
+     * failing the write.
+     */
+    private SinkTarget select(List<SinkTarget> tried) {
+        final long now = System.nanoTime();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<SinkTarget> available = new ArrayList<>(targets.size());
+        final List<SinkTarget> fallback = new ArrayList<>(targets.size());
+        for (SinkTarget target : targets) {
+            if (tried.contains(target)) {
+                continue;
+            }
+            fallback.add(target);
+            final double weight = target.weight(now, properties.getSlowStart());
+            if (weight >= 1 || (weight > 0 && random.nextDouble() < weight)) {
+                available.add(target);
+            }
+        }
+        return selector.select(available.isEmpty() ? fallback : available);
+    }
+
+    /**
+     * Stops the health checks and closes the connections of every target
+     */
+    @Override
+    public void dispose() {
+        healthChecks.dispose();
+        targets.forEach(SinkTarget::dispose);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return healthChecks.isDisposed();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink;
+
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.tcp.TcpClient;
+import reactor.pool.InstrumentedPool;
+import reactor.pool.PoolBuilder;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Leases any free connection of a pool for every write
+ */
+class PooledSinkConnections implements SinkConnections {
+
+    private final InstrumentedPool<? extends Connection> pool;
+    private final StageMetrics stages;
+
+    /**
+     * @param sink the name of the sink the pool belongs to
+     * @param name the name of the pool on the metrics
+     */
+    PooledSinkConnections(String sink, String name, TcpClient client, int maxConnections, Duration idleTimeout, StageMetrics stages) {
+        // Connections closed by the sink are evicted as well as idle ones, so that they are replaced by new connections
+        this.pool = PoolBuilder.from(client.connect())
+                .sizeBetween(1, maxConnections)
+                .evictionPredicate((connection, metadata) -> connection.isDisposed() || metadata.idleTime() >= idleTimeout.toMillis())
+                .evictInBackground(idleTimeout)
+                .destroyHandler(connection -> Mono.fromRunnable(connection::dispose))
+                .buildPool();
+        this.stages = stages;
+        stages.monitor(sink, name, this.pool);
+    }
+
+    @Override
+    public Mono<Void> write(Function<Connection, Mono<Void>> writer) {
+        if (!this.stages.isEnabled()) {
+            return this.pool.withPoolable(writer::apply).then();
+        }
+        return Mono.defer(() -> {
+            final long start = this.stages.start();
+            return this.pool.withPoolable(connection -> {
+                this.stages.record(StageMetrics.Stage.ACQUIRE, start);
+                return writer.apply(connection);
+            }).then();
+        });
+    }
+
+    @Override
+    public void dispose() {
+        this.pool.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return this.pool.isDisposed();
+    }
+}
@@ -11,6 +11,8 @@
 package io.github.pmh92.prom2splunk.sink;
 
 import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -20,13 +22,82 @@ import reactor.core.publisher.Mono;
 public interface SinkFilter {
     Mono<Void> filter(PrometheusSample sample, SplunkSink next);
 
+    /**
+     * Filters a batch of samples. By default, every sample goes through {@link #filter(PrometheusSample, SplunkSink)} and the resulting
+     * samples are handed to the next sink as a batch, so it can still write them at once
+     * @param samples the samples to filter
+     * @param next the next sink in the chain
+     * @return a {@code Mono} than completes when the samples have been handled
+     */
+    default Mono<Void> filterBatch(Flux<PrometheusSample> samples, SplunkSink next) {
+        return next.handleBatch(samples.concatMap(sample -> Flux.<PrometheusSample>create(emitter -> filter(sample, filtered -> {
+            emitter.next(filtered);
+            return Mono.empty();
+        }).subscribe(null, emitter::error, emitter::complete))));
+    }
+
+    /**
+     * Filters a stream of series. By default, every sample of the series goes through {@link #filterBatch(Flux, SplunkSink)}. Filters in
+     * the high-volume path shall override this to avoid creating an object per sample
+     * @param series the series to filter
+     * @param next the next sink in the chain
+     * @return a {@code Mono} than completes when the series have been handled
+     */
+    default Mono<Void> filterSeries(Flux<PrometheusSeries> series, SplunkSink next) {
+        return filterBatch(series.flatMapIterable(PrometheusSeries::getSamples), next);
+    }
+
+    /**
+     * Filters the chunks of a large request. By default, every chunk goes through {@link #filterSeries(Flux, SplunkSink)} and the series
+     * it lets through are handed to the next sink as a chunk of their own, so the next sink can still handle the chunks in parallel
+     * @param chunks the series of every chunk, decoded when subscribed to
+     * @param next the next sink in the chain
+     * @return a {@code Mono} than completes when the chunks have been handled
+     */
+    default Mono<Void> filterChunks(Flux<Flux<PrometheusSeries>> chunks, SplunkSink next) {
+        return next.handleChunks(chunks.map(chunk -> Flux.<PrometheusSeries>create(emitter -> filterSeries(chunk, new SplunkSink() {
+            @Override
+            public Mono<Void> handle(PrometheusSample sample) {
+                emitter.next(new PrometheusSeries(sample.getLabelSet(), new long[]{sample.getTimestamp()},
+                        new double[]{sample.getValue()}, 1));
+                return Mono.empty();
+            }
+
+            @Override
+            public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+                return series.doOnNext(emitter::next).then();
+            }
+        }).subscribe(null, emitter::error, emitter::complete))));
+    }
+
     /**
      * Compose two filters
      * @param other the next filter in the chain
      * @return a composition of the current and the mext filter
      */
     default SinkFilter andThen(SinkFilter other) {
-        return (sample, next) -> this.filter(sample, afterSample -> other.filter(afterSample, next));
+        final SinkFilter first = this;
+        return new SinkFilter() {
+            @Override
+            public Mono<Void> filter(PrometheusSample sample, SplunkSink next) {
+                return first.filter(sample, other.apply(next));
+            }
+
+            @Override
+            public Mono<Void> filterBatch(Flux<PrometheusSample> samples, SplunkSink next) {
+                return first.filterBatch(samples, other.apply(next));
+            }
+
+            @Override
+            public Mono<Void> filterSeries(Flux<PrometheusSeries> series, SplunkSink next) {
+                return first.filterSeries(series, other.apply(next));
+            }
+
+            @Override
+            public Mono<Void> filterChunks(Flux<Flux<PrometheusSeries>> chunks, SplunkSink next) {
+                return first.filterChunks(chunks, other.apply(next));
+            }
+        };
     }
 
     /**
@@ -35,6 +106,27 @@ public interface SinkFilter {
      * @return the filtered sink
      */
     default SplunkSink apply(SplunkSink sink) {
-        return sample -> this.filter(sample, sink);
+        final SinkFilter filter = this;
+        return new SplunkSink() {
+            @Override
+            public Mono<Void> handle(PrometheusSample sample) {
+                return filter.filter(sample, sink);
+            }
+
+            @Override
+            public Mono<Void> handleBatch(Flux<PrometheusSample> samples) {
+                return filter.filterBatch(samples, sink);
+            }
+
+            @Override
+            public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+                return filter.filterSeries(series, sink);
+            }
+
+            @Override
+            public Mono<Void> handleChunks(Flux<Flux<PrometheusSeries>> chunks) {
+                return filter.filterChunks(chunks, sink);
+            }
+        };
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@code sink.bytes} and {@code sink.events} counters of a sink. The counters are registered once, per exception for the failures
+ */
+public final class SinkMetrics {
+
+    /**
+     * The name of the sink the series not routed elsewhere are written to
+     */
+    public static final String DEFAULT_SINK = "default";
+
+    private static final String NONE_EXCEPTION = "None";
+
+    private final MeterRegistry registry;
+    private final String sink;
+    private final String encoding;
+    private final Counter bytes;
+    private final Counter events;
+    private final ConcurrentMap<Class<?>, Counter[]> failures = new ConcurrentHashMap<>();
+
+    /**
+     * @param sink the name of the sink, told apart by the {@code sink} tag
+     */
+    public SinkMetrics(MeterRegistry registry, String sink, String encoding) {
+        this.registry = registry;
+        this.sink = sink;
+        this.encoding = encoding;
+        this.bytes = bytes(NONE_EXCEPTION);
+        this.events = events(NONE_EXCEPTION);
+    }
+
+    public void record(int bytes, int events, Throwable error) {
+        if (error == null) {
+            this.bytes.increment(bytes);
+            this.events.increment(events);
+            return;
+        }
+        final Counter[] counters = failures.computeIfAbsent(error.getClass(),
+                type -> new Counter[]{bytes(type.getName()), events(type.getName())});
+        counters[0].increment(bytes);
+        counters[1].increment(events);
+    }
+
+    private Counter bytes(String exception) {
+        return Counter.builder("sink.bytes").baseUnit("bytes").description("Bytes sent to the sink")
+                .tag("sink", sink).tag("encoding", encoding).tag("exception", exception).register(registry);
+    }
+
+    private Counter events(String exception) {
+        return Counter.builder("sink.events").description("Events sent to the sink")
+                .tag("sink", sink).tag("encoding", encoding).tag("exception", exception).register(registry);
+    }
+}
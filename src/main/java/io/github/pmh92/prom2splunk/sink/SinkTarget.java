@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.tcp.TcpClient;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * One of the Splunk sinks the events are spread across. Keeps its own pool of connections and tracks the state used to pick it and to eject it
+ * when it fails.
+ */
+class SinkTarget implements SinkConnections {
+
+    /**
+     * Weight of the last write in the moving average of the latency
+     */
+    private static final double LATENCY_DECAY = 0.2;
+
+    private final String name;
+    private final TcpClient client;
+    private final TcpClient probe;
+    private final SinkConnections connections;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Timer successes;
+    private final Timer errors;
+
+    /**
+     * The moving average of the latency, in nanoseconds, stored as the bits of a double so it is updated without losing concurrent writes
+     */
+    private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
+    private volatile boolean ejected;
+    private volatile long ejectedUntil;
+    private volatile long admittedAt;
+
+    /**
+     * @param sink the name of the sink the target belongs to
+     * @param probe the client used by the health checks, which does not log every connection
+     */
+    SinkTarget(String sink, String name, TcpClient client, TcpClient probe, SinkConnections connections, MeterRegistry registry) {
+        this.name = name;
+        this.client = client;
+        this.probe = probe;
+        this.connections = connections;
+        this.admittedAt = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+        this.successes = Timer.builder("sink.target.writes").description("Writes to the target")
+                .tag("sink", sink).tag("target", name).tag("outcome", "success").register(registry);
+        this.errors = Timer.builder("sink.target.writes").description("Writes to the target")
+                .tag("sink", sink).tag("target", name).tag("outcome", "error").register(registry);
+        Gauge.builder("sink.target.outstanding", outstanding, AtomicInteger::get)
+                .description("Writes in progress to the target").tag("sink", sink).tag("target", name).register(registry);
+        Gauge.builder("sink.target.available", this, t -> t.ejected ? 0 : 1)
+                .description("Whether the target receives writes").tag("sink", sink).tag("target", name).register(registry);
+    }
+
+    @Override
+    public Mono<Void> write(Function<Connection, Mono<Void>> writer) {
+        return Mono.defer(() -> {
+            outstanding.incrementAndGet();
+            final long start = System.nanoTime();
+            return connections.write(writer)
+                    .doOnSuccess(r -> {
+                        final long elapsed = System.nanoTime() - start;
+                        successes.record(elapsed, TimeUnit.NANOSECONDS);
+                        updateLatency(elapsed);
+                        failures.set(0);
+                    })
+                    .doOnError(ex -> errors.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doFinally(signal -> outstanding.decrementAndGet());
+        });
+    }
+
+    private void updateLatency(long elapsed) {
+        long current;
+        double average;
+        do {
+            current = latency.get();
+            average = Double.longBitsToDouble(current);
+        } while (!latency.compareAndSet(current, Double.doubleToLongBits(average + (elapsed - average) * LATENCY_DECAY)));
+    }
+
+    /**
+     * Counts a failed write, ejecting the target after too many consecutive failures
+     */
+    void failed(int maxFailures, Duration ejectionTime) {
+        if (failures.incrementAndGet() >= maxFailures && !ejected) {
+            eject(ejectionTime);
+        }
+    }
+
+    /**
+     * Opens and closes a connection to the target. An ejected target is re-admitted when the connection succeeds, a healthy one is ejected when
+     * it fails.
+     */
+    Mono<Void> check(Duration timeout, Duration ejectionTime) {
+        if (ejected && System.nanoTime() - ejectedUntil < 0) {
+            return Mono.empty();
+        }
+        return probe.connect()
+                .timeout(timeout)
+                .doOnNext(Connection::dispose)
+                .doOnSuccess(c -> {
+                    if (ejected) {
+                        failures.set(0);
+                        admittedAt = System.nanoTime();
+                        ejected = false;
+                    }
+                })
+                .doOnError(ex -> eject(ejectionTime))
+                .onErrorResume(ex -> Mono.empty())
+                .then();
+    }
+
+    private void eject(Duration ejectionTime) {
+        ejectedUntil = System.nanoTime() + ejectionTime.toNanos();
+        ejected = true;
+    }
+
+    /**
+     * The share of its traffic the target receives, growing from 0 to 1 during the slow start that follows its re-admission
+     */
+    double weight(long now, Duration slowStart) {
+        if (ejected) {
+            return 0;
+        }
+        final long elapsed = now - admittedAt;
+        return elapsed >= slowStart.toNanos() ? 1 : Math.max(0.01, (double) elapsed / slowStart.toNanos());
+    }
+
+    /**
+     * The expected cost of a write, given the writes in progress and the latency measured
+     */
+    double score() {
+        return (outstanding.get() + 1) * (Double.longBitsToDouble(latency.get()) + 1);
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    TcpClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void dispose() {
+        connections.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return connections.isDisposed();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -11,6 +11,8 @@
 package io.github.pmh92.prom2splunk.sink;
 
 import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -25,4 +27,34 @@ public interface SplunkSink {
      * @return a {@code Mono} than completes when the message has been acknowledged.
      */
     Mono<Void> handle(PrometheusSample sample);
+
+    /**
+     * Sends a stream of MetricSamples to Splunk. By default, every sample is handled on its own, implementations may override this to write
+     * several samples at once
+     * @param samples the metric samples to send
+     * @return a {@code Mono} than completes when all the messages have been acknowledged.
+     */
+    default Mono<Void> handleBatch(Flux<PrometheusSample> samples) {
+        return samples.flatMap(this::handle).then();
+    }
+
+    /**
+     * Sends a stream of series to Splunk. By default, every series is split in individual samples, implementations handling the high-volume
+     * path shall override this to avoid creating an object per sample
+     * @param series the series to send
+     * @return a {@code Mono} than completes when all the messages have been acknowledged.
+     */
+    default Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+        return handleBatch(series.flatMapIterable(PrometheusSeries::getSamples));
+    }
+
+    /**
+     * Sends the chunks of a large request to Splunk. By default, the chunks are handled one after the other as a single stream of series,
+     * implementations may override this to decode and encode the chunks in parallel
+     * @param chunks the series of every chunk, decoded when subscribed to
+     * @return a {@code Mono} than completes when all the messages have been acknowledged.
+     */
+    default Mono<Void> handleChunks(Flux<Flux<PrometheusSeries>> chunks) {
+        return handleSeries(Flux.concat(chunks));
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink;
+
+import io.github.pmh92.prom2splunk.properties.TcpSinkConfigurationProperties;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the target of a write
+ */
+interface TargetSelector {
+
+    /**
+     * @param candidates the available targets, never empty
+     * @return the target of the next write
+     */
+    SinkTarget select(List<SinkTarget> candidates);
+
+    static TargetSelector of(TcpSinkConfigurationProperties.Strategy strategy) {
+        switch (strategy) {
+            case LEAST_OUTSTANDING:
+                return candidates -> {
+                    SinkTarget best = candidates.get(0);
+                    for (int i = 1; i < candidates.size(); i++) {
+                        if (candidates.get(i).getOutstanding() < best.getOutstanding()) {
+                            best = candidates.get(i);
+                        }
+                    }
+                    return best;
+                };
+            case POWER_OF_TWO_CHOICES:
+                return candidates -> {
+                    if (candidates.size() == 1) {
+                        return candidates.get(0);
+                    }
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    final int first = random.nextInt(candidates.size());
+                    final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+                    final SinkTarget a = candidates.get(first);
+                    final SinkTarget b = candidates.get(second);
+                    return a.score() <= b.score() ? a : b;
+                };
+            case ROUND_ROBIN:
+            default:
+                final AtomicInteger next = new AtomicInteger();
+                return candidates -> candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.encoder;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.MetricGroup;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes the JSON event straight into the target buffer. The output matches the one produced by {@link JacksonSampleEncoder}, but avoids
+ * the codec lookups, the reflective serialization and the intermediate buffers. Label names are escaped once and cached.
+ */
+public class DirectJsonSampleEncoder implements SampleEncoder {
+
+    static final String ENCODING = "direct-json";
+
+    private static final int MAX_CACHED_NAMES = 4096;
+    private static final int ESTIMATED_EVENT_SIZE = 256;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L};
+    private static final double MAX_PLAIN_VALUE = 1e7;
+    private static final double MIN_PLAIN_VALUE = 1e-3;
+    private static final double MAX_EXACT_VALUE = 1L << 53;
+
+    private static final byte[] TIMESTAMP_FIELD = ascii("{\"timestamp\":");
+    private static final byte[] LABELS_FIELD = ascii(",\"labels\":{");
+    private static final byte[] VALUE_FIELD = ascii("},\"value\":");
+    private static final byte[] LABELS_END = ascii("}");
+    private static final byte[] EVENT_END = ascii("}\r\n");
+    private static final byte[] NAN = ascii("\"NaN\"");
+    private static final byte[] POSITIVE_INFINITY = ascii("\"Infinity\"");
+    private static final byte[] NEGATIVE_INFINITY = ascii("\"-Infinity\"");
+    private static final byte[] NEGATIVE_ZERO = ascii("-0.0");
+    private static final byte[] MIN_LONG = ascii(Long.toString(Long.MIN_VALUE));
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+    static final String METRIC_NAME_PREFIX = "metric_name:";
+
+    private final ConcurrentMap<String, byte[]> names = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, byte[]> metricNames = new ConcurrentHashMap<>();
+
+    @Override
+    public ByteBuf encode(PrometheusSample sample, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE);
+        try {
+            writeEvent(sample.getTimestamp(), sample.getLabelSet(), sample.getValue(), buffer);
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public ByteBuf encode(PrometheusSeries series, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE * Math.max(series.size(), 1));
+        try {
+            // The labels are only written once, the following events copy them from the first one
+            int labelsIndex = -1;
+            int labelsLength = 0;
+            for (int i = 0; i < series.size(); i++) {
+                buffer.writeBytes(TIMESTAMP_FIELD);
+                writeLong(series.getTimestamp(i), buffer);
+                buffer.writeBytes(LABELS_FIELD);
+                if (labelsIndex < 0) {
+                    labelsIndex = buffer.writerIndex();
+                    writeLabels(series.getLabelSet(), buffer);
+                    labelsLength = buffer.writerIndex() - labelsIndex;
+                } else {
+                    buffer.writeBytes(buffer, labelsIndex, labelsLength);
+                }
+                buffer.writeBytes(VALUE_FIELD);
+                writeDouble(series.getValue(i), buffer);
+                buffer.writeBytes(EVENT_END);
+            }
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes a multi-metric event per timestamp, with the dimensions as labels and a {@code metric_name:<name>} member per measurement
+     */
+    @Override
+    public ByteBuf encode(MetricGroup group, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE * Math.max(group.getSeries().size(), 1));
+        try {
+            int labelsIndex = -1;
+            int labelsLength = 0;
+            final MetricGroup.Cursor cursor = group.cursor();
+            while (cursor.next()) {
+                buffer.writeBytes(TIMESTAMP_FIELD);
+                writeLong(cursor.getTimestamp(), buffer);
+                buffer.writeBytes(LABELS_FIELD);
+                if (labelsIndex < 0) {
+                    labelsIndex = buffer.writerIndex();
+                    writeLabels(group.getDimensions(), buffer);
+                    labelsLength = buffer.writerIndex() - labelsIndex;
+                } else {
+                    buffer.writeBytes(buffer, labelsIndex, labelsLength);
+                }
+                buffer.writeBytes(LABELS_END);
+                for (int i = 0; i < cursor.size(); i++) {
+                    buffer.writeByte(',').writeBytes(metricName(cursor.getName(i)));
+                    writeDouble(cursor.getValue(i), buffer);
+                }
+                buffer.writeBytes(EVENT_END);
+            }
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    private void writeEvent(long timestamp, LabelSet labels, double value, ByteBuf buffer) {
+        buffer.writeBytes(TIMESTAMP_FIELD);
+        writeLong(timestamp, buffer);
+        buffer.writeBytes(LABELS_FIELD);
+        writeLabels(labels, buffer);
+        buffer.writeBytes(VALUE_FIELD);
+        writeDouble(value, buffer);
+        buffer.writeBytes(EVENT_END);
+    }
+
+    @Override
+    public String getEncoding() {
+        return ENCODING;
+    }
+
+    /**
+     * Writes the members of the labels JSON object. The members of interned label sets are only encoded once and reused afterwards
+     */
+    void writeLabels(LabelSet labels, ByteBuf buffer) {
+        final byte[] encoded = labels.getEncoded();
+        if (encoded != null) {
+            buffer.writeBytes(encoded);
+        } else if (labels.isInterned()) {
+            final int start = buffer.writerIndex();
+            writeLabels(labels.getLabels(), buffer);
+            labels.setEncoded(ByteBufUtil.getBytes(buffer, start, buffer.writerIndex() - start));
+        } else {
+            writeLabels(labels.getLabels(), buffer);
+        }
+    }
+
+    /**
+     * Writes the members of the labels JSON object, without the enclosing braces
+     */
+    void writeLabels(Map<String, String> labels, ByteBuf buffer) {
+        boolean first = true;
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (!first) {
+                buffer.writeByte(',');
+            }
+            first = false;
+            buffer.writeBytes(name(label.getKey()));
+            writeString(label.getValue(), buffer);
+        }
+    }
+
+    /**
+     * @return the escaped and quoted label name followed by the name separator
+     */
+    byte[] name(String name) {
+        return cached(names, name, "");
+    }
+
+    /**
+     * @return the escaped and quoted {@code metric_name:<name>} field name followed by the name separator
+     */
+    byte[] metricName(String name) {
+        return cached(metricNames, name, METRIC_NAME_PREFIX);
+    }
+
+    private static byte[] cached(ConcurrentMap<String, byte[]> cache, String name, String prefix) {
+        byte[] bytes = cache.get(name);
+        if (bytes == null) {
+            final ByteBuf buffer = ByteBufAllocator.DEFAULT.heapBuffer(prefix.length() + name.length() + 3);
+            try {
+                writeString(prefix + name, buffer);
+                buffer.writeByte(':');
+                bytes = ByteBufUtil.getBytes(buffer);
+            } finally {
+                buffer.release();
+            }
+            if (cache.size() < MAX_CACHED_NAMES) {
+                cache.putIfAbsent(name, bytes);
+            }
+        }
+        return bytes;
+    }
+
+    static void writeString(String value, ByteBuf buffer) {
+        buffer.writeByte('"');
+        final int length = value.length();
+        int i = 0;
+        while (i < length) {
+            final char c = value.charAt(i);
+            if (Character.isSurrogate(c)) {
+                // Escaped as Jackson does with the characters outside of the BMP
+                buffer.writeByte('\\');
+                writeUnicode(c, buffer);
+                i++;
+                continue;
+            }
+            if (c >= 0x80) {
+                int end = i + 1;
+                while (end < length && value.charAt(end) >= 0x80 && !Character.isSurrogate(value.charAt(end))) {
+                    end++;
+                }
+                ByteBufUtil.writeUtf8(buffer, value, i, end);
+                i = end;
+                continue;
+            }
+            if (c == '"' || c == '\\') {
+                buffer.writeByte('\\').writeByte(c);
+            } else if (c >= 0x20) {
+                buffer.writeByte(c);
+            } else {
+                writeControl(c, buffer);
+            }
+            i++;
+        }
+        buffer.writeByte('"');
+    }
+
+    private static void writeControl(char c, ByteBuf buffer) {
+        buffer.writeByte('\\');
+        switch (c) {
+            case '\b':
+                buffer.writeByte('b');
+                break;
+            case '\t':
+                buffer.writeByte('t');
+                break;
+            case '\n':
+                buffer.writeByte('n');
+                break;
+            case '\f':
+                buffer.writeByte('f');
+                break;
+            case '\r':
+                buffer.writeByte('r');
+                break;
+            default:
+                writeUnicode(c, buffer);
+        }
+    }
+
+    /**
+     * Writes the {@code uXXXX} escape of a character, the backslash excluded
+     */
+    private static void writeUnicode(char c, ByteBuf buffer) {
+        buffer.writeByte('u').writeByte(HEX[c >> 12]).writeByte(HEX[(c >> 8) & 0xF]).writeByte(HEX[(c >> 4) & 0xF]).writeByte(HEX[c & 0xF]);
+    }
+
+    static void writeLong(long value, ByteBuf buffer) {
+        if (value == Long.MIN_VALUE) {
+            buffer.writeBytes(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            buffer.writeByte('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        buffer.ensureWritable(digits);
+        final int start = buffer.writerIndex();
+        for (int i = start + digits - 1; i >= start; i--) {
+            buffer.setByte(i, (int) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.writerIndex(start + digits);
+    }
+
+    /**
+     * Writes the same representation as {@link Double#toString(double)} does. Values with at most three decimal digits within the plain
+     * notation range are written without allocating, the rest fall back to {@link Double#toString(double)}
+     */
+    static void writeDouble(double value, ByteBuf buffer) {
+        if (Double.isNaN(value)) {
+            buffer.writeBytes(NAN);
+        } else if (Double.isInfinite(value)) {
+            buffer.writeBytes(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+        } else if (value == 0) {
+            if (Double.doubleToRawLongBits(value) != 0) {
+                buffer.writeBytes(NEGATIVE_ZERO);
+            } else {
+                buffer.writeByte('0').writeByte('.').writeByte('0');
+            }
+        } else if (!writePlainDouble(value, buffer)) {
+            ByteBufUtil.writeAscii(buffer, Double.toString(value));
+        }
+    }
+
+    private static boolean writePlainDouble(double value, ByteBuf buffer) {
+        final double abs = Math.abs(value);
+        if (abs >= MAX_PLAIN_VALUE || abs < MIN_PLAIN_VALUE) {
+            return false;
+        }
+        for (int decimals = 0; decimals < POWERS_OF_TEN.length; decimals++) {
+            final double scaled = abs * POWERS_OF_TEN[decimals];
+            if (scaled >= MAX_EXACT_VALUE) {
+                return false;
+            }
+            final long unscaled = (long) Math.rint(scaled);
+            if (unscaled / (double) POWERS_OF_TEN[decimals] == abs) {
+                if (value < 0) {
+                    buffer.writeByte('-');
+                }
+                writeLong(unscaled / POWERS_OF_TEN[decimals], buffer);
+                buffer.writeByte('.');
+                if (decimals == 0) {
+                    buffer.writeByte('0');
+                } else {
+                    final long fraction = unscaled % POWERS_OF_TEN[decimals];
+                    for (long power = POWERS_OF_TEN[decimals] / 10; power > 0; power /= 10) {
+                        buffer.writeByte((int) ('0' + (fraction / power) % 10));
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.encoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A buffer holding one or more encoded events, ready to be written to the sink. The buffer comes from the sink's allocator and is released
+ * by the channel once written, or through {@link #release()} when the events are discarded before reaching a channel
+ */
+public final class EncodedEvents {
+    private final ByteBuf content;
+    private final int count;
+
+    public EncodedEvents(ByteBuf content, int count) {
+        this.content = content;
+        this.count = count;
+    }
+
+    /**
+     * @return the encoded events. The buffer is owned by whoever holds this instance
+     */
+    public ByteBuf getContent() {
+        return content;
+    }
+
+    /**
+     * @return the number of events in the buffer
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getBytes() {
+        return content.readableBytes();
+    }
+
+    public void release() {
+        ReferenceCountUtil.safeRelease(content);
+    }
+
+    /**
+     * Releases the events discarded by a pipeline, either on their own or still grouped in a batch that never reached a connection
+     */
+    public static void discard(Object discarded) {
+        if (discarded instanceof EncodedEvents) {
+            ((EncodedEvents) discarded).release();
+        } else if (discarded instanceof List) {
+            for (Object element : (List<?>) discarded) {
+                discard(element);
+            }
+        }
+    }
+
+    /**
+     * Splits the buffered events so that no batch exceeds the maximum number of events nor the maximum size, unless a single buffer does
+     */
+    public static List<List<EncodedEvents>> split(List<EncodedEvents> buffered, int maxEvents, long maxBytes) {
+        final List<List<EncodedEvents>> batches = new ArrayList<>();
+        List<EncodedEvents> current = new ArrayList<>();
+        long size = 0;
+        int count = 0;
+        for (EncodedEvents encoded : buffered) {
+            if (!current.isEmpty() && (size + encoded.getBytes() > maxBytes || count + encoded.getCount() > maxEvents)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                size = 0;
+                count = 0;
+            }
+            current.add(encoded);
+            size += encoded.getBytes();
+            count += encoded.getCount();
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+}
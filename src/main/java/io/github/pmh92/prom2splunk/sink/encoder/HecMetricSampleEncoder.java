@@ -0,0 +1,210 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.encoder;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.MetricGroup;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes the samples as events of the Splunk HTTP Event Collector metrics format. The {@code __name__} label is written as the
+ * {@code metric_name} field and the rest of the labels as dimensions. Samples with a non-finite value are skipped, since HEC rejects them.
+ */
+public class HecMetricSampleEncoder implements SampleEncoder {
+
+    static final String ENCODING = "hec-metric";
+
+    private static final String NAME_LABEL = "__name__";
+    private static final int ESTIMATED_EVENT_SIZE = 320;
+
+    private static final byte[] TIME_FIELD = ascii("{\"time\":");
+    private static final byte[] EVENT_FIELD = ascii(",\"event\":\"metric\"");
+    private static final byte[] FIELDS_FIELD = ascii(",\"fields\":{");
+    private static final byte[] METRIC_NAME_FIELD = ascii("\"metric_name\":");
+    private static final byte[] VALUE_FIELD = ascii("\"_value\":");
+    private static final byte[] EVENT_END = ascii("}}\n");
+
+    private final DirectJsonSampleEncoder json = new DirectJsonSampleEncoder();
+    private final byte[] metadata;
+
+    /**
+     * @param host the host of the events, if any
+     * @param index the index of the events, if any
+     * @param source the source of the events, if any
+     * @param sourcetype the sourcetype of the events, if any
+     */
+    public HecMetricSampleEncoder(String host, String index, String source, String sourcetype) {
+        final ByteBuf buffer = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            writeMetadata("host", host, buffer);
+            writeMetadata("index", index, buffer);
+            writeMetadata("source", source, buffer);
+            writeMetadata("sourcetype", sourcetype, buffer);
+            this.metadata = ByteBufUtil.getBytes(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public ByteBuf encode(PrometheusSample sample, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE);
+        try {
+            if (Double.isFinite(sample.getValue())) {
+                buffer.writeBytes(TIME_FIELD);
+                writeTime(sample.getTimestamp(), buffer);
+                buffer.writeBytes(metadata).writeBytes(EVENT_FIELD).writeBytes(FIELDS_FIELD);
+                writeFields(sample.getLabelSet(), buffer);
+                buffer.writeBytes(VALUE_FIELD);
+                DirectJsonSampleEncoder.writeDouble(sample.getValue(), buffer);
+                buffer.writeBytes(EVENT_END);
+            }
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public ByteBuf encode(PrometheusSeries series, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE * Math.max(series.size(), 1));
+        try {
+            // The fields are only written once, the following events copy them from the first one
+            int fieldsIndex = -1;
+            int fieldsLength = 0;
+            for (int i = 0; i < series.size(); i++) {
+                if (!Double.isFinite(series.getValue(i))) {
+                    continue;
+                }
+                buffer.writeBytes(TIME_FIELD);
+                writeTime(series.getTimestamp(i), buffer);
+                buffer.writeBytes(metadata).writeBytes(EVENT_FIELD).writeBytes(FIELDS_FIELD);
+                if (fieldsIndex < 0) {
+                    fieldsIndex = buffer.writerIndex();
+                    writeFields(series.getLabelSet(), buffer);
+                    fieldsLength = buffer.writerIndex() - fieldsIndex;
+                } else {
+                    buffer.writeBytes(buffer, fieldsIndex, fieldsLength);
+                }
+                buffer.writeBytes(VALUE_FIELD);
+                DirectJsonSampleEncoder.writeDouble(series.getValue(i), buffer);
+                buffer.writeBytes(EVENT_END);
+            }
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes a multi-metric event per timestamp, with the dimensions and a {@code metric_name:<name>} field per measurement
+     */
+    @Override
+    public ByteBuf encode(MetricGroup group, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE * Math.max(group.getSeries().size(), 1));
+        try {
+            int fieldsIndex = -1;
+            int fieldsLength = 0;
+            final MetricGroup.Cursor cursor = group.cursor();
+            while (cursor.next()) {
+                buffer.writeBytes(TIME_FIELD);
+                writeTime(cursor.getTimestamp(), buffer);
+                buffer.writeBytes(metadata).writeBytes(EVENT_FIELD).writeBytes(FIELDS_FIELD);
+                if (fieldsIndex < 0) {
+                    fieldsIndex = buffer.writerIndex();
+                    writeFields(group.getDimensions(), buffer);
+                    fieldsLength = buffer.writerIndex() - fieldsIndex;
+                } else {
+                    buffer.writeBytes(buffer, fieldsIndex, fieldsLength);
+                }
+                for (int i = 0; i < cursor.size(); i++) {
+                    if (i > 0) {
+                        buffer.writeByte(',');
+                    }
+                    buffer.writeBytes(json.metricName(cursor.getName(i)));
+                    DirectJsonSampleEncoder.writeDouble(cursor.getValue(i), buffer);
+                }
+                buffer.writeBytes(EVENT_END);
+            }
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public String getEncoding() {
+        return ENCODING;
+    }
+
+    /**
+     * @return the number of events the series is encoded as
+     */
+    public static int countEvents(PrometheusSeries series) {
+        int count = 0;
+        for (int i = 0; i < series.size(); i++) {
+            if (Double.isFinite(series.getValue(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the metric name and the dimensions, followed by a separator
+     */
+    private void writeFields(LabelSet labels, ByteBuf buffer) {
+        for (Map.Entry<String, String> label : labels.getLabels().entrySet()) {
+            if (NAME_LABEL.equals(label.getKey())) {
+                buffer.writeBytes(METRIC_NAME_FIELD);
+            } else {
+                buffer.writeBytes(json.name(label.getKey()));
+            }
+            DirectJsonSampleEncoder.writeString(label.getValue(), buffer);
+            buffer.writeByte(',');
+        }
+    }
+
+    /**
+     * Writes the epoch time in seconds, with millisecond precision
+     */
+    private static void writeTime(long timestamp, ByteBuf buffer) {
+        DirectJsonSampleEncoder.writeLong(Math.floorDiv(timestamp, 1000L), buffer);
+        final long millis = Math.floorMod(timestamp, 1000L);
+        buffer.writeByte('.')
+                .writeByte((int) ('0' + millis / 100))
+                .writeByte((int) ('0' + (millis / 10) % 10))
+                .writeByte((int) ('0' + millis % 10));
+    }
+
+    private static void writeMetadata(String name, String value, ByteBuf buffer) {
+        if (StringUtils.hasText(value)) {
+            buffer.writeByte(',');
+            DirectJsonSampleEncoder.writeString(name, buffer);
+            buffer.writeByte(':');
+            DirectJsonSampleEncoder.writeString(value, buffer);
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
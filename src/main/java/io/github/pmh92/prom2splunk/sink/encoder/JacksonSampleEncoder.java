@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.encoder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.pmh92.prom2splunk.model.MetricGroup;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes the samples as JSON using Jackson, writing straight into the buffer of the event
+ */
+public class JacksonSampleEncoder implements SampleEncoder {
+
+    private static final int ESTIMATED_EVENT_SIZE = 256;
+    private static final byte[] LINE_SEPARATOR = "\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectWriter writer;
+    private final ObjectWriter eventWriter;
+
+    public JacksonSampleEncoder(ObjectMapper mapper) {
+        this.writer = mapper.writerFor(PrometheusSample.class);
+        this.eventWriter = mapper.writerFor(Map.class);
+    }
+
+    @Override
+    public ByteBuf encode(PrometheusSample sample, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE);
+        try {
+            writer.writeValue((OutputStream) new ByteBufOutputStream(buffer), sample);
+            buffer.writeBytes(LINE_SEPARATOR);
+            return buffer;
+        } catch (IOException ex) {
+            buffer.release();
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the multi-metric events as maps, matching the output of {@link DirectJsonSampleEncoder}
+     */
+    @Override
+    public ByteBuf encode(MetricGroup group, ByteBufAllocator alloc) {
+        final ByteBuf buffer = alloc.buffer(ESTIMATED_EVENT_SIZE * Math.max(group.getSeries().size(), 1));
+        try {
+            final MetricGroup.Cursor cursor = group.cursor();
+            while (cursor.next()) {
+                final Map<String, Object> event = new LinkedHashMap<>();
+                event.put("timestamp", cursor.getTimestamp());
+                event.put("labels", group.getDimensions().getLabels());
+                for (int i = 0; i < cursor.size(); i++) {
+                    event.put(DirectJsonSampleEncoder.METRIC_NAME_PREFIX + cursor.getName(i), cursor.getValue(i));
+                }
+                eventWriter.writeValue((OutputStream) new ByteBufOutputStream(buffer), event);
+                buffer.writeBytes(LINE_SEPARATOR);
+            }
+            return buffer;
+        } catch (IOException ex) {
+            buffer.release();
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public String getEncoding() {
+        return MediaType.APPLICATION_JSON_VALUE;
+    }
+}
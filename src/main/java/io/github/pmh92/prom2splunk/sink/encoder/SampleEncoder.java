@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.encoder;
+
+import io.github.pmh92.prom2splunk.model.MetricGroup;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+/**
+ * Encodes a {@link PrometheusSample} as a Splunk event
+ */
+public interface SampleEncoder {
+
+    /**
+     * Encodes a sample as a single event line, including the line separator
+     * @param sample the sample to encode
+     * @param alloc the allocator for the buffer holding the event
+     * @return a new buffer owned by the caller
+     */
+    ByteBuf encode(PrometheusSample sample, ByteBufAllocator alloc);
+
+    /**
+     * Encodes every sample of a series as an event line. By default, each sample is encoded on its own
+     * @param series the series to encode
+     * @param alloc the allocator for the buffer holding the events
+     * @return a new buffer owned by the caller
+     */
+    default ByteBuf encode(PrometheusSeries series, ByteBufAllocator alloc) {
+        final CompositeByteBuf buffer = alloc.compositeBuffer(Math.max(series.size(), 1));
+        try {
+            for (PrometheusSample sample : series.getSamples()) {
+                buffer.addComponent(true, encode(sample, alloc));
+            }
+            return buffer;
+        } catch (RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Encodes the samples of a group as multi-metric events, one per timestamp, including the line separators
+     * @param group the group to encode
+     * @param alloc the allocator for the buffer holding the events
+     * @return a new buffer owned by the caller
+     */
+    ByteBuf encode(MetricGroup group, ByteBufAllocator alloc);
+
+    /**
+     * @return the encoding reported on the sink metrics
+     */
+    String getEncoding();
+}
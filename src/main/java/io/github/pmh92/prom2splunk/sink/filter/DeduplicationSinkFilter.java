@@ -0,0 +1,279 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.DeduplicationConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.SinkFilter;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends the samples of a single replica of every Prometheus HA pair, as the HA tracker of Cortex does. The first replica sending samples for
+ * a cluster is elected, and the samples of the other replicas are dropped until the elected one stops sending them for the failover timeout.
+ * The elections are swapped with a compare-and-set, so the series of a request are checked without locking. An idle cluster is only forgotten
+ * once its election is swapped for a tombstone, so the requests still holding it look the cluster up again. Series lacking the cluster or the
+ * replica label go through unchanged, as do the clusters beyond the maximum number tracked.
+ *
+ * @see DeduplicationConfigurationProperties
+ */
+public class DeduplicationSinkFilter implements SinkFilter, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeduplicationSinkFilter.class);
+    private static final int MAX_CACHED_LABELS = 100_000;
+    private static final long RETIRED = Long.MIN_VALUE;
+    /**
+     * The election of a cluster forgotten by the sweep
+     */
+    private static final Election TOMBSTONE = new Election("", RETIRED);
+
+    private final DeduplicationConfigurationProperties properties;
+    private final MeterRegistry registry;
+    private final long failoverTimeout;
+    private final long idleTimeout;
+    private final ConcurrentMap<String, Cluster> clusters = new ConcurrentHashMap<>();
+    private final Cache<LabelSet, LabelSet> stripped;
+    private final Counter unlabelled;
+    private final Counter untracked;
+    private final Counter failovers;
+    private final AtomicBoolean full = new AtomicBoolean();
+    private final Disposable sweeper;
+
+    public DeduplicationSinkFilter(DeduplicationConfigurationProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+        this.failoverTimeout = properties.getFailoverTimeout().toMillis();
+        this.idleTimeout = Math.max(properties.getClusterIdleTimeout().toMillis(), this.failoverTimeout);
+        this.unlabelled = Counter.builder("deduplication.untracked").description("Samples sent without deduplication")
+                .tag("reason", "labels").register(registry);
+        this.untracked = Counter.builder("deduplication.untracked").description("Samples sent without deduplication")
+                .tag("reason", "max_clusters").register(registry);
+        this.failovers = Counter.builder("deduplication.failovers").description("Elections of another replica of a cluster")
+                .register(registry);
+        Gauge.builder("deduplication.clusters", clusters, Map::size).description("Clusters being tracked").register(registry);
+        this.stripped = Caffeine.newBuilder()
+                .maximumSize(MAX_CACHED_LABELS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, this.stripped, "deduplication");
+        this.sweeper = Flux.interval(properties.getFailoverTimeout())
+                .onBackpressureDrop()
+                .subscribe(tick -> sweep(now()));
+    }
+
+    @Override
+    public Mono<Void> filter(PrometheusSample sample, SplunkSink next) {
+        final LabelSet labels = accept(sample.getLabelSet(), 1, now());
+        if (labels == null) {
+            return Mono.empty();
+        }
+        return next.handle(labels == sample.getLabelSet() ? sample : new PrometheusSample(sample.getTimestamp(), labels, sample.getValue()));
+    }
+
+    @Override
+    public Mono<Void> filterSeries(Flux<PrometheusSeries> series, SplunkSink next) {
+        return next.handleSeries(series.handle((s, sink) -> {
+            final LabelSet labels = accept(s.getLabelSet(), s.size(), now());
+            if (labels != null) {
+                sink.next(labels == s.getLabelSet() ? s : s.withLabels(labels));
+            }
+        }));
+    }
+
+    /**
+     * @param samples the number of samples with the labels
+     * @return the labels to send the samples with, or {@code null} if they are dropped
+     */
+    LabelSet accept(LabelSet labels, int samples, long now) {
+        final String cluster = labels.getLabels().get(properties.getClusterLabel());
+        final String replica = labels.getLabels().get(properties.getReplicaLabel());
+        if (cluster == null || replica == null) {
+            unlabelled.increment(samples);
+            return labels;
+        }
+        while (true) {
+            final Cluster state = cluster(cluster);
+            if (state == null) {
+                untracked.increment(samples);
+                return labels;
+            }
+            switch (state.elect(replica, now)) {
+                case ELECTED:
+                    state.accepted.increment(samples);
+                    return properties.isDropReplicaLabel() ? strip(labels) : labels;
+                case REJECTED:
+                    state.dropped.increment(samples);
+                    return null;
+                default:
+                    // Forgotten by the sweep along with its metrics, so the cluster is tracked anew
+                    clusters.remove(cluster, state);
+            }
+        }
+    }
+
+    /**
+     * @return the state of the cluster, or {@code null} if too many clusters are tracked already
+     */
+    private Cluster cluster(String name) {
+        final Cluster state = clusters.get(name);
+        if (state != null) {
+            return state;
+        }
+        if (clusters.size() >= properties.getMaxClusters()) {
+            if (full.compareAndSet(false, true)) {
+                logger.warn("Tracking {} clusters already, the samples of cluster {} and of any other new cluster are not deduplicated",
+                        clusters.size(), name);
+            }
+            return null;
+        }
+        return clusters.computeIfAbsent(name, Cluster::new);
+    }
+
+    /**
+     * @return the labels without the replica label. The result for the interned label sets is kept in a bounded cache, so it is only
+     * encoded once
+     */
+    private LabelSet strip(LabelSet labels) {
+        if (labels.isInterned()) {
+            return stripped.get(labels, interned -> LabelSet.interned(withoutReplica(interned)));
+        }
+        return LabelSet.of(withoutReplica(labels));
+    }
+
+    private Map<String, String> withoutReplica(LabelSet labels) {
+        final Map<String, String> copy = new LinkedHashMap<>(labels.getLabels());
+        copy.remove(properties.getReplicaLabel());
+        return copy;
+    }
+
+    /**
+     * Forgets the clusters without samples for the idle timeout, along with their metrics. The election is first retired, so a replica still
+     * sending samples either keeps it or finds it retired, then swapped for the tombstone, so a new election does not go with it
+     */
+    void sweep(long now) {
+        for (Cluster state : clusters.values()) {
+            final Election election = state.election.get();
+            if (election == null || election == TOMBSTONE) {
+                continue;
+            }
+            final long lastSeen = election.lastSeen;
+            if (lastSeen != RETIRED && now - lastSeen > idleTimeout && election.see(lastSeen, RETIRED)
+                    && state.election.compareAndSet(election, TOMBSTONE)) {
+                clusters.remove(state.name, state);
+                registry.remove(state.accepted);
+                registry.remove(state.dropped);
+            }
+        }
+        if (clusters.size() < properties.getMaxClusters()) {
+            full.set(false);
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void close() {
+        sweeper.dispose();
+    }
+
+    private enum Vote {
+        ELECTED, REJECTED, RETIRED
+    }
+
+    /**
+     * The elected replica of a cluster and the last time it sent samples, {@link #RETIRED} once the sweep forgets the cluster
+     */
+    private static final class Election {
+        private static final AtomicLongFieldUpdater<Election> LAST_SEEN = AtomicLongFieldUpdater.newUpdater(Election.class, "lastSeen");
+
+        private final String replica;
+        private volatile long lastSeen;
+
+        private Election(String replica, long lastSeen) {
+            this.replica = replica;
+            this.lastSeen = lastSeen;
+        }
+
+        private boolean see(long previous, long now) {
+            return LAST_SEEN.compareAndSet(this, previous, now);
+        }
+    }
+
+    private final class Cluster {
+        private final String name;
+        private final AtomicReference<Election> election = new AtomicReference<>();
+        private final Counter accepted;
+        private final Counter dropped;
+
+        private Cluster(String name) {
+            this.name = name;
+            this.accepted = Counter.builder("deduplication.samples").description("Samples handled by the deduplication")
+                    .tag("cluster", name).tag("result", "accepted").register(registry);
+            this.dropped = Counter.builder("deduplication.samples").description("Samples handled by the deduplication")
+                    .tag("cluster", name).tag("result", "dropped").register(registry);
+        }
+
+        /**
+         * @return whether the replica is the elected one, electing it if the current one timed out or was retired, or whether the cluster
+         * has been forgotten
+         */
+        private Vote elect(String replica, long now) {
+            while (true) {
+                final Election current = election.get();
+                if (current == TOMBSTONE) {
+                    return Vote.RETIRED;
+                }
+                final long lastSeen = current != null ? current.lastSeen : RETIRED;
+                if (lastSeen != RETIRED) {
+                    if (current.replica.equals(replica)) {
+                        // Written at most once per millisecond, so the concurrent requests of the replica do not contend on it
+                        if (lastSeen >= now || current.see(lastSeen, now)) {
+                            return Vote.ELECTED;
+                        }
+                        continue;
+                    }
+                    if (now - lastSeen <= failoverTimeout) {
+                        return Vote.REJECTED;
+                    }
+                }
+                if (election.compareAndSet(current, new Election(replica, now))) {
+                    if (current != null && !current.replica.equals(replica)) {
+                        failovers.increment();
+                    }
+                    return Vote.ELECTED;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.DownsamplingConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.SinkFilter;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates the samples of the series matching a rule over a fixed interval, and sends the aggregated samples instead of the raw ones. The
+ * series not matching any rule go through unchanged. The rule of a metric name is only looked up once.
+ *
+ * @see DownsamplingConfigurationProperties
+ */
+public class DownsamplingSinkFilter implements SinkFilter, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownsamplingSinkFilter.class);
+    private static final String NAME_LABEL = "__name__";
+    private static final int NO_RULE = -1;
+    private static final int MAX_CACHED_NAMES = 10_000;
+
+    private final DownsamplingConfigurationProperties properties;
+    private final Pattern[] patterns;
+    private final DownsamplingConfigurationProperties.Aggregation[][] aggregations;
+    private final ConcurrentMap<String, Integer> rules = new ConcurrentHashMap<>();
+    private final WindowStore store;
+    private final Counter aggregated;
+    private final Counter emitted;
+    private final Timer flushes;
+    private final Disposable scheduler;
+
+    private volatile SplunkSink downstream;
+
+    public DownsamplingSinkFilter(DownsamplingConfigurationProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        final List<DownsamplingConfigurationProperties.Rule> rules = properties.getRules();
+        this.patterns = new Pattern[rules.size()];
+        this.aggregations = new DownsamplingConfigurationProperties.Aggregation[rules.size()][];
+        for (int i = 0; i < rules.size(); i++) {
+            this.patterns[i] = Pattern.compile(rules.get(i).getMetric());
+            this.aggregations[i] = rules.get(i).getAggregations().toArray(new DownsamplingConfigurationProperties.Aggregation[0]);
+        }
+        this.store = new WindowStore(Runtime.getRuntime().availableProcessors() * 4, properties.getMaxSeries());
+
+        this.aggregated = Counter.builder("downsampling.samples").description("Samples handled by the downsampling")
+                .tag("stage", "aggregated").register(registry);
+        this.emitted = Counter.builder("downsampling.samples").description("Samples handled by the downsampling")
+                .tag("stage", "emitted").register(registry);
+        this.flushes = Timer.builder("downsampling.flush").description("Time taken to emit the aggregated samples")
+                .register(registry);
+        Gauge.builder("downsampling.series", store, WindowStore::size)
+                .description("Series being aggregated").register(registry);
+        Gauge.builder("downsampling.memory", store, WindowStore::memoryBytes).baseUnit("bytes")
+                .description("Size of the aggregates of the series").register(registry);
+
+        this.scheduler = Flux.interval(properties.getInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush().onErrorResume(ex -> {
+                    logger.warn("Unable to send the aggregated samples", ex);
+                    return Mono.empty();
+                }))
+                .subscribe();
+    }
+
+    @Override
+    public Mono<Void> filter(PrometheusSample sample, SplunkSink next) {
+        this.downstream = next;
+        final int rule = rule(sample.getLabelSet());
+        if (rule != NO_RULE && store.add(sample.getLabelSet(), rule, sample.getTimestamp(), sample.getValue())) {
+            aggregated.increment();
+            return Mono.empty();
+        }
+        return next.handle(sample);
+    }
+
+    @Override
+    public Mono<Void> filterSeries(Flux<PrometheusSeries> series, SplunkSink next) {
+        this.downstream = next;
+        return next.handleSeries(series.filter(s -> !aggregate(s)));
+    }
+
+    /**
+     * @return whether the samples of the series were added to its window
+     */
+    private boolean aggregate(PrometheusSeries series) {
+        final int rule = rule(series.getLabelSet());
+        if (rule == NO_RULE) {
+            return false;
+        }
+        // Once the first sample is added, the series has a window and the rest can't fail
+        for (int i = 0; i < series.size(); i++) {
+            if (!store.add(series.getLabelSet(), rule, series.getTimestamp(i), series.getValue(i))) {
+                return false;
+            }
+        }
+        aggregated.increment(series.size());
+        return true;
+    }
+
+    private int rule(LabelSet labels) {
+        final String name = labels.getLabels().get(NAME_LABEL);
+        if (name == null) {
+            return NO_RULE;
+        }
+        Integer rule = rules.get(name);
+        if (rule == null) {
+            rule = NO_RULE;
+            for (int i = 0; i < patterns.length; i++) {
+                if (patterns[i].matcher(name).matches()) {
+                    rule = i;
+                    break;
+                }
+            }
+            if (rules.size() < MAX_CACHED_NAMES) {
+                rules.putIfAbsent(name, rule);
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * Sends the aggregated samples of the current windows to the next sink in the chain
+     */
+    Mono<Void> flush() {
+        return Mono.defer(() -> {
+            final SplunkSink next = this.downstream;
+            if (next == null) {
+                return Mono.empty();
+            }
+            final long start = System.nanoTime();
+            final List<PrometheusSample> samples = new ArrayList<>();
+            store.drain(window -> emit(window, samples));
+            emitted.increment(samples.size());
+            return next.handleBatch(Flux.fromIterable(samples))
+                    .doFinally(signal -> flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private void emit(WindowStore.Window window, List<PrometheusSample> samples) {
+        for (DownsamplingConfigurationProperties.Aggregation aggregation : aggregations[window.getRule()]) {
+            switch (aggregation) {
+                case LAST:
+                    samples.add(new PrometheusSample(window.getTimestamp(), window.getLabels(), window.getLast()));
+                    break;
+                case MIN:
+                    samples.add(new PrometheusSample(window.getTimestamp(), rename(window.getLabels(), "_min"), window.getMin()));
+                    break;
+                case MAX:
+                    samples.add(new PrometheusSample(window.getTimestamp(), rename(window.getLabels(), "_max"), window.getMax()));
+                    break;
+                case SUM:
+                    samples.add(new PrometheusSample(window.getTimestamp(), rename(window.getLabels(), "_sum"), window.getSum()));
+                    break;
+                case COUNT:
+                    samples.add(new PrometheusSample(window.getTimestamp(), rename(window.getLabels(), "_count"), window.getCount()));
+                    break;
+                case RATE:
+                    if (!Double.isNaN(window.getRate())) {
+                        samples.add(new PrometheusSample(window.getTimestamp(), rename(window.getLabels(), "_rate"), window.getRate()));
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown aggregation: " + aggregation);
+            }
+        }
+    }
+
+    private static LabelSet rename(LabelSet labels, String suffix) {
+        final Map<String, String> renamed = new LinkedHashMap<>(labels.getLabels());
+        renamed.put(NAME_LABEL, renamed.get(NAME_LABEL) + suffix);
+        return LabelSet.of(renamed);
+    }
+
+    /**
+     * Stops the periodic flush and sends the aggregated samples of the current windows
+     */
+    @Override
+    public void close() {
+        scheduler.dispose();
+        flush().block(properties.getInterval());
+    }
+}
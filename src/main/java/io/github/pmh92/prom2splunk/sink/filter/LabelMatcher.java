@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties;
+
+import java.util.regex.Pattern;
+
+/**
+ * A compiled label matcher. Regular expressions are compiled once and anchored at both ends, as Prometheus does
+ */
+final class LabelMatcher {
+
+    private final String name;
+    private final RoutingConfigurationProperties.MatchType type;
+    private final String value;
+    private final Pattern pattern;
+
+    LabelMatcher(RoutingConfigurationProperties.Matcher matcher) {
+        this.name = matcher.getName();
+        this.type = matcher.getType();
+        this.value = matcher.getValue();
+        this.pattern = type == RoutingConfigurationProperties.MatchType.RE || type == RoutingConfigurationProperties.MatchType.NRE
+                ? Pattern.compile(value)
+                : null;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param actual the value of the label, {@code null} when the label is missing
+     */
+    boolean matches(String actual) {
+        final String label = actual == null ? "" : actual;
+        switch (type) {
+            case EQ:
+                return value.equals(label);
+            case NEQ:
+                return !value.equals(label);
+            case RE:
+                return pattern.matcher(label).matches();
+            case NRE:
+                return !pattern.matcher(label).matches();
+            default:
+                throw new IllegalStateException("Unknown matcher type: " + type);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.SinkFilter;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps, drops, relabels and routes the series according to the configured rules. The rules are evaluated once per series, not per sample.
+ * The series routed to a named sink skip the rest of the chain. The named sinks belong to the filter, and are closed along with it.
+ *
+ * @see RoutingConfigurationProperties
+ */
+public class RoutingSinkFilter implements SinkFilter, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingSinkFilter.class);
+
+    private final RuleSet rules;
+    private final SplunkSink[] sinks;
+    private final Counter[] routed;
+    private final Counter defaultRouted;
+    private final Counter dropped;
+
+    /**
+     * @param properties the rules
+     * @param sinks the sinks the series can be routed to, by name
+     */
+    public RoutingSinkFilter(RoutingConfigurationProperties properties, Map<String, SplunkSink> sinks, MeterRegistry registry) {
+        final List<String> names = new ArrayList<>(sinks.keySet());
+        this.rules = new RuleSet(properties.getRules(), names);
+        this.sinks = new SplunkSink[names.size()];
+        this.routed = new Counter[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            this.sinks[i] = sinks.get(names.get(i));
+            this.routed[i] = counter(registry, "routed", names.get(i));
+        }
+        this.defaultRouted = counter(registry, "routed", "default");
+        this.dropped = counter(registry, "dropped", "none");
+    }
+
+    private static Counter counter(MeterRegistry registry, String outcome, String sink) {
+        return Counter.builder("routing.series").description("Series handled by the routing rules")
+                .tag("outcome", outcome).tag("sink", sink).register(registry);
+    }
+
+    @Override
+    public Mono<Void> filter(PrometheusSample sample, SplunkSink next) {
+        final RuleSet.Decision decision = rules.evaluate(sample.getLabelSet());
+        if (decision == null) {
+            dropped.increment();
+            return Mono.empty();
+        }
+        counter(decision.getRoute()).increment();
+        final PrometheusSample filtered = decision.getLabels() == sample.getLabelSet()
+                ? sample
+                : new PrometheusSample(sample.getTimestamp(), decision.getLabels(), sample.getValue());
+        return target(decision.getRoute(), next).handle(filtered);
+    }
+
+    @Override
+    public Mono<Void> filterSeries(Flux<PrometheusSeries> series, SplunkSink next) {
+        final Flux<Routed> decided = series.handle((s, sink) -> {
+            final RuleSet.Decision decision = rules.evaluate(s.getLabelSet());
+            if (decision == null) {
+                dropped.increment();
+                return;
+            }
+            sink.next(new Routed(decision.getLabels() == s.getLabelSet() ? s : s.withLabels(decision.getLabels()), decision.getRoute()));
+        });
+        if (sinks.length == 0) {
+            return next.handleSeries(decided.map(routed -> count(routed).series));
+        }
+        return decided.groupBy(routed -> routed.route)
+                .flatMap(group -> target(group.key(), next).handleSeries(group.map(routed -> count(routed).series)), sinks.length + 1)
+                .then();
+    }
+
+    private Routed count(Routed routed) {
+        counter(routed.route).increment();
+        return routed;
+    }
+
+    private Counter counter(int route) {
+        return route == RuleSet.DEFAULT_ROUTE ? defaultRouted : routed[route];
+    }
+
+    private SplunkSink target(int route, SplunkSink next) {
+        return route == RuleSet.DEFAULT_ROUTE ? next : sinks[route];
+    }
+
+    @Override
+    public void close() {
+        for (SplunkSink sink : sinks) {
+            if (sink instanceof Closeable) {
+                try {
+                    ((Closeable) sink).close();
+                } catch (IOException ex) {
+                    logger.warn("Unable to close a routed sink", ex);
+                }
+            }
+        }
+    }
+
+    private static final class Routed {
+        private final PrometheusSeries series;
+        private final int route;
+
+        Routed(PrometheusSeries series, int route) {
+            this.series = series;
+            this.route = route;
+        }
+    }
+}
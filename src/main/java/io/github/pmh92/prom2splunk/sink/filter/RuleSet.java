@@ -0,0 +1,221 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The routing rules, compiled. The matchers on the metric name are only evaluated once per metric name: every metric name is mapped to the
+ * rules that may apply to it, so evaluating the rules of a series only checks the matchers on the rest of its labels.
+ */
+final class RuleSet {
+
+    static final int DEFAULT_ROUTE = -1;
+
+    private static final String NAME_LABEL = "__name__";
+    private static final int MAX_CACHED_NAMES = 10_000;
+
+    private final Rule[] rules;
+    private final ConcurrentMap<String, int[]> plans = new ConcurrentHashMap<>();
+
+    /**
+     * @param rules the rules, in order
+     * @param sinks the names of the sinks the rules route to, in the order of their route index
+     */
+    RuleSet(List<RoutingConfigurationProperties.Rule> rules, List<String> sinks) {
+        this.rules = new Rule[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            this.rules[i] = new Rule(rules.get(i), sinks);
+        }
+    }
+
+    /**
+     * Applies the rules to the labels of a series
+     * @return the outcome, or {@code null} when the series is dropped
+     */
+    Decision evaluate(LabelSet labels) {
+        String name = nameOf(labels);
+        int[] plan = plan(name);
+        LabelSet current = labels;
+        for (int step = 0; step < plan.length; step++) {
+            final int index = plan[step];
+            if (index < 0) {
+                // A keep rule whose matchers on the metric name fail
+                return null;
+            }
+            final Rule rule = rules[index];
+            final boolean matches = rule.matches(current);
+            switch (rule.action) {
+                case KEEP:
+                    if (!matches) {
+                        return null;
+                    }
+                    break;
+                case DROP:
+                    if (matches) {
+                        return null;
+                    }
+                    break;
+                case RELABEL:
+                    if (matches) {
+                        current = rule.relabel(current);
+                        final String renamed = nameOf(current);
+                        if (!renamed.equals(name)) {
+                            // Carry on with the rules following this one that apply to the new metric name
+                            name = renamed;
+                            plan = plan(name);
+                            step = next(plan, index) - 1;
+                        }
+                    }
+                    break;
+                case ROUTE:
+                    if (matches) {
+                        return new Decision(current, rule.route);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown action: " + rule.action);
+            }
+        }
+        return new Decision(current, DEFAULT_ROUTE);
+    }
+
+    /**
+     * @return the rules that may apply to a metric name, in order. Keep rules whose matchers on the name fail are included as their
+     * complement, since they drop the series
+     */
+    private int[] plan(String name) {
+        int[] plan = plans.get(name);
+        if (plan == null) {
+            final int[] indexes = new int[rules.length];
+            int size = 0;
+            for (int i = 0; i < rules.length; i++) {
+                if (rules[i].matchesName(name)) {
+                    indexes[size++] = i;
+                } else if (rules[i].action == RoutingConfigurationProperties.Action.KEEP) {
+                    indexes[size++] = ~i;
+                }
+            }
+            plan = Arrays.copyOf(indexes, size);
+            if (plans.size() < MAX_CACHED_NAMES) {
+                plans.putIfAbsent(name, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return the step of the plan of the first rule after the given one
+     */
+    private static int next(int[] plan, int index) {
+        for (int step = 0; step < plan.length; step++) {
+            if ((plan[step] < 0 ? ~plan[step] : plan[step]) > index) {
+                return step;
+            }
+        }
+        return plan.length;
+    }
+
+    private static String nameOf(LabelSet labels) {
+        final String name = labels.getLabels().get(NAME_LABEL);
+        return name == null ? "" : name;
+    }
+
+    /**
+     * The labels of a series once the rules are applied, and the sink it is routed to
+     */
+    static final class Decision {
+        private final LabelSet labels;
+        private final int route;
+
+        Decision(LabelSet labels, int route) {
+            this.labels = labels;
+            this.route = route;
+        }
+
+        LabelSet getLabels() {
+            return labels;
+        }
+
+        /**
+         * @return the index of the sink, or {@link #DEFAULT_ROUTE}
+         */
+        int getRoute() {
+            return route;
+        }
+    }
+
+    private static final class Rule {
+        private final LabelMatcher[] nameMatchers;
+        private final LabelMatcher[] matchers;
+        private final RoutingConfigurationProperties.Action action;
+        private final Map<String, String> labels;
+        private final List<String> removeLabels;
+        private final int route;
+
+        Rule(RoutingConfigurationProperties.Rule rule, List<String> sinks) {
+            final List<LabelMatcher> nameMatchers = new ArrayList<>();
+            final List<LabelMatcher> matchers = new ArrayList<>();
+            for (RoutingConfigurationProperties.Matcher matcher : rule.getMatchers()) {
+                (NAME_LABEL.equals(matcher.getName()) ? nameMatchers : matchers).add(new LabelMatcher(matcher));
+            }
+            this.nameMatchers = nameMatchers.toArray(new LabelMatcher[0]);
+            this.matchers = matchers.toArray(new LabelMatcher[0]);
+            this.action = rule.getAction();
+            this.labels = new LinkedHashMap<>(rule.getLabels());
+            this.removeLabels = new ArrayList<>(rule.getRemoveLabels());
+            if (action == RoutingConfigurationProperties.Action.ROUTE) {
+                this.route = sinks.indexOf(rule.getSink());
+                if (this.route < 0) {
+                    throw new IllegalStateException("Unknown sink in routing rule: " + rule.getSink());
+                }
+            } else {
+                this.route = DEFAULT_ROUTE;
+            }
+        }
+
+        boolean matchesName(String name) {
+            for (LabelMatcher matcher : nameMatchers) {
+                if (!matcher.matches(name)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(LabelSet series) {
+            final Map<String, String> values = series.getLabels();
+            for (LabelMatcher matcher : matchers) {
+                if (!matcher.matches(values.get(matcher.getName()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        LabelSet relabel(LabelSet series) {
+            final Map<String, String> relabeled = new LinkedHashMap<>(series.getLabels());
+            relabeled.putAll(labels);
+            for (String label : removeLabels) {
+                relabeled.remove(label);
+            }
+            return LabelSet.of(relabeled);
+        }
+    }
+}
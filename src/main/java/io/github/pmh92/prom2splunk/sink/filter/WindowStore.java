@@ -0,0 +1,318 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the aggregates of the current window of every series in primitive arrays. The series are partitioned in stripes locked independently,
+ * each stripe being an open-addressing hash table from the hash of the labels to the slot holding the aggregates of the series.
+ */
+final class WindowStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Size of a slot: the hash, the rule, the reference to the labels, three longs and five doubles
+     */
+    private static final int SLOT_BYTES = 4 + 4 + 8 + 3 * 8 + 5 * 8;
+
+    private final Stripe[] stripes;
+    private final int maxSeriesPerStripe;
+
+    /**
+     * @param concurrency the expected number of threads adding samples at the same time
+     * @param maxSeries maximum number of series kept
+     */
+    WindowStore(int concurrency, int maxSeries) {
+        int count = 1;
+        while (count < concurrency) {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.maxSeriesPerStripe = Math.max(1, maxSeries / count);
+    }
+
+    /**
+     * Adds a sample to the current window of its series
+     * @return whether the sample was added, which fails for new series once the store is full
+     */
+    boolean add(LabelSet labels, int rule, long timestamp, double value) {
+        final int hash = mix(labels.hashCode());
+        // The stripe is picked by the high bits, the entry of its hash table by the low bits
+        final Stripe stripe = stripes[(hash >>> 20) & (stripes.length - 1)];
+        synchronized (stripe) {
+            return stripe.add(labels, hash, rule, timestamp, value, maxSeriesPerStripe);
+        }
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * Hands the aggregates of the current window of every series that received samples to the consumer, then starts a new window. The
+     * series that did not receive any sample are forgotten
+     * @param consumer receives a view of every window, only valid during the call
+     */
+    void drain(Consumer<Window> consumer) {
+        final Window window = new Window();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.drain(window, consumer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of series kept
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the arrays backing the store, in bytes
+     */
+    long memoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += (long) stripe.hashes.length * SLOT_BYTES + (long) stripe.table.length * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * The aggregates of the window of a series
+     */
+    static final class Window {
+        private LabelSet labels;
+        private int rule;
+        private long timestamp;
+        private long count;
+        private double last;
+        private double min;
+        private double max;
+        private double sum;
+        private double rate;
+
+        LabelSet getLabels() {
+            return labels;
+        }
+
+        int getRule() {
+            return rule;
+        }
+
+        /**
+         * @return the timestamp of the last sample
+         */
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getLast() {
+            return last;
+        }
+
+        double getMin() {
+            return min;
+        }
+
+        double getMax() {
+            return max;
+        }
+
+        double getSum() {
+            return sum;
+        }
+
+        /**
+         * @return the per-second increase, accounting for counter resets, or {@code NaN} if unknown
+         */
+        double getRate() {
+            return rate;
+        }
+    }
+
+    private static final class Stripe {
+        // Slot index + 1 of every entry of the hash table, 0 when the entry is empty
+        private int[] table = new int[INITIAL_CAPACITY * 2];
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private LabelSet[] labels = new LabelSet[INITIAL_CAPACITY];
+        private int[] rules = new int[INITIAL_CAPACITY];
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private long[] counts = new long[INITIAL_CAPACITY];
+        // Timestamp of the sample the increase is measured from
+        private long[] baselines = new long[INITIAL_CAPACITY];
+        private double[] lasts = new double[INITIAL_CAPACITY];
+        private double[] mins = new double[INITIAL_CAPACITY];
+        private double[] maxs = new double[INITIAL_CAPACITY];
+        private double[] sums = new double[INITIAL_CAPACITY];
+        private double[] increases = new double[INITIAL_CAPACITY];
+        private int size;
+
+        boolean add(LabelSet series, int hash, int rule, long timestamp, double value, int maxSize) {
+            int mask = table.length - 1;
+            int index = hash & mask;
+            for (int entry = table[index]; entry != 0; entry = table[index]) {
+                final int slot = entry - 1;
+                if (hashes[slot] == hash && (labels[slot] == series || labels[slot].equals(series))) {
+                    update(slot, timestamp, value);
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            if (size >= maxSize) {
+                return false;
+            }
+            if (size == hashes.length) {
+                grow();
+            }
+            final int slot = size++;
+            hashes[slot] = hash;
+            labels[slot] = series;
+            rules[slot] = rule;
+            timestamps[slot] = timestamp;
+            baselines[slot] = timestamp;
+            lasts[slot] = value;
+            counts[slot] = 0;
+            increases[slot] = 0;
+            if (size * 2 > table.length) {
+                rehash(table.length * 2);
+            } else {
+                table[index] = slot + 1;
+            }
+            update(slot, timestamp, value);
+            return true;
+        }
+
+        private void update(int slot, long timestamp, double value) {
+            if (counts[slot] == 0) {
+                mins[slot] = value;
+                maxs[slot] = value;
+                sums[slot] = 0;
+            } else {
+                mins[slot] = Math.min(mins[slot], value);
+                maxs[slot] = Math.max(maxs[slot], value);
+            }
+            sums[slot] += value;
+            counts[slot]++;
+            if (timestamp > timestamps[slot]) {
+                // A counter reset starts again from zero
+                increases[slot] += value >= lasts[slot] ? value - lasts[slot] : value;
+                timestamps[slot] = timestamp;
+                lasts[slot] = value;
+            } else if (timestamp == timestamps[slot]) {
+                lasts[slot] = value;
+            }
+        }
+
+        void drain(Window window, Consumer<Window> consumer) {
+            int retained = 0;
+            for (int slot = 0; slot < size; slot++) {
+                if (counts[slot] == 0) {
+                    continue;
+                }
+                window.labels = labels[slot];
+                window.rule = rules[slot];
+                window.timestamp = timestamps[slot];
+                window.count = counts[slot];
+                window.last = lasts[slot];
+                window.min = mins[slot];
+                window.max = maxs[slot];
+                window.sum = sums[slot];
+                window.rate = timestamps[slot] > baselines[slot]
+                        ? increases[slot] * 1000 / (timestamps[slot] - baselines[slot])
+                        : Double.NaN;
+                consumer.accept(window);
+                // The next window measures the increase from the last sample of this one
+                move(slot, retained);
+                counts[retained] = 0;
+                increases[retained] = 0;
+                baselines[retained] = timestamps[retained];
+                retained++;
+            }
+            window.labels = null;
+            Arrays.fill(labels, retained, size, null);
+            size = retained;
+            int capacity = table.length;
+            while (capacity > INITIAL_CAPACITY * 2 && size * 8 < capacity) {
+                capacity >>= 1;
+            }
+            rehash(capacity);
+        }
+
+        private void move(int from, int to) {
+            if (from == to) {
+                return;
+            }
+            hashes[to] = hashes[from];
+            labels[to] = labels[from];
+            rules[to] = rules[from];
+            timestamps[to] = timestamps[from];
+            counts[to] = counts[from];
+            baselines[to] = baselines[from];
+            lasts[to] = lasts[from];
+            mins[to] = mins[from];
+            maxs[to] = maxs[from];
+            sums[to] = sums[from];
+            increases[to] = increases[from];
+        }
+
+        private void grow() {
+            final int capacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            rules = Arrays.copyOf(rules, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            baselines = Arrays.copyOf(baselines, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            increases = Arrays.copyOf(increases, capacity);
+        }
+
+        private void rehash(int capacity) {
+            if (table.length == capacity) {
+                Arrays.fill(table, 0);
+            } else {
+                table = new int[capacity];
+            }
+            final int mask = capacity - 1;
+            for (int slot = 0; slot < size; slot++) {
+                int index = hashes[slot] & mask;
+                while (table[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = slot + 1;
+            }
+        }
+    }
+}
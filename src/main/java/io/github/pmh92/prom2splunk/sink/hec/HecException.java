@@ -0,0 +1,39 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.hec;
+
+/**
+ * A request to the HTTP Event Collector that did not succeed
+ */
+public class HecException extends RuntimeException {
+
+    private final int status;
+    private final boolean retryable;
+
+    public HecException(String message, int status, boolean retryable) {
+        super(message);
+        this.status = status;
+        this.retryable = retryable;
+    }
+
+    /**
+     * @return the HTTP status of the response, or {@code 0} when the request did not get one
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return whether sending the same request again may succeed
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.hec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.MetricGroup;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.HecSinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.SinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.SinkMetrics;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.github.pmh92.prom2splunk.sink.encoder.EncodedEvents;
+import io.github.pmh92.prom2splunk.sink.encoder.HecMetricSampleEncoder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.netty.ByteBufMono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Posts the samples to the Splunk HTTP Event Collector, as metric events. The events are posted in batches bounded by the number of events,
+ * their size and the time waiting for the batch to fill, optionally compressed with gzip. Requests failing with a connection error, a server
+ * error or a throttling response are retried with an exponential backoff. When the indexer acknowledgement is enabled, a request only
+ * succeeds once its events are acknowledged, and fails without being retried when they are not acknowledged in time.
+ *
+ * @see HecSinkConfigurationProperties
+ */
+public class HecSplunkSink implements SplunkSink, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HecSplunkSink.class);
+    private static final String COLLECTOR_PATH = "/services/collector";
+    private static final String ACK_PATH = "/ack";
+    private static final String CHANNEL_HEADER = "X-Splunk-Request-Channel";
+
+    private final HecSinkConfigurationProperties properties;
+    private final HecMetricSampleEncoder encoder;
+    private final ConnectionProvider provider;
+    private final HttpClient client;
+    private final String ackPath;
+    private final ObjectMapper mapper;
+    private final SinkMetrics metrics;
+    private final StageMetrics stages;
+    private final ExecutionResources execution;
+    private final Counter retries;
+    private final Retry retry;
+
+    /**
+     * @param name the name of the sink, told apart by the {@code sink} tag of its metrics
+     */
+    public HecSplunkSink(String name, HecSinkConfigurationProperties properties, ObjectMapper mapper, MeterRegistry registry, StageMetrics stages,
+                         ExecutionResources execution) {
+        this.properties = properties;
+        this.ackPath = ackPath(properties.getPath());
+        this.mapper = mapper;
+        this.stages = stages;
+        this.execution = execution;
+        this.encoder = new HecMetricSampleEncoder(properties.getHost(), properties.getIndex(), properties.getSource(), properties.getSourcetype());
+        this.metrics = new SinkMetrics(registry, name, this.encoder.getEncoding());
+        this.retries = Counter.builder("sink.retries").description("Requests to the sink retried")
+                .tag("sink", name).tag("encoding", this.encoder.getEncoding()).register(registry);
+
+        final String channel = StringUtils.hasText(properties.getChannel()) || !properties.getAck().isEnabled()
+                ? properties.getChannel()
+                : UUID.randomUUID().toString();
+        // Named after the sink, so the pools of several HEC sinks do not share their metrics
+        this.provider = ConnectionProvider.builder("hec-" + name)
+                .maxConnections(properties.getMaxConnections())
+                .pendingAcquireMaxCount(-1)
+                .metrics(stages.isEnabled())
+                .build();
+        this.client = execution.configure(HttpClient.create(this.provider))
+                .baseUrl(properties.getUrl().toString())
+                .responseTimeout(properties.getResponseTimeout())
+                .headers(headers -> {
+                    if (StringUtils.hasText(properties.getToken())) {
+                        headers.set(HttpHeaderNames.AUTHORIZATION, "Splunk " + properties.getToken());
+                    }
+                    if (StringUtils.hasText(channel)) {
+                        headers.set(CHANNEL_HEADER, channel);
+                    }
+                });
+
+        final HecSinkConfigurationProperties.Retry retry = properties.getRetry();
+        this.retry = Retry.backoff(retry.getMaxAttempts(), retry.getMinBackoff())
+                .maxBackoff(retry.getMaxBackoff())
+                .filter(HecSplunkSink::isRetryable)
+                .doBeforeRetry(signal -> {
+                    logger.debug("Retrying request to the HTTP Event Collector", signal.failure());
+                    this.retries.increment();
+                })
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    @Override
+    public Mono<Void> handle(PrometheusSample sample) {
+        return handleBatch(Flux.just(sample));
+    }
+
+    @Override
+    public Mono<Void> handleBatch(Flux<PrometheusSample> samples) {
+        return write(samples.filter(sample -> Double.isFinite(sample.getValue()))
+                .map(sample -> {
+                    final long start = stages.start();
+                    final EncodedEvents encoded = new EncodedEvents(encoder.encode(sample, execution.alloc()), 1);
+                    stages.record(StageMetrics.Stage.ENCODE, start);
+                    return encoded;
+                }));
+    }
+
+    @Override
+    public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+        return write(encode(series));
+    }
+
+    /**
+     * The chunks are decoded and encoded on the parallel scheduler, then posted in batches as usual
+     */
+    @Override
+    public Mono<Void> handleChunks(Flux<Flux<PrometheusSeries>> chunks) {
+        if (!execution.isParallel()) {
+            return SplunkSink.super.handleChunks(chunks);
+        }
+        return write(execution.parallel(chunks, this::encode));
+    }
+
+    /**
+     * Multi-metric events group the series of the whole request, or of the chunk when decoded in parallel
+     */
+    private Flux<EncodedEvents> encode(Flux<PrometheusSeries> series) {
+        if (this.properties.getEventFormat() == SinkConfigurationProperties.EventFormat.MULTI_METRIC) {
+            return series.collectList().flatMapIterable(MetricGroup::group).handle(this::encodeGroup);
+        }
+        return series.handle(this::encodeSeries);
+    }
+
+    private void encodeGroup(MetricGroup group, SynchronousSink<EncodedEvents> sink) {
+        final long start = stages.start();
+        final ByteBuf encoded = encoder.encode(group, execution.alloc());
+        // Counted while encoding
+        final int count = group.countEvents();
+        if (count == 0) {
+            encoded.release();
+            return;
+        }
+        stages.record(StageMetrics.Stage.ENCODE, start);
+        sink.next(new EncodedEvents(encoded, count));
+    }
+
+    private void encodeSeries(PrometheusSeries series, SynchronousSink<EncodedEvents> sink) {
+        final int count = HecMetricSampleEncoder.countEvents(series);
+        if (count > 0) {
+            final long start = stages.start();
+            final EncodedEvents encoded = new EncodedEvents(encoder.encode(series, execution.alloc()), count);
+            stages.record(StageMetrics.Stage.ENCODE, start);
+            sink.next(encoded);
+        }
+    }
+
+    /**
+     * Posts the events in batches. As in the TCP sink, a failed post does not cancel the events still being encoded: the remaining batches
+     * are released without being posted, and the failure is signalled when the events complete.
+     */
+    private Mono<Void> write(Flux<EncodedEvents> events) {
+        final HecSinkConfigurationProperties.Batch batch = this.properties.getBatch();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        return events.bufferTimeout(batch.getMaxEvents(), batch.getMaxLinger())
+                // the linger timer emits regardless of the demand, so the batches of a request wait here instead of overflowing
+                .onBackpressureBuffer()
+                .concatMapIterable(buffered -> EncodedEvents.split(buffered, batch.getMaxEvents(), batch.getMaxBytes().toBytes()))
+                .flatMap(b -> {
+                    final Throwable failed = failure.get();
+                    if (failed != null) {
+                        final int bytes = b.stream().mapToInt(EncodedEvents::getBytes).sum();
+                        final int count = b.stream().mapToInt(EncodedEvents::getCount).sum();
+                        b.forEach(EncodedEvents::release);
+                        metrics.record(bytes, count, failed);
+                        return Mono.empty();
+                    }
+                    return post(b).onErrorResume(ex -> {
+                        failure.compareAndSet(null, ex);
+                        return Mono.empty();
+                    });
+                }, this.properties.getMaxConnections())
+                .doOnDiscard(Object.class, EncodedEvents::discard)
+                .then(Mono.defer(() -> failure.get() != null ? Mono.error(failure.get()) : Mono.empty()));
+    }
+
+    /**
+     * Posts a batch of events, retrying the same body if needed. The body is released once the request completes
+     */
+    private Mono<Void> post(List<EncodedEvents> batch) {
+        final int bytes = batch.stream().mapToInt(EncodedEvents::getBytes).sum();
+        final int events = batch.stream().mapToInt(EncodedEvents::getCount).sum();
+        stages.recordBatch(events, bytes);
+        return Mono.using(() -> body(batch),
+                        body -> Mono.defer(() -> send(body)).retryWhen(this.retry),
+                        ReferenceCountUtil::safeRelease)
+                .doOnSuccess((r) -> metrics.record(bytes, events, null))
+                .doOnError((ex) -> metrics.record(bytes, events, ex));
+    }
+
+    private ByteBuf body(List<EncodedEvents> batch) {
+        final CompositeByteBuf events = execution.alloc().compositeBuffer(batch.size());
+        for (EncodedEvents encoded : batch) {
+            events.addComponent(true, encoded.getContent());
+        }
+        if (!this.properties.isGzip()) {
+            return events;
+        }
+        final ByteBuf compressed = execution.alloc().buffer(events.readableBytes() / 8);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(compressed))) {
+            events.readBytes(gzip, events.readableBytes());
+        } catch (IOException ex) {
+            compressed.release();
+            throw new UncheckedIOException(ex);
+        } finally {
+            events.release();
+        }
+        return compressed;
+    }
+
+    private Mono<Void> send(ByteBuf body) {
+        final long start = stages.start();
+        return this.client
+                .headers(headers -> {
+                    headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+                    if (this.properties.isGzip()) {
+                        headers.set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+                    }
+                })
+                .post()
+                .uri(this.properties.getPath())
+                .send(Mono.fromSupplier(body::retainedDuplicate))
+                .responseSingle((response, content) -> content.asString().defaultIfEmpty("")
+                        .flatMap(text -> {
+                            final int status = response.status().code();
+                            if (status != HttpResponseStatus.OK.code()) {
+                                return Mono.error(failure(status, text));
+                            }
+                            return this.properties.getAck().isEnabled() ? awaitAck(ackId(text)) : Mono.empty();
+                        }))
+                .then()
+                .doOnSuccess(r -> stages.record(StageMetrics.Stage.WRITE, start));
+    }
+
+    /**
+     * Polls the acknowledgement status of the request until its events are indexed. Queries failing with a retryable error are polled again.
+     * The request is not posted again once the acknowledgement times out, as its events may have been indexed and would be duplicated
+     */
+    private Mono<Void> awaitAck(long ackId) {
+        final HecSinkConfigurationProperties.Ack ack = this.properties.getAck();
+        return Mono.delay(ack.getPollInterval())
+                .then(Mono.defer(() -> queryAck(ackId)))
+                .filter(Boolean::booleanValue)
+                .repeatWhenEmpty(repeats -> repeats.delayElements(ack.getPollInterval()))
+                .timeout(ack.getTimeout(), Mono.error(() -> new HecException("Events not acknowledged: " + ackId, 0, false)))
+                .then();
+    }
+
+    private Mono<Boolean> queryAck(long ackId) {
+        final String query = "{\"acks\":[" + ackId + "]}";
+        return this.client
+                .headers(headers -> headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON))
+                .post()
+                .uri(this.ackPath)
+                .send(ByteBufMono.fromString(Mono.just(query), StandardCharsets.UTF_8, execution.alloc()))
+                .responseSingle((response, content) -> content.asString().defaultIfEmpty("")
+                        .<Boolean>handle((text, sink) -> {
+                            final int status = response.status().code();
+                            if (status != HttpResponseStatus.OK.code()) {
+                                sink.error(failure(status, text));
+                                return;
+                            }
+                            try {
+                                sink.next(this.mapper.readTree(text).path("acks").path(Long.toString(ackId)).asBoolean(false));
+                            } catch (IOException ex) {
+                                sink.error(new HecException("Invalid acknowledgement response: " + text, status, true));
+                            }
+                        }))
+                .onErrorResume(HecSplunkSink::isRetryable, ex -> {
+                    logger.debug("Unable to query the acknowledgement status, polling again", ex);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * The acknowledgement endpoint sits next to the endpoint the events are posted to, so a path prefix added by a proxy applies to both
+     */
+    static String ackPath(String path) {
+        final int collector = path.lastIndexOf(COLLECTOR_PATH);
+        if (collector >= 0) {
+            return path.substring(0, collector + COLLECTOR_PATH.length()) + ACK_PATH;
+        }
+        final int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        return path.substring(0, end) + ACK_PATH;
+    }
+
+    private long ackId(String text) {
+        try {
+            final JsonNode ackId = this.mapper.readTree(text).get("ackId");
+            if (ackId == null || !ackId.canConvertToLong()) {
+                throw new HecException("No ackId in the response, the indexer acknowledgement may not be enabled for the token", 200, false);
+            }
+            return ackId.asLong();
+        } catch (IOException ex) {
+            throw new HecException("Invalid response: " + text, 200, false);
+        }
+    }
+
+    /**
+     * Closes the connections to the HTTP Event Collector
+     */
+    @Override
+    public void close() {
+        this.provider.dispose();
+    }
+
+    /**
+     * Throttled requests and server errors are retried, the rest of the errors are caused by the request and would fail again
+     */
+    private static HecException failure(int status, String text) {
+        final boolean retryable = status == HttpResponseStatus.TOO_MANY_REQUESTS.code() || status >= 500;
+        return new HecException(String.format("HTTP Event Collector responded %d: %s", status, text), status, retryable);
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof HecException) {
+            return ((HecException) error).isRetryable();
+        }
+        return error instanceof IOException || error instanceof TimeoutException || error instanceof io.netty.handler.timeout.TimeoutException;
+    }
+}
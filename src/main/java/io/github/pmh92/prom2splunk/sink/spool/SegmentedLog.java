@@ -0,0 +1,367 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log split in fixed-size memory-mapped segments. Every record is stored as
+ * {@code [length:int][crc32:int][timestamp:long][payload]}, a zero length marks the end of the data written to a segment.
+ * <p>
+ * The log keeps a single read position, which is persisted as a checkpoint once the records read have been processed. The segments before the
+ * checkpoint are deleted, and the oldest segments are dropped when the log exceeds its maximum size.
+ */
+final class SegmentedLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedLog.class);
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final TreeSet<Long> segments = new TreeSet<>();
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+
+    private long readSegment;
+    private int readOffset;
+    private ByteBuffer readBuffer;
+
+    private long checkpointSegment;
+    private int checkpointOffset;
+
+    private long droppedSegments;
+
+    SegmentedLog(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        recoverCheckpoint();
+        recoverWritePosition();
+    }
+
+    /**
+     * Appends a record to the log
+     * @param payload the content of the record
+     * @param timestamp the time the record was appended at
+     */
+    synchronized void append(byte[] payload, long timestamp) throws IOException {
+        if (writeBuffer.remaining() < HEADER_SIZE + payload.length) {
+            roll(HEADER_SIZE + payload.length);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        final int position = writeBuffer.position();
+        // The length is written last, so a partially written record is never considered as valid
+        writeBuffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        writeBuffer.putLong(position + 2 * Integer.BYTES, timestamp);
+        ((Buffer) writeBuffer).position(position + HEADER_SIZE);
+        writeBuffer.put(payload);
+        writeBuffer.putInt(position, payload.length);
+    }
+
+    /**
+     * Flushes the segment being written to the disk
+     */
+    void sync() {
+        final MappedByteBuffer buffer;
+        synchronized (this) {
+            buffer = writeBuffer;
+        }
+        buffer.force();
+    }
+
+    /**
+     * Reads the next records after the current read position, advancing it
+     * @param max maximum number of records to read
+     * @return the payloads of the records read, empty if there are no pending records
+     */
+    synchronized List<byte[]> read(int max) throws IOException {
+        final List<byte[]> records = new ArrayList<>();
+        while (records.size() < max) {
+            if (readSegment == writeSegment && readOffset >= writeBuffer.position()) {
+                break;
+            }
+            final ByteBuffer segment = readBuffer();
+            final int length = readOffset + HEADER_SIZE <= segment.limit() ? segment.getInt(readOffset) : 0;
+            if (length <= 0 || readOffset + HEADER_SIZE + length > segment.limit()) {
+                nextReadSegment();
+                continue;
+            }
+            final byte[] payload = new byte[length];
+            final ByteBuffer content = segment.duplicate();
+            ((Buffer) content).position(readOffset + HEADER_SIZE);
+            content.get(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != segment.getInt(readOffset + Integer.BYTES)) {
+                logger.warn("Corrupted record found in spool segment {} at offset {}, skipping the rest of the segment", readSegment, readOffset);
+                droppedSegments++;
+                nextReadSegment();
+                continue;
+            }
+            readOffset += HEADER_SIZE + length;
+            records.add(payload);
+        }
+        return records;
+    }
+
+    /**
+     * Persists the current read position, so the records read are not read again after a restart
+     */
+    synchronized void commit() throws IOException {
+        checkpointSegment = readSegment;
+        checkpointOffset = readOffset;
+        final Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temporary, (checkpointSegment + " " + checkpointOffset).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        while (!segments.isEmpty() && segments.first() < checkpointSegment) {
+            Files.deleteIfExists(segmentPath(segments.pollFirst()));
+        }
+    }
+
+    /**
+     * Moves the read position back to the last checkpoint, so the records read since then are read again
+     */
+    synchronized void rewind() {
+        if (readSegment != checkpointSegment) {
+            readBuffer = null;
+        }
+        readSegment = checkpointSegment;
+        readOffset = checkpointOffset;
+    }
+
+    /**
+     * @return the number of bytes written but not yet committed
+     */
+    synchronized long pendingBytes() {
+        long pending = 0;
+        for (long segment : segments.tailSet(checkpointSegment)) {
+            pending += segment == writeSegment ? writeBuffer.position() : segmentLength(segment);
+        }
+        return Math.max(0, pending - checkpointOffset);
+    }
+
+    /**
+     * @return the time the oldest record not yet committed was appended at, or {@code -1} if there are no such records
+     */
+    synchronized long oldestPendingTimestamp() {
+        long segment = checkpointSegment;
+        int offset = checkpointOffset;
+        while (segment <= writeSegment) {
+            if (segment == writeSegment && offset >= writeBuffer.position()) {
+                return -1;
+            }
+            if (segment == writeSegment) {
+                return writeBuffer.getLong(offset + 2 * Integer.BYTES);
+            }
+            if (segments.contains(segment) && offset + HEADER_SIZE <= segmentLength(segment)) {
+                try {
+                    final ByteBuffer buffer = segment == readSegment && readBuffer != null ? readBuffer : map(segment, FileChannel.MapMode.READ_ONLY);
+                    if (buffer.getInt(offset) > 0) {
+                        return buffer.getLong(offset + 2 * Integer.BYTES);
+                    }
+                } catch (IOException ex) {
+                    return -1;
+                }
+            }
+            segment++;
+            offset = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of segments dropped because the log exceeded its maximum size or was corrupted
+     */
+    synchronized long droppedSegments() {
+        return droppedSegments;
+    }
+
+    @Override
+    public synchronized void close() {
+        writeBuffer.force();
+    }
+
+    private void recoverCheckpoint() throws IOException {
+        final Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            final String[] position = new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim().split(" ");
+            checkpointSegment = Long.parseLong(position[0]);
+            checkpointOffset = Integer.parseInt(position[1]);
+        }
+        if (!segments.isEmpty() && !segments.contains(checkpointSegment)) {
+            checkpointSegment = segments.ceiling(checkpointSegment) != null ? segments.ceiling(checkpointSegment) : segments.last();
+            checkpointOffset = 0;
+        }
+        readSegment = checkpointSegment;
+        readOffset = checkpointOffset;
+    }
+
+    /**
+     * Scans the last segment to find where the last valid record ends
+     */
+    private void recoverWritePosition() throws IOException {
+        if (segments.isEmpty()) {
+            checkpointOffset = 0;
+            readOffset = 0;
+            writeSegment = checkpointSegment;
+            segments.add(writeSegment);
+            writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+            return;
+        }
+        writeSegment = segments.last();
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+        int position = 0;
+        while (position + HEADER_SIZE <= writeBuffer.limit()) {
+            final int length = writeBuffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > writeBuffer.limit()) {
+                break;
+            }
+            final byte[] payload = new byte[length];
+            final ByteBuffer content = writeBuffer.duplicate();
+            ((Buffer) content).position(position + HEADER_SIZE);
+            content.get(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != writeBuffer.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        ((Buffer) writeBuffer).position(position);
+        if (checkpointSegment == writeSegment && checkpointOffset > position) {
+            checkpointOffset = position;
+            readOffset = position;
+        }
+        if (position + Integer.BYTES <= writeBuffer.limit()) {
+            // Clears the length of a partially written record
+            writeBuffer.putInt(position, 0);
+        }
+    }
+
+    private void roll(int recordSize) throws IOException {
+        // Marks the end of the current segment
+        if (writeBuffer.remaining() >= Integer.BYTES) {
+            writeBuffer.putInt(writeBuffer.position(), 0);
+        }
+        writeBuffer.force();
+        writeSegment++;
+        segments.add(writeSegment);
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE, Math.max(segmentSize, recordSize));
+        enforceRetention();
+    }
+
+    private void enforceRetention() throws IOException {
+        long size = 0;
+        for (long segment : segments) {
+            size += segment == writeSegment ? writeBuffer.capacity() : segmentLength(segment);
+        }
+        while (size > maxSize && segments.first() != writeSegment) {
+            final long oldest = segments.pollFirst();
+            size -= segmentLength(oldest);
+            Files.deleteIfExists(segmentPath(oldest));
+            droppedSegments++;
+            logger.warn("Spool exceeded its maximum size, dropped segment {}", oldest);
+            if (checkpointSegment <= oldest) {
+                checkpointSegment = oldest + 1;
+                checkpointOffset = 0;
+            }
+            if (readSegment <= oldest) {
+                readSegment = oldest + 1;
+                readOffset = 0;
+                readBuffer = null;
+            }
+        }
+    }
+
+    private ByteBuffer readBuffer() throws IOException {
+        if (readSegment == writeSegment) {
+            return writeBuffer;
+        }
+        if (readBuffer == null) {
+            readBuffer = map(readSegment, FileChannel.MapMode.READ_ONLY);
+        }
+        return readBuffer;
+    }
+
+    /**
+     * Skips the rest of the segment being read. The segment being written has no successor, so the reader skips to the end of the data
+     * written so far rather than reading the same records again
+     */
+    private void nextReadSegment() {
+        final Long next = segments.higher(readSegment);
+        if (next != null) {
+            readSegment = next;
+            readOffset = 0;
+        } else {
+            readSegment = writeSegment;
+            readOffset = writeBuffer.position();
+        }
+        readBuffer = null;
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode) throws IOException {
+        return map(segment, mode, segmentSize);
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode, int minimumSize) throws IOException {
+        final Path path = segmentPath(segment);
+        if (mode == FileChannel.MapMode.READ_ONLY) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(mode, 0, channel.size());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(mode, 0, Math.max(channel.size(), minimumSize));
+        }
+    }
+
+    private long segmentLength(long segment) {
+        try {
+            return Files.size(segmentPath(segment));
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.spool;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary representation of a {@link PrometheusSeries} stored in the spool
+ */
+final class SeriesCodec {
+
+    private SeriesCodec() {
+    }
+
+    static byte[] encode(PrometheusSeries series) {
+        final Map<String, String> labels = series.getLabels();
+        final byte[][] strings = new byte[labels.size() * 2][];
+        int size = Integer.BYTES;
+        int i = 0;
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            strings[i] = label.getKey().getBytes(StandardCharsets.UTF_8);
+            strings[i + 1] = label.getValue().getBytes(StandardCharsets.UTF_8);
+            size += 2 * Integer.BYTES + strings[i].length + strings[i + 1].length;
+            i += 2;
+        }
+        size += Integer.BYTES + series.size() * (Long.BYTES + Double.BYTES);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(labels.size());
+        for (byte[] string : strings) {
+            buffer.putInt(string.length).put(string);
+        }
+        buffer.putInt(series.size());
+        for (int j = 0; j < series.size(); j++) {
+            buffer.putLong(series.getTimestamp(j)).putDouble(series.getValue(j));
+        }
+        return buffer.array();
+    }
+
+    static PrometheusSeries decode(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int labelCount = buffer.getInt();
+        final Map<String, String> labels = new HashMap<>();
+        for (int i = 0; i < labelCount; i++) {
+            final String name = readString(buffer);
+            labels.put(name, readString(buffer));
+        }
+        final int size = buffer.getInt();
+        final long[] timestamps = new long[size];
+        final double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = buffer.getLong();
+            values[i] = buffer.getDouble();
+        }
+        return new PrometheusSeries(LabelSet.of(labels), timestamps, values, size);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        // Cast to Buffer so that the Java 8 method signatures are used
+        ((Buffer) buffer).position(buffer.position() + length);
+        return value;
+    }
+}
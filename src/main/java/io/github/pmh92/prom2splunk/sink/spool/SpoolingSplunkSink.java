@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.spool;
+
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.SpoolConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sink that stores the series received in a local {@link SegmentedLog} and acknowledges them as soon as they have been stored. A
+ * background drainer sends the stored series to the delegate sink in chunks, retrying while the sink is not available, and checkpoints its
+ * progress once the delegate has acknowledged them.
+ */
+public class SpoolingSplunkSink implements SplunkSink, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingSplunkSink.class);
+    private static final Duration MIN_RETRY_BACKOFF = Duration.ofMillis(100);
+    private static final long IDLE_WAIT_MILLIS = 100;
+
+    private final SplunkSink delegate;
+    private final SpoolConfigurationProperties properties;
+    private final int chunkSeries;
+    private final SegmentedLog log;
+    private final ScheduledExecutorService executor;
+    private final Scheduler appender;
+    private final Counter appended;
+    private final Counter drained;
+    private final Object signal = new Object();
+    private volatile boolean running = true;
+
+    public SpoolingSplunkSink(SplunkSink delegate, SpoolConfigurationProperties properties, MeterRegistry registry) throws IOException {
+        this(delegate, properties, properties.getDrainBatchSize(), registry);
+    }
+
+    /**
+     * @param chunkSeries the number of series of each chunk the drained records are handed to the delegate sink in
+     */
+    public SpoolingSplunkSink(SplunkSink delegate, SpoolConfigurationProperties properties, int chunkSeries, MeterRegistry registry)
+            throws IOException {
+        this.delegate = delegate;
+        this.properties = properties;
+        this.chunkSeries = chunkSeries;
+        this.log = new SegmentedLog(properties.getDirectory(), (int) properties.getSegmentSize().toBytes(), properties.getMaxSize().toBytes());
+        this.appended = Counter.builder("spool.records").description("Records appended to the spool").tag("operation", "append")
+                .register(registry);
+        this.drained = Counter.builder("spool.records").description("Records drained from the spool").tag("operation", "drain")
+                .register(registry);
+        Gauge.builder("spool.depth", log, SegmentedLog::pendingBytes).baseUnit("bytes")
+                .description("Bytes stored in the spool not yet sent to the sink").register(registry);
+        Gauge.builder("spool.lag", log, SpoolingSplunkSink::lagSeconds).baseUnit("seconds")
+                .description("Age of the oldest record stored in the spool not yet sent to the sink").register(registry);
+        Gauge.builder("spool.dropped.segments", log, SegmentedLog::droppedSegments)
+                .description("Segments dropped because the spool exceeded its maximum size or was corrupted").register(registry);
+
+        this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+            final Thread thread = new Thread(runnable, "prom2splunk-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.appender = Schedulers.newSingle("prom2splunk-spool-append", true);
+        this.executor.execute(this::drain);
+        if (properties.getFsync() == SpoolConfigurationProperties.Fsync.INTERVAL) {
+            final long interval = properties.getFsyncInterval().toMillis();
+            this.executor.scheduleWithFixedDelay(log::sync, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Mono<Void> handle(PrometheusSample sample) {
+        return handleSeries(Flux.just(new PrometheusSeries(sample.getLabelSet(), new long[]{sample.getTimestamp()},
+                new double[]{sample.getValue()}, 1)));
+    }
+
+    /**
+     * The series are appended on a thread of their own, since rolling a segment maps a new file and forces the previous one to the disk,
+     * which must not block the event loop the series are received on
+     */
+    @Override
+    public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+        final Mono<Void> appended = series.publishOn(appender).doOnNext(this::append).then();
+        if (properties.getFsync() != SpoolConfigurationProperties.Fsync.ALWAYS) {
+            return appended.doOnSuccess(r -> wakeUp());
+        }
+        return appended.then(Mono.fromRunnable(log::sync).subscribeOn(Schedulers.boundedElastic()))
+                .doOnSuccess(r -> wakeUp())
+                .then();
+    }
+
+    private void append(PrometheusSeries series) {
+        try {
+            log.append(SeriesCodec.encode(series), System.currentTimeMillis());
+            appended.increment();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Sends the stored records to the delegate sink in order, until the sink is closed
+     */
+    private void drain() {
+        while (running) {
+            try {
+                final List<byte[]> records = log.read(properties.getDrainBatchSize());
+                if (records.isEmpty()) {
+                    synchronized (signal) {
+                        signal.wait(IDLE_WAIT_MILLIS);
+                    }
+                    continue;
+                }
+                delegate.handleChunks(chunks(records))
+                        .retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_RETRY_BACKOFF)
+                                .maxBackoff(properties.getMaxRetryBackoff())
+                                .filter(ex -> running)
+                                .doBeforeRetry(retry -> logger.warn("Unable to drain the spool, retrying", retry.failure())))
+                        .block();
+                log.commit();
+                drained.increment(records.size());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                if (running) {
+                    logger.error("Unexpected error draining the spool", ex);
+                }
+                log.rewind();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * Splits the drained records in chunks, decoded when subscribed to, so the delegate sink may handle them in parallel
+     */
+    private Flux<Flux<PrometheusSeries>> chunks(List<byte[]> records) {
+        final List<List<byte[]>> chunks = new ArrayList<>();
+        for (int start = 0; start < records.size(); start += chunkSeries) {
+            chunks.add(records.subList(start, Math.min(records.size(), start + chunkSeries)));
+        }
+        return Flux.fromIterable(chunks).map(chunk -> Flux.fromIterable(chunk).map(SeriesCodec::decode));
+    }
+
+    private static double lagSeconds(SegmentedLog log) {
+        final long oldest = log.oldestPendingTimestamp();
+        return oldest < 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest) / 1000.0;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        appender.dispose();
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+}
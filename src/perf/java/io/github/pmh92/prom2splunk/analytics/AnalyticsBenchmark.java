@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.analytics;
+
+import io.github.pmh92.prom2splunk.http.protobuf.StreamingRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.perf.WriteRequestGenerator;
+import io.github.pmh92.prom2splunk.properties.AnalyticsConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the analysis of every series of a remote_write request, either with the label sets shared across requests, as decoded by the
+ * streaming decoder, or with new label sets whose fingerprint is computed every time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AnalyticsBenchmark {
+
+    private static final int SERIES = 5000;
+
+    @Param({"8"})
+    private int labels;
+
+    @Param({"100"})
+    private int cardinality;
+
+    @Param({"1", "64"})
+    private int labelSampling;
+
+    private CardinalityAnalytics analytics;
+    private List<PrometheusSeries> request;
+
+    @Setup
+    public void setUp() {
+        final AnalyticsConfigurationProperties properties = new AnalyticsConfigurationProperties();
+        properties.setEnabled(true);
+        properties.setLabelSampling(labelSampling);
+        analytics = new CardinalityAnalytics(properties, new SimpleMeterRegistry());
+        final byte[] bytes = new WriteRequestGenerator(SERIES, 1, SERIES / 10, labels, cardinality, 42).generate().toByteArray();
+        request = new StreamingRemoteWriteDecoder().decode(DefaultDataBufferFactory.sharedInstance.wrap(bytes))
+                .collectList()
+                .block();
+    }
+
+    @TearDown
+    public void tearDown() {
+        analytics.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SERIES)
+    public void recordInterned() {
+        for (PrometheusSeries series : request) {
+            analytics.record(series);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SERIES)
+    public void recordFresh() {
+        for (PrometheusSeries series : request) {
+            analytics.record(series.withLabels(LabelSet.of(series.getLabels())));
+        }
+    }
+}
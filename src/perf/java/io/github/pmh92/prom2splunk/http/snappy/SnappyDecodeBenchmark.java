@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.http.snappy;
+
+import io.github.pmh92.prom2splunk.perf.WriteRequestGenerator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import prometheus.Remote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the decompression of a remote_write request arriving in {@code chunkSize} chunks, and its parsing into the generated
+ * {@link Remote.WriteRequest}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SnappyDecodeBenchmark {
+
+    @Param({"500", "5000"})
+    private int series;
+
+    @Param({"8"})
+    private int labels;
+
+    @Param({"100"})
+    private int cardinality;
+
+    @Param({"8192"})
+    private int chunkSize;
+
+    private final NettyDataBufferFactory factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        compressed = new WriteRequestGenerator(series, 1, Math.max(series / 10, 1), labels, cardinality, 42).generateCompressed();
+    }
+
+    @Benchmark
+    public int decompress() {
+        final DataBuffer body = decompressBody();
+        try {
+            return body.readableByteCount();
+        } finally {
+            DataBufferUtils.release(body);
+        }
+    }
+
+    @Benchmark
+    public Remote.WriteRequest decompressAndParse() throws IOException {
+        final DataBuffer body = decompressBody();
+        try {
+            return Remote.WriteRequest.parseFrom(body.asByteBuffer());
+        } finally {
+            DataBufferUtils.release(body);
+        }
+    }
+
+    private DataBuffer decompressBody() {
+        final SnappyBlockDecoder decoder = new SnappyBlockDecoder(Integer.MAX_VALUE, compressed.length, size -> { });
+        try {
+            for (int offset = 0; offset < compressed.length; offset += chunkSize) {
+                final int length = Math.min(chunkSize, compressed.length - offset);
+                decoder.decode(factory.wrap(Unpooled.wrappedBuffer(compressed, offset, length)));
+            }
+            return decoder.finish();
+        } finally {
+            decoder.release();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.http.protobuf.StreamingRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.sink.encoder.DirectJsonSampleEncoder;
+import io.github.pmh92.prom2splunk.sink.encoder.HecMetricSampleEncoder;
+import io.github.pmh92.prom2splunk.sink.encoder.JacksonSampleEncoder;
+import io.github.pmh92.prom2splunk.sink.encoder.SampleEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding of the series of a remote_write request into Splunk events, either sample by sample, as the
+ * per-sample sink methods do, or series by series
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"direct", "jackson", "hec-metric"})
+    private String encoding;
+
+    @Param({"5000"})
+    private int series;
+
+    @Param({"1", "10"})
+    private int samples;
+
+    @Param({"8"})
+    private int labels;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private SampleEncoder encoder;
+    private List<PrometheusSeries> request;
+
+    @Setup
+    public void setUp() {
+        switch (encoding) {
+            case "direct":
+                encoder = new DirectJsonSampleEncoder();
+                break;
+            case "jackson":
+                encoder = new JacksonSampleEncoder(new ObjectMapper());
+                break;
+            case "hec-metric":
+                encoder = new HecMetricSampleEncoder("prom2splunk", "metrics", "prometheus", "prometheus:metric");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown encoding: " + encoding);
+        }
+        final byte[] bytes = new WriteRequestGenerator(series, samples, Math.max(series / 10, 1), labels, 100, 42)
+                .generate().toByteArray();
+        request = new StreamingRemoteWriteDecoder().decode(DefaultDataBufferFactory.sharedInstance.wrap(bytes))
+                .collectList()
+                .block();
+    }
+
+    @Benchmark
+    public long encodeSample() {
+        long bytes = 0;
+        for (PrometheusSeries ts : request) {
+            for (PrometheusSample sample : ts.getSamples()) {
+                bytes += release(encoder.encode(sample, alloc));
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long encodeSeries() {
+        long bytes = 0;
+        for (PrometheusSeries ts : request) {
+            bytes += release(encoder.encode(ts, alloc));
+        }
+        return bytes;
+    }
+
+    private static int release(ByteBuf buffer) {
+        final int bytes = buffer.readableBytes();
+        buffer.release();
+        return bytes;
+    }
+}
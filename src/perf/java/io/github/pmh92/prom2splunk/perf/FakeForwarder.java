@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.perf;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A TCP server standing for the Splunk Universal Forwarder. It counts the received events, that is, the lines holding a JSON object,
+ * and the invalid ones. It may slow down the sink by waiting {@code latency} after every read, and force it to reconnect by closing
+ * every connection after {@code disconnectAfter} events
+ */
+public final class FakeForwarder implements AutoCloseable {
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final DisposableServer server;
+
+    /**
+     * @param port the port to listen to, {@code 0} for any free port
+     * @param latency the time waited after every read, {@code Duration.ZERO} not to wait
+     * @param disconnectAfter number of events after which a connection is closed, {@code 0} not to close connections
+     */
+    public FakeForwarder(int port, Duration latency, long disconnectAfter) {
+        this.server = TcpServer.create()
+                .port(port)
+                .doOnConnection(c -> connections.increment())
+                .handle((in, out) -> {
+                    final EventScanner scanner = new EventScanner();
+                    Flux<Long> received = in.receive().map(scanner::scan);
+                    if (!latency.isZero()) {
+                        received = received.concatMap(count -> Mono.delay(latency).thenReturn(count));
+                    }
+                    if (disconnectAfter > 0) {
+                        // The connection is closed once the handler completes
+                        received = received.takeUntil(count -> count >= disconnectAfter)
+                                .doOnComplete(() -> {
+                                    if (scanner.count >= disconnectAfter) {
+                                        disconnects.increment();
+                                    }
+                                });
+                    }
+                    return received.then();
+                })
+                .bindNow();
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    public long events() {
+        return events.sum();
+    }
+
+    public long invalid() {
+        return invalid.sum();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long connections() {
+        return connections.sum();
+    }
+
+    public long disconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    /**
+     * Splits the bytes of a connection in lines, which may span several reads
+     */
+    private final class EventScanner implements ByteProcessor {
+        private long count;
+        private int length;
+        private byte first;
+        private byte last;
+
+        /**
+         * @return the number of events received on the connection so far
+         */
+        long scan(ByteBuf buffer) {
+            bytes.add(buffer.readableBytes());
+            buffer.forEachByte(this);
+            return count;
+        }
+
+        @Override
+        public boolean process(byte value) {
+            if (value == '\n') {
+                if (length > 0) {
+                    if (first == '{' && last == '}') {
+                        events.increment();
+                        count++;
+                    } else {
+                        invalid.increment();
+                    }
+                }
+                length = 0;
+            } else if (value != '\r') {
+                if (length++ == 0) {
+                    first = value;
+                }
+                last = value;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.perf;
+
+import io.netty.buffer.Unpooled;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends Snappy compressed remote_write requests to a running prom2splunk instance, as a Prometheus server would, and reports the
+ * throughput, the latency of the requests and the heap used by the instance. Unless disabled, a {@link FakeForwarder} receives the
+ * events written by the instance, which shall be configured to write to it.
+ * <p>
+ * Options, given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code url}: the remote_write endpoint, {@code http://localhost:8080/write} by default</li>
+ *     <li>{@code metrics-url}: the Prometheus endpoint of the instance, used to report its heap, {@code http://localhost:8080/actuator/prometheus}
+ *     by default. Empty not to report it</li>
+ *     <li>{@code rate}: requests per second, {@code 0} (default) to send them as fast as {@code concurrency} allows</li>
+ *     <li>{@code concurrency}: maximum number of requests in progress, {@code 8} by default</li>
+ *     <li>{@code series}: number of series sent in every round of requests, {@code 10000} by default</li>
+ *     <li>{@code series-per-request}: {@code 500} by default, as {@code max_samples_per_send} in Prometheus</li>
+ *     <li>{@code samples}: samples per series, {@code labels}: labels per series and {@code cardinality}: values of each label, {@code 1},
+ *     {@code 8} and {@code 100} by default</li>
+ *     <li>{@code warmup} and {@code duration}: {@code 10s} and {@code 60s} by default</li>
+ *     <li>{@code sink}: whether to start the {@link FakeForwarder}, {@code true} by default, on {@code sink-port} ({@code 9997}),
+ *     with {@code sink-latency} ({@code 0s}) and {@code sink-disconnect-after} ({@code 0})</li>
+ *     <li>{@code name}: the name of the run in the report, and {@code report}: a CSV file the results are appended to</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private static final String REPORT_HEADER = "name,timestamp,url,rate,concurrency,series,series_per_request,samples,labels,cardinality,"
+            + "duration_s,requests,accepted,rejected,errors,not_sent,requests_per_s,samples_per_s,events_per_s,p50_ms,p99_ms,p999_ms,max_ms,"
+            + "invalid_events,disconnects,max_heap_mb";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        final String url = option(options, "url", "http://localhost:8080/write");
+        final String metricsUrl = option(options, "metrics-url", "http://localhost:8080/actuator/prometheus");
+        final double rate = Double.parseDouble(option(options, "rate", "0"));
+        final int concurrency = Integer.parseInt(option(options, "concurrency", "8"));
+        final int series = Integer.parseInt(option(options, "series", "10000"));
+        final int seriesPerRequest = Integer.parseInt(option(options, "series-per-request", "500"));
+        final int samples = Integer.parseInt(option(options, "samples", "1"));
+        final int labels = Integer.parseInt(option(options, "labels", "8"));
+        final int cardinality = Integer.parseInt(option(options, "cardinality", "100"));
+        final Duration warmup = DurationStyle.detectAndParse(option(options, "warmup", "10s"));
+        final Duration duration = DurationStyle.detectAndParse(option(options, "duration", "60s"));
+        final String name = option(options, "name", "");
+        final String report = option(options, "report", "");
+
+        FakeForwarder forwarder = null;
+        if (Boolean.parseBoolean(option(options, "sink", "true"))) {
+            forwarder = new FakeForwarder(Integer.parseInt(option(options, "sink-port", "9997")),
+                    DurationStyle.detectAndParse(option(options, "sink-latency", "0s")),
+                    Long.parseLong(option(options, "sink-disconnect-after", "0")));
+            System.out.printf("Forwarder listening on port %d%n", forwarder.port());
+        }
+
+        // Every round sends all the series, split in requests as Prometheus does
+        final List<Payload> payloads = new ArrayList<>();
+        for (int offset = 0; offset < series; offset += seriesPerRequest) {
+            final int size = Math.min(seriesPerRequest, series - offset);
+            final WriteRequestGenerator generator = new WriteRequestGenerator(size, samples, 100, labels, cardinality, offset);
+            payloads.add(new Payload(generator.generateCompressed(), size * samples));
+        }
+
+        final HttpClient client = HttpClient.create(ConnectionProvider.builder("loadtest")
+                        .maxConnections(concurrency)
+                        .pendingAcquireMaxCount(-1)
+                        .build())
+                .responseTimeout(Duration.ofSeconds(30))
+                .headers(h -> h.set("Content-Encoding", "snappy")
+                        .set("Content-Type", "application/x-protobuf")
+                        .set("User-Agent", "prom2splunk-loadtest")
+                        .set("X-Prometheus-Remote-Write-Version", "0.1.0"));
+
+        System.out.printf("Warming up for %s%n", warmup);
+        run(client, url, payloads, rate, concurrency, warmup);
+
+        System.out.printf("Running for %s%n", duration);
+        final AtomicLong maxHeap = new AtomicLong(-1);
+        final Disposable heapSampler = metricsUrl.isEmpty() ? null : Flux.interval(Duration.ZERO, Duration.ofSeconds(1))
+                .concatMap(tick -> heapUsed(metricsUrl))
+                .subscribe(heap -> maxHeap.accumulateAndGet(heap, Math::max));
+        final long eventsBefore = forwarder != null ? forwarder.events() : 0;
+        final long start = System.nanoTime();
+        final Stats stats = run(client, url, payloads, rate, concurrency, duration);
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        if (heapSampler != null) {
+            heapSampler.dispose();
+        }
+        if (forwarder != null) {
+            awaitForwarder(forwarder);
+        }
+        final long events = forwarder != null ? forwarder.events() - eventsBefore : 0;
+
+        final ConcurrentHistogram latency = stats.latency;
+        System.out.printf(Locale.ROOT, "%nprom2splunk load test %s%n", name);
+        System.out.printf(Locale.ROOT, "  requests      %d (accepted %d, rejected %d, errors %d, not sent %d)%n",
+                stats.requests.sum(), stats.accepted.sum(), stats.rejected.sum(), stats.errors.sum(), stats.dropped.sum());
+        System.out.printf(Locale.ROOT, "  throughput    %.1f requests/s, %.0f samples/s%n",
+                stats.accepted.sum() / elapsed, stats.samples.sum() / elapsed);
+        System.out.printf(Locale.ROOT, "  latency (ms)  p50 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                percentile(latency, 50), percentile(latency, 99), percentile(latency, 99.9), latency.getMaxValue() / 1000.0);
+        if (forwarder != null) {
+            System.out.printf(Locale.ROOT, "  forwarder     %.0f events/s, %d events for %d accepted samples, %d invalid, %d connections, %d disconnects%n",
+                    events / elapsed, events, stats.samples.sum(), forwarder.invalid(), forwarder.connections(), forwarder.disconnects());
+        }
+        System.out.printf(Locale.ROOT, "  max heap (MB) %s%n", maxHeap.get() < 0 ? "n/a" : String.valueOf(maxHeap.get() >> 20));
+
+        if (!report.isEmpty()) {
+            final Path path = Paths.get(report);
+            final boolean header = !Files.exists(path);
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                if (header) {
+                    writer.println(REPORT_HEADER);
+                }
+                writer.printf(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%d,%d,%d,%d,%.0f,%d,%d,%d,%d,%d,%.1f,%.0f,%.0f,%.2f,%.2f,%.2f,%.2f,%d,%d,%s%n",
+                        name, Instant.now(), url, rate, concurrency, series, seriesPerRequest, samples, labels, cardinality, elapsed,
+                        stats.requests.sum(), stats.accepted.sum(), stats.rejected.sum(), stats.errors.sum(), stats.dropped.sum(),
+                        stats.accepted.sum() / elapsed, stats.samples.sum() / elapsed, events / elapsed,
+                        percentile(latency, 50), percentile(latency, 99), percentile(latency, 99.9), latency.getMaxValue() / 1000.0,
+                        forwarder != null ? forwarder.invalid() : 0, forwarder != null ? forwarder.disconnects() : 0,
+                        maxHeap.get() < 0 ? "" : String.valueOf(maxHeap.get() >> 20));
+            }
+            System.out.printf("Results appended to %s%n", path.toAbsolutePath());
+        }
+        if (forwarder != null) {
+            forwarder.close();
+        }
+    }
+
+    /**
+     * Sends the payloads in a loop. With a rate, the requests that cannot be sent on time because {@code concurrency} requests are in
+     * progress are not sent
+     */
+    private static Stats run(HttpClient client, String url, List<Payload> payloads, double rate, int concurrency, Duration duration) {
+        final Stats stats = new Stats();
+        final Flux<Long> ticks = rate > 0
+                ? Flux.interval(Duration.ofNanos((long) (1e9 / rate))).onBackpressureDrop(tick -> stats.dropped.increment())
+                : Flux.generate(() -> 0L, (tick, sink) -> {
+                    sink.next(tick);
+                    return tick + 1;
+                });
+        ticks.take(duration)
+                .flatMap(tick -> send(client, url, payloads.get((int) (tick % payloads.size())), stats), concurrency)
+                .blockLast();
+        return stats;
+    }
+
+    private static Mono<Integer> send(HttpClient client, String url, Payload payload, Stats stats) {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            stats.requests.increment();
+            return client.post()
+                    .uri(url)
+                    .send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(payload.body)))
+                    .responseSingle((response, body) -> body.asByteArray()
+                            .then(Mono.just(response.status().code())))
+                    .doOnNext(status -> stats.record(status, payload.samples, System.nanoTime() - start));
+        }).onErrorResume(ex -> {
+            stats.errors.increment();
+            return Mono.empty();
+        });
+    }
+
+    /**
+     * @return the heap used by the instance, the sum of the {@code jvm_memory_used_bytes} of the heap areas
+     */
+    private static Mono<Long> heapUsed(String metricsUrl) {
+        return HttpClient.create()
+                .get()
+                .uri(metricsUrl)
+                .responseSingle((response, body) -> body.asString())
+                .flatMap(text -> {
+                    long used = 0;
+                    boolean found = false;
+                    for (String line : text.split("\n")) {
+                        if (line.startsWith("jvm_memory_used_bytes{") && line.contains("area=\"heap\"")) {
+                            used += (long) Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                            found = true;
+                        }
+                    }
+                    return found ? Mono.just(used) : Mono.<Long>empty();
+                })
+                .onErrorResume(ex -> Mono.empty());
+    }
+
+    /**
+     * Waits for the events still on their way to the forwarder
+     */
+    private static void awaitForwarder(FakeForwarder forwarder) throws InterruptedException {
+        long events = -1;
+        for (int i = 0; i < 30 && events != forwarder.events(); i++) {
+            events = forwarder.events();
+            Thread.sleep(1000);
+        }
+    }
+
+    private static double percentile(ConcurrentHistogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        final String value = options.getProperty(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static final class Payload {
+        private final byte[] body;
+        private final int samples;
+
+        private Payload(byte[] body, int samples) {
+            this.body = body;
+            this.samples = samples;
+        }
+    }
+
+    private static final class Stats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        // Latency in microseconds
+        private final ConcurrentHistogram latency = new ConcurrentHistogram(3);
+
+        private void record(int status, int count, long nanos) {
+            latency.recordValue(nanos / 1000);
+            if (status >= 200 && status < 300) {
+                accepted.increment();
+                samples.add(count);
+            } else {
+                rejected.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.perf;
+
+import io.github.pmh92.prom2splunk.http.protobuf.ProtobufRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.http.protobuf.RemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.http.protobuf.SeriesCache;
+import io.github.pmh92.prom2splunk.http.protobuf.StreamingRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the decoding of an uncompressed remote_write request into {@link PrometheusSeries}, including the construction of
+ * their label sets, and the {@link PrometheusSample} views handed to the per-sample sink methods
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SeriesDecodeBenchmark {
+
+    @Param({"protobuf", "streaming", "streaming-cached"})
+    private String decoder;
+
+    @Param({"5000"})
+    private int series;
+
+    @Param({"8"})
+    private int labels;
+
+    @Param({"100"})
+    private int cardinality;
+
+    private RemoteWriteDecoder remoteWriteDecoder;
+    private DataBuffer body;
+
+    @Setup
+    public void setUp() {
+        switch (decoder) {
+            case "protobuf":
+                remoteWriteDecoder = new ProtobufRemoteWriteDecoder();
+                break;
+            case "streaming":
+                remoteWriteDecoder = new StreamingRemoteWriteDecoder();
+                break;
+            case "streaming-cached":
+                remoteWriteDecoder = new StreamingRemoteWriteDecoder(new SeriesCache(100_000, new SimpleMeterRegistry()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown decoder: " + decoder);
+        }
+        final byte[] request = new WriteRequestGenerator(series, 1, Math.max(series / 10, 1), labels, cardinality, 42)
+                .generate().toByteArray();
+        body = DefaultDataBufferFactory.sharedInstance.wrap(request);
+    }
+
+    @Benchmark
+    public void decodeSeries(Blackhole blackhole) {
+        remoteWriteDecoder.decode(body).doOnNext(blackhole::consume).blockLast();
+    }
+
+    @Benchmark
+    public void decodeSamples(Blackhole blackhole) {
+        remoteWriteDecoder.decode(body)
+                .doOnNext(ts -> {
+                    for (PrometheusSample sample : ts.getSamples()) {
+                        blackhole.consume(sample);
+                    }
+                })
+                .blockLast();
+    }
+}
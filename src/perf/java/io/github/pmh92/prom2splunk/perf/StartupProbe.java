@@ -0,0 +1,218 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.perf;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts prom2splunk from a jar, as a new pod would, and measures the time until its first remote_write request is accepted along with
+ * the resident memory of the process afterwards. A {@link FakeForwarder} receives the events, so the whole path to the sink is exercised.
+ * The same runs train an AppCDS archive when given {@code -XX:ArchiveClassesAtExit}, since the archive is written once the instance stops.
+ * <p>
+ * Options, given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code jar}: the jar to start, required</li>
+ *     <li>{@code jvm-args}: the JVM options of the instance, separated by spaces</li>
+ *     <li>{@code runs}: number of times the instance is started, {@code 3} by default</li>
+ *     <li>{@code writes}: number of requests sent once the first one is accepted, before stopping the instance, {@code 10} by default</li>
+ *     <li>{@code timeout}: maximum time to wait for the first accepted request, {@code 120s} by default</li>
+ *     <li>{@code name}: the name of the run in the report, and {@code report}: a CSV file the results are appended to</li>
+ * </ul>
+ * The resident memory is read from {@code /proc}, so it is only reported on Linux.
+ */
+public final class StartupProbe {
+
+    private static final String REPORT_HEADER = "name,timestamp,jar,jvm_args,run,first_write_ms,rss_mb";
+    private static final long POLL_INTERVAL_MS = 10;
+
+    private StartupProbe() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        final String jar = options.getProperty("jar");
+        if (jar == null) {
+            throw new IllegalArgumentException("The jar to start shall be given with --jar");
+        }
+        final String jvmArgs = option(options, "jvm-args", "").trim();
+        final int runs = Integer.parseInt(option(options, "runs", "3"));
+        final int writes = Integer.parseInt(option(options, "writes", "10"));
+        final Duration timeout = DurationStyle.detectAndParse(option(options, "timeout", "120s"));
+        final String name = option(options, "name", "");
+        final String report = option(options, "report", "");
+
+        final byte[] body = new WriteRequestGenerator(500, 1, 100, 8, 100, 42).generateCompressed();
+        final List<Long> firstWrites = new ArrayList<>();
+        final List<Long> rss = new ArrayList<>();
+        try (FakeForwarder forwarder = new FakeForwarder(0, Duration.ZERO, 0)) {
+            for (int run = 1; run <= runs; run++) {
+                final Result result = run(jar, jvmArgs, forwarder.port(), body, writes, timeout, name + "-" + run);
+                firstWrites.add(result.firstWriteMs);
+                rss.add(result.rssMb);
+                System.out.printf(Locale.ROOT, "%s run %d: first accepted write after %d ms, RSS %s MB%n", name, run, result.firstWriteMs,
+                        result.rssMb < 0 ? "n/a" : String.valueOf(result.rssMb));
+                if (!report.isEmpty()) {
+                    append(Paths.get(report), String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%s", name, Instant.now(), jar, jvmArgs, run,
+                            result.firstWriteMs, result.rssMb < 0 ? "" : String.valueOf(result.rssMb)));
+                }
+            }
+        }
+        Collections.sort(firstWrites);
+        Collections.sort(rss);
+        System.out.printf(Locale.ROOT, "%nprom2splunk startup %s (%s %s)%n", name, jvmArgs, jar);
+        System.out.printf(Locale.ROOT, "  first accepted write (ms)  median %d, min %d, max %d%n",
+                median(firstWrites), firstWrites.get(0), firstWrites.get(firstWrites.size() - 1));
+        System.out.printf(Locale.ROOT, "  RSS after startup (MB)     %s%n", rss.get(0) < 0 ? "n/a" : "median " + median(rss));
+    }
+
+    /**
+     * Starts the instance, sends requests until one is accepted, then the rest of them, and stops the instance gracefully
+     */
+    private static Result run(String jar, String jvmArgs, int sinkPort, byte[] body, int writes, Duration timeout, String log)
+            throws IOException, InterruptedException {
+        final int port = freePort();
+        final File pidFile = File.createTempFile("prom2splunk", ".pid");
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (!jvmArgs.isEmpty()) {
+            command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+        }
+        command.addAll(Arrays.asList("-jar", jar,
+                "--server.port=" + port,
+                "--prom2splunk.sink.tcp.port=" + sinkPort,
+                "--context.listener.classes=org.springframework.boot.context.ApplicationPidFileWriter",
+                "--spring.pid.file=" + pidFile.getAbsolutePath()));
+        final File output = new File(new File(jar).getAbsoluteFile().getParentFile(), log + ".log");
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output).start();
+        final long start = System.nanoTime();
+        try {
+            final URL url = new URL("http://localhost:" + port + "/write");
+            while (!accepted(url, body)) {
+                if (!process.isAlive() || System.nanoTime() - start > timeout.toNanos()) {
+                    throw new IllegalStateException("The instance did not accept any request, see " + output);
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+            final long firstWrite = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            final long rss = rssMb(pidFile);
+            for (int i = 0; i < writes; i++) {
+                accepted(url, body);
+            }
+            return new Result(firstWrite, rss);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(pidFile.toPath());
+        }
+    }
+
+    private static boolean accepted(URL url, byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Encoding", "snappy");
+            connection.setRequestProperty("Content-Type", "application/x-protobuf");
+            connection.setRequestProperty("X-Prometheus-Remote-Write-Version", "0.1.0");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            final int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                while (in != null && in.read() >= 0) {
+                    // Drains the response, so the connection is reused
+                }
+            }
+            return status >= 200 && status < 300;
+        } catch (ConnectException ex) {
+            return false;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return the resident memory of the process in the pid file, or {@code -1} if not available
+     */
+    private static long rssMb(File pidFile) throws IOException {
+        final Path status = Paths.get("/proc", new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.US_ASCII).trim(), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) >> 10;
+            }
+        }
+        return -1;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long median(List<Long> sorted) {
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static void append(Path path, String line) throws IOException {
+        final boolean header = !Files.exists(path);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (header) {
+                writer.println(REPORT_HEADER);
+            }
+            writer.println(line);
+        }
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        final String value = options.getProperty(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static final class Result {
+        private final long firstWriteMs;
+        private final long rssMb;
+
+        private Result(long firstWriteMs, long rssMb) {
+            this.firstWriteMs = firstWriteMs;
+            this.rssMb = rssMb;
+        }
+    }
+}
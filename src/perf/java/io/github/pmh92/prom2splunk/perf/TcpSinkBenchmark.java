@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.http.protobuf.StreamingRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.TcpSinkConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.DefaultTcpSplunkSink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the whole sink path, from the decoded series to the bytes written to a local TCP server standing for the Splunk
+ * Universal Forwarder. The server discards what it receives
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TcpSinkBenchmark {
+
+    @Param({"false", "true"})
+    private boolean batch;
+
+    @Param({"0", "4"})
+    private int shards;
+
+    @Param({"5000"})
+    private int series;
+
+    @Param({"8"})
+    private int labels;
+
+    private DisposableServer server;
+    private DefaultTcpSplunkSink sink;
+    private List<PrometheusSeries> request;
+
+    @Setup
+    public void setUp() {
+        server = TcpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle((in, out) -> in.receive().then())
+                .bindNow();
+        final TcpSinkConfigurationProperties properties = new TcpSinkConfigurationProperties();
+        properties.setHost("localhost");
+        properties.setPort(server.port());
+        properties.setShards(shards);
+        properties.getBatch().setEnabled(batch);
+        sink = new DefaultTcpSplunkSink(new SimpleMeterRegistry(), properties, new ObjectMapper(), StageMetrics.DISABLED,
+                ExecutionResources.DEFAULT);
+
+        final byte[] bytes = new WriteRequestGenerator(series, 1, Math.max(series / 10, 1), labels, 100, 42)
+                .generate().toByteArray();
+        request = new StreamingRemoteWriteDecoder().decode(DefaultDataBufferFactory.sharedInstance.wrap(bytes))
+                .collectList()
+                .block();
+    }
+
+    @TearDown
+    public void tearDown() {
+        sink.close();
+        server.disposeNow();
+    }
+
+    @Benchmark
+    public void writeSeries() {
+        sink.handleSeries(Flux.fromIterable(request)).block();
+    }
+
+    @Benchmark
+    public void writeSamples() {
+        sink.handleBatch(Flux.fromIterable(request).flatMapIterable(PrometheusSeries::getSamples)).block();
+    }
+}
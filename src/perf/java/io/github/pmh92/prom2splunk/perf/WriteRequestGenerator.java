@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.perf;
+
+import org.xerial.snappy.Snappy;
+import prometheus.Remote;
+import prometheus.Types;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Generates remote_write requests resembling those sent by a Prometheus server: every series has a metric name out of
+ * {@code metrics}, the usual {@code job} and {@code instance} labels and {@code labels} extra labels, each taking one of
+ * {@code cardinality} values
+ */
+public final class WriteRequestGenerator {
+
+    private final int series;
+    private final int samples;
+    private final int metrics;
+    private final int labels;
+    private final int cardinality;
+    private final long seed;
+
+    /**
+     * @param series number of series in the request
+     * @param samples number of samples per series
+     * @param metrics number of distinct metric names
+     * @param labels number of labels besides {@code __name__}, {@code job} and {@code instance}
+     * @param cardinality number of distinct values of every extra label
+     * @param seed seed of the generator, so that runs with the same parameters get the same request
+     */
+    public WriteRequestGenerator(int series, int samples, int metrics, int labels, int cardinality, long seed) {
+        this.series = series;
+        this.samples = samples;
+        this.metrics = metrics;
+        this.labels = labels;
+        this.cardinality = cardinality;
+        this.seed = seed;
+    }
+
+    public Remote.WriteRequest generate() {
+        final SplittableRandom random = new SplittableRandom(seed);
+        final long now = System.currentTimeMillis();
+        final Remote.WriteRequest.Builder request = Remote.WriteRequest.newBuilder();
+        for (int i = 0; i < series; i++) {
+            final Types.TimeSeries.Builder ts = request.addTimeseriesBuilder()
+                    .addLabels(label("__name__", "benchmark_metric_" + (i % metrics) + "_total"))
+                    .addLabels(label("instance", "host-" + random.nextInt(cardinality) + ".example.com:9100"))
+                    .addLabels(label("job", "node"));
+            for (int l = 0; l < labels; l++) {
+                ts.addLabels(label("label_" + l, "value_" + random.nextInt(cardinality)));
+            }
+            double value = random.nextInt(1000);
+            for (int s = 0; s < samples; s++) {
+                value += random.nextDouble() * 10;
+                ts.addSamples(Types.Sample.newBuilder()
+                        .setTimestamp(now - (samples - s) * 15_000L)
+                        .setValue(value));
+            }
+        }
+        return request.build();
+    }
+
+    /**
+     * @return the request as sent by Prometheus, that is, Snappy compressed in the block format
+     */
+    public byte[] generateCompressed() throws IOException {
+        return Snappy.compress(generate().toByteArray());
+    }
+
+    private static Types.Label label(String name, String value) {
+        return Types.Label.newBuilder().setName(name).setValue(value).build();
+    }
+}
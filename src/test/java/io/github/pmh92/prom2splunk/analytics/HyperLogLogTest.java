@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Feeds the sketches with the hashes of distinct fingerprints, mixed as {@link CardinalityAnalytics} does, and checks the estimates are
+ * within three standard errors, {@code 3 * 1.04 / sqrt(m)}
+ */
+class HyperLogLogTest {
+
+    private static HyperLogLog sketch(int precision, long from, long to) {
+        final HyperLogLog sketch = new HyperLogLog(precision);
+        for (long i = from; i < to; i++) {
+            sketch.add(CardinalityAnalytics.mix(i));
+        }
+        return sketch;
+    }
+
+    private static void assertEstimates(int precision, long count) {
+        final double error = 3 * 1.04 / Math.sqrt(1 << precision);
+        assertThat((double) sketch(precision, 0, count).estimate())
+                .as("%d distinct hashes with a precision of %d", count, precision)
+                .isCloseTo(count, within(count * error));
+    }
+
+    @Test
+    void estimatesTheDistinctHashesWithTheDefaultPrecision() {
+        assertEstimates(10, 1_000);
+        assertEstimates(10, 100_000);
+        assertEstimates(10, 1_000_000);
+    }
+
+    @Test
+    void estimatesTheDistinctHashesWithAHigherPrecision() {
+        assertEstimates(14, 1_000);
+        assertEstimates(14, 100_000);
+        assertEstimates(14, 1_000_000);
+    }
+
+    @Test
+    void countsARepeatedHashOnce() {
+        final HyperLogLog sketch = new HyperLogLog(10);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.add(CardinalityAnalytics.mix(i % 100));
+        }
+
+        assertThat(new HyperLogLog(10).estimate()).isZero();
+        assertThat((double) sketch.estimate()).isCloseTo(100, within(100 * 3 * 1.04 / 32));
+    }
+
+    @Test
+    void estimatesTheUnionOfTwoSketches() {
+        final HyperLogLog first = sketch(12, 0, 60_000);
+        final HyperLogLog second = sketch(12, 40_000, 100_000);
+
+        assertThat((double) HyperLogLog.estimate(first, second)).isCloseTo(100_000, within(100_000 * 3 * 1.04 / 64));
+        assertThat(HyperLogLog.estimate(first, null)).isEqualTo(first.estimate());
+        assertThat(first.size()).isEqualTo(4096);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class SpaceSavingTest {
+
+    private static final int KEYS = 1_000;
+    private static final int STREAM = 200_000;
+    private static final int CAPACITY = 50;
+
+    /**
+     * Draws the keys of a Zipf distribution with an exponent of 1.2, in a random order
+     */
+    private static List<String> skewedStream() {
+        final double[] cumulative = new double[KEYS];
+        double total = 0;
+        for (int k = 0; k < KEYS; k++) {
+            total += 1 / Math.pow(k + 1, 1.2);
+            cumulative[k] = total;
+        }
+        final Random random = new Random(1);
+        final List<String> stream = new ArrayList<>(STREAM);
+        for (int i = 0; i < STREAM; i++) {
+            final double drawn = random.nextDouble() * total;
+            int k = 0;
+            while (cumulative[k] < drawn) {
+                k++;
+            }
+            stream.add("key-" + k);
+        }
+        return stream;
+    }
+
+    @Test
+    void reportsTheHeavyHittersOfASkewedStream() {
+        final List<String> stream = skewedStream();
+        final Map<String, Long> exact = stream.stream().collect(Collectors.groupingBy(k -> k, Collectors.counting()));
+        final SpaceSaving<String> sketch = new SpaceSaving<>(CAPACITY);
+        stream.forEach(key -> sketch.add(key, 1, UnaryOperator.identity()));
+
+        final List<Map.Entry<String, Long>> top = sketch.top(CAPACITY);
+        final Map<String, Long> counted = new HashMap<>();
+        top.forEach(entry -> counted.put(entry.getKey(), entry.getValue()));
+
+        // Every key seen more than N / capacity times is kept, overestimated by N / capacity at most
+        final long bound = STREAM / CAPACITY;
+        exact.forEach((key, count) -> {
+            if (count > bound) {
+                assertThat(counted).containsKey(key);
+            }
+            if (counted.containsKey(key)) {
+                assertThat(counted.get(key)).isBetween(count, count + bound);
+            }
+        });
+        assertThat(sketch.top(5)).extracting(Map.Entry::getKey).containsExactly("key-0", "key-1", "key-2", "key-3", "key-4");
+    }
+
+    @Test
+    void countsTheWeights() {
+        final SpaceSaving<String> sketch = new SpaceSaving<>(2);
+        sketch.add("a", 5, UnaryOperator.identity());
+        sketch.add("b", 3, UnaryOperator.identity());
+        sketch.add("a", 2, UnaryOperator.identity());
+        // Takes over the counter of b, the lightest
+        sketch.add("c", 1, UnaryOperator.identity());
+
+        assertThat(sketch.top(2)).extracting(Map.Entry::getKey, Map.Entry::getValue)
+                .containsExactly(tuple("a", 7L), tuple("c", 4L));
+        assertThat(sketch.top(1)).hasSize(1);
+    }
+
+    @Test
+    void keepsTheCopyOfANewKey() {
+        final SpaceSaving<StringBuilder> sketch = new SpaceSaving<>(2);
+        final StringBuilder reused = new StringBuilder("a");
+        sketch.add(reused, 1, key -> new StringBuilder(key));
+        reused.append("-changed");
+
+        assertThat(sketch.top(1).get(0).getKey()).isNotSameAs(reused).hasToString("a");
+    }
+
+    @Test
+    void startsOverOnceCleared() {
+        final SpaceSaving<String> sketch = new SpaceSaving<>(2);
+        sketch.add("a", 5, UnaryOperator.identity());
+        sketch.add("b", 3, UnaryOperator.identity());
+        sketch.clear();
+        sketch.add("c", 1, UnaryOperator.identity());
+
+        assertThat(sketch.top(2)).extracting(Map.Entry::getKey, Map.Entry::getValue)
+                .containsExactly(tuple("c", 1L));
+    }
+}
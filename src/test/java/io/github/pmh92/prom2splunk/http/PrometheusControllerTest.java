@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http;
+
+import io.github.pmh92.prom2splunk.analytics.CardinalityAnalytics;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.http.protobuf.RemoteWriteV2Decoder;
+import io.github.pmh92.prom2splunk.http.protobuf.StreamingRemoteWriteDecoder;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.prometheus.write.v2.Types;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.server.UnsupportedMediaTypeStatusException;
+import prometheus.Remote;
+import prometheus.Types.Label;
+import prometheus.Types.Sample;
+import prometheus.Types.TimeSeries;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrometheusControllerTest {
+
+    private final List<PrometheusSeries> written = Collections.synchronizedList(new ArrayList<>());
+    private final SplunkSink sink = new SplunkSink() {
+        @Override
+        public Mono<Void> handle(PrometheusSample sample) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+            return series.doOnNext(written::add).then();
+        }
+    };
+    private final PrometheusController controller = new PrometheusController(sink, new StreamingRemoteWriteDecoder(),
+            new RemoteWriteV2Decoder(), StageMetrics.DISABLED, ExecutionResources.DEFAULT, CardinalityAnalytics.DISABLED);
+    private final MockServerHttpResponse response = new MockServerHttpResponse();
+
+    private static MediaType contentType(String proto) {
+        return new MediaType(MediaType.parseMediaType("application/x-protobuf"),
+                Collections.singletonMap(PrometheusController.PROTO_PARAMETER, proto));
+    }
+
+    private Mono<Void> send(MediaType contentType, byte[] body) {
+        final MockServerHttpRequest request = MockServerHttpRequest.post("/write")
+                .contentType(contentType)
+                .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body)));
+        return controller.sendMetric(request.getBody(), request, response);
+    }
+
+    private static byte[] v2Request(Integer... refs) {
+        return Types.Request.newBuilder()
+                .addAllSymbols(Arrays.asList("", "__name__", "up", "http_duration"))
+                .addTimeseries(Types.TimeSeries.newBuilder()
+                        .addAllLabelsRefs(Arrays.asList(refs))
+                        .addSamples(Types.Sample.newBuilder().setTimestamp(1).setValue(1))
+                        .addSamples(Types.Sample.newBuilder().setTimestamp(2).setValue(1)))
+                .addTimeseries(Types.TimeSeries.newBuilder()
+                        .addAllLabelsRefs(Arrays.asList(1, 3))
+                        .addHistograms(Types.Histogram.newBuilder().setTimestamp(1).setCountInt(3).setSum(0.5)))
+                .build()
+                .toByteArray();
+    }
+
+    @Test
+    void reportsWhatARemoteWrite2RequestWrote() {
+        StepVerifier.create(send(contentType(PrometheusController.V2_PROTO), v2Request(1, 2))).verifyComplete();
+
+        assertThat(written).hasSize(3);
+        assertThat(response.getHeaders().getFirst(PrometheusController.SAMPLES_WRITTEN)).isEqualTo("2");
+        assertThat(response.getHeaders().getFirst(PrometheusController.HISTOGRAMS_WRITTEN)).isEqualTo("1");
+        assertThat(response.getHeaders().getFirst(PrometheusController.EXEMPLARS_WRITTEN)).isEqualTo("0");
+    }
+
+    @Test
+    void rejectsAnInvalidRemoteWrite2Request() {
+        StepVerifier.create(send(contentType(PrometheusController.V2_PROTO), v2Request(1, 4)))
+                .expectErrorSatisfies(ex -> assertThat(ex)
+                        .isInstanceOfSatisfying(ServerWebInputException.class,
+                                e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST)))
+                .verify();
+
+        assertThat(response.getHeaders()).doesNotContainKey(PrometheusController.SAMPLES_WRITTEN);
+    }
+
+    @Test
+    void acceptsARemoteWrite1Request() {
+        final byte[] body = Remote.WriteRequest.newBuilder()
+                .addTimeseries(TimeSeries.newBuilder()
+                        .addLabels(Label.newBuilder().setName("__name__").setValue("up"))
+                        .addSamples(Sample.newBuilder().setTimestamp(1).setValue(1)))
+                .build()
+                .toByteArray();
+
+        StepVerifier.create(send(contentType(PrometheusController.V1_PROTO), body)).verifyComplete();
+        StepVerifier.create(send(MediaType.parseMediaType("application/x-protobuf"), body)).verifyComplete();
+
+        assertThat(written).hasSize(2);
+        assertThat(response.getHeaders()).doesNotContainKey(PrometheusController.SAMPLES_WRITTEN);
+    }
+
+    @Test
+    void rejectsAnUnknownProto() {
+        StepVerifier.create(send(contentType("io.prometheus.write.v3.Request"), new byte[0]))
+                .expectErrorSatisfies(ex -> assertThat(ex)
+                        .isInstanceOfSatisfying(UnsupportedMediaTypeStatusException.class, e -> {
+                            assertThat(e.getStatus()).isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+                            assertThat(e.getSupportedMediaTypes()).containsExactly(
+                                    contentType(PrometheusController.V1_PROTO), contentType(PrometheusController.V2_PROTO));
+                        }))
+                .verify();
+
+        assertThat(written).isEmpty();
+    }
+}
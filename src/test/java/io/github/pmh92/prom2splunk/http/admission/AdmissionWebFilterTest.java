@@ -0,0 +1,155 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.admission;
+
+import io.github.pmh92.prom2splunk.properties.AdmissionConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionWebFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AdmissionConfigurationProperties properties = new AdmissionConfigurationProperties();
+
+    private static MockServerWebExchange write(long contentLength) {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/write").contentLength(contentLength));
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).gauge().value();
+    }
+
+    private double rejections(String reason) {
+        return registry.get("admission.rejections").tag("reason", reason).counter().count();
+    }
+
+    @Test
+    void rejectsTheRequestsOverTheBytesBudget() {
+        properties.setMaxInFlightBytes(DataSize.ofBytes(100));
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+        final Sinks.Empty<Void> first = Sinks.empty();
+        StepVerifier.create(filter.filter(write(80), exchange -> first.asMono()))
+                .then(() -> {
+                    assertThat(gauge("admission.inflight.bytes")).isEqualTo(80);
+
+                    final MockServerWebExchange rejected = write(30);
+                    StepVerifier.create(filter.filter(rejected, exchange -> Mono.error(new IllegalStateException()))).verifyComplete();
+                    assertThat(rejected.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+                    assertThat(rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+                    assertThat(rejections("bytes")).isEqualTo(1);
+
+                    StepVerifier.create(filter.filter(write(20), exchange -> Mono.empty())).verifyComplete();
+                })
+                .then(first::tryEmitEmpty)
+                .verifyComplete();
+
+        assertThat(gauge("admission.inflight.bytes")).isZero();
+        assertThat(gauge("admission.inflight.requests")).isZero();
+    }
+
+    @Test
+    void admitsARequestOverTheBudgetOnItsOwn() {
+        properties.setMaxInFlightBytes(DataSize.ofBytes(100));
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+        final MockServerWebExchange exchange = write(500);
+
+        StepVerifier.create(filter.filter(exchange, e -> Mono.empty())).verifyComplete();
+
+        assertThat(exchange.getResponse().getStatusCode()).isNull();
+        assertThat(rejections("bytes")).isZero();
+    }
+
+    @Test
+    void chargesTheSizeOfTheDecompressedBody() {
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+
+        StepVerifier.create(filter.filter(write(80), exchange -> Mono.fromRunnable(() -> {
+                    exchange.<AdmittedBytes>getAttribute(AdmittedBytes.ATTRIBUTE).charge(400);
+                    assertThat(gauge("admission.inflight.bytes")).isEqualTo(400);
+                })))
+                .verifyComplete();
+
+        assertThat(gauge("admission.inflight.bytes")).isZero();
+    }
+
+    @Test
+    void rejectsTheRequestsOverTheConcurrencyLimit() {
+        properties.setInitialLimit(1);
+        properties.setMinLimit(1);
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+
+        StepVerifier.create(filter.filter(write(10), exchange -> Mono.never()))
+                .then(() -> {
+                    final MockServerWebExchange rejected = write(20);
+                    StepVerifier.create(filter.filter(rejected, exchange -> Mono.empty())).verifyComplete();
+                    assertThat(rejected.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+                    assertThat(rejections("concurrency")).isEqualTo(1);
+                    assertThat(gauge("admission.inflight.bytes")).isEqualTo(10);
+                })
+                .thenCancel()
+                .verify();
+
+        assertThat(gauge("admission.inflight.requests")).isZero();
+    }
+
+    @Test
+    void leavesTheLimitUnchangedOnNeutralOutcomes() {
+        properties.setInitialLimit(10);
+        properties.setBackoffRatio(0.5);
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+
+        StepVerifier.create(filter.filter(write(10), exchange -> Mono.never())).thenCancel().verify();
+        StepVerifier.create(filter.filter(write(10), exchange -> Mono.fromRunnable(
+                () -> exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST)))).verifyComplete();
+        StepVerifier.create(filter.filter(write(10), exchange -> Mono.error(
+                new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE)))).verifyError();
+        StepVerifier.create(filter.filter(write(10), exchange -> Mono.error(
+                new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "busy", new RejectedExecutionException())))).verifyError();
+
+        assertThat(gauge("admission.limit")).isEqualTo(10);
+        assertThat(gauge("admission.inflight.requests")).isZero();
+    }
+
+    @Test
+    void decreasesTheLimitOnSinkErrors() {
+        properties.setInitialLimit(10);
+        properties.setBackoffRatio(0.5);
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+
+        StepVerifier.create(filter.filter(write(10), exchange -> Mono.error(new IllegalStateException("sink down")))).verifyError();
+
+        assertThat(gauge("admission.limit")).isEqualTo(5);
+    }
+
+    @Test
+    void letsTheOtherRequestsThrough() {
+        properties.setMaxInFlightBytes(DataSize.ofBytes(1));
+        final AdmissionWebFilter filter = new AdmissionWebFilter(properties, registry);
+        final MockServerWebExchange metrics = MockServerWebExchange.from(MockServerHttpRequest.get("/actuator/prometheus"));
+
+        StepVerifier.create(filter.filter(metrics, exchange -> Mono.empty())).verifyComplete();
+
+        assertThat(gauge("admission.inflight.requests")).isZero();
+        assertThat(metrics.getAttributes()).doesNotContainKey(AdmittedBytes.ATTRIBUTE);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AimdLimiterTest {
+
+    private static AimdLimiter limiter(int initialLimit) {
+        return new AimdLimiter(initialLimit, 2, 100, 1, TimeUnit.SECONDS, 0.5);
+    }
+
+    @Test
+    void rejectsTheRequestsOverTheLimit() {
+        final AimdLimiter limiter = limiter(2);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+
+        limiter.release();
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void growsByOneEveryWindowOfFastRequests() {
+        final AimdLimiter limiter = limiter(10);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+            limiter.release(System.nanoTime(), false);
+        }
+
+        assertThat(limiter.getLimit()).isBetween(10.9, 11.0);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void decreasesOnFailedRequests() {
+        final AimdLimiter limiter = limiter(40);
+
+        limiter.tryAcquire();
+        limiter.release(System.nanoTime(), true);
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    void decreasesOnSlowRequests() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(40, 2, 100, 1, TimeUnit.MILLISECONDS, 0.5);
+
+        limiter.tryAcquire();
+        final long start = System.nanoTime();
+        Thread.sleep(5);
+        limiter.release(start, false);
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    void decreasesAtMostOncePerWindow() {
+        final AimdLimiter limiter = limiter(40);
+        final long burst = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+        }
+
+        for (int i = 0; i < 5; i++) {
+            limiter.release(burst, true);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(20);
+
+        limiter.tryAcquire();
+        limiter.release(System.nanoTime(), true);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void neverDecreasesBelowTheMinimum() {
+        final AimdLimiter limiter = limiter(4);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+            limiter.release(System.nanoTime(), true);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void leavesTheLimitUnchangedOnNeutralReleases() {
+        final AimdLimiter limiter = limiter(10);
+
+        limiter.tryAcquire();
+        limiter.release();
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+}
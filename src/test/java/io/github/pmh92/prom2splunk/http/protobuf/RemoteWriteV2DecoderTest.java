@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.prometheus.write.v2.Types;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RemoteWriteV2DecoderTest {
+
+    private static final List<String> SYMBOLS = Arrays.asList("", "__name__", "up", "job", "node", "instance", "a", "b", "http_duration");
+
+    private final WriteStats stats = new WriteStats();
+
+    private static DataBuffer request(Types.TimeSeries.Builder... series) {
+        final Types.Request.Builder request = Types.Request.newBuilder().addAllSymbols(SYMBOLS);
+        for (Types.TimeSeries.Builder s : series) {
+            request.addTimeseries(s);
+        }
+        return DefaultDataBufferFactory.sharedInstance.wrap(request.build().toByteArray());
+    }
+
+    private static Types.TimeSeries.Builder series(Integer... refs) {
+        return Types.TimeSeries.newBuilder().addAllLabelsRefs(Arrays.asList(refs));
+    }
+
+    private static Types.Sample sample(long timestamp, double value) {
+        return Types.Sample.newBuilder().setTimestamp(timestamp).setValue(value).build();
+    }
+
+    /**
+     * Describes the series, so that they can be compared
+     */
+    private static List<String> describe(List<PrometheusSeries> series) {
+        final List<String> described = new ArrayList<>();
+        for (PrometheusSeries s : series) {
+            final StringBuilder description = new StringBuilder(new TreeMap<>(s.getLabels()).toString());
+            for (int i = 0; i < s.size(); i++) {
+                description.append(' ').append(s.getTimestamp(i)).append('=').append(s.getValue(i));
+            }
+            described.add(description.toString());
+        }
+        return described;
+    }
+
+    private List<String> decode(RemoteWriteV2Decoder decoder, DataBuffer request) {
+        return describe(decoder.decode(request, stats).collectList().block());
+    }
+
+    @Test
+    void resolvesTheLabelsAgainstTheSymbols() {
+        final DataBuffer request = request(
+                series(1, 2, 3, 4, 5, 6).addSamples(sample(1, 1)).addSamples(sample(2, 0)),
+                series(1, 2, 3, 4, 5, 7).addSamples(sample(1, 1)),
+                series(1, 2, 5, 0).addSamples(sample(3, 1)));
+
+        assertThat(decode(new RemoteWriteV2Decoder(), request)).containsExactly(
+                "{__name__=up, instance=a, job=node} 1=1.0 2=0.0",
+                "{__name__=up, instance=b, job=node} 1=1.0",
+                "{__name__=up, instance=} 3=1.0");
+        assertThat(stats.getSamples()).isEqualTo(4);
+        assertThat(stats.getHistograms()).isZero();
+    }
+
+    @Test
+    void looksTheKnownSeriesUpInTheCache() {
+        final SeriesCache cache = new SeriesCache(100, new SimpleMeterRegistry());
+        final RemoteWriteV2Decoder decoder = new RemoteWriteV2Decoder(cache, StageMetrics.DISABLED);
+        final DataBuffer request = request(series(1, 2, 5, 6).addSamples(sample(1, 1)));
+
+        final PrometheusSeries first = decoder.decode(request, stats).blockFirst();
+        final PrometheusSeries second = decoder.decode(request, stats).blockFirst();
+
+        assertThat(second.getLabels()).isSameAs(first.getLabels());
+        assertThat(describe(Arrays.asList(first, second))).containsOnly("{__name__=up, instance=a} 1=1.0");
+    }
+
+    @Test
+    void failsOnAReferenceOutOfTheSymbols() {
+        StepVerifier.create(new RemoteWriteV2Decoder().decode(request(series(1, 2, 5, SYMBOLS.size()).addSamples(sample(1, 1))), stats))
+                .expectErrorSatisfies(ex -> assertThat(ex)
+                        .isInstanceOf(InvalidProtocolBufferException.class)
+                        .hasMessageContaining("out of range: 9"))
+                .verify();
+        // Read as a negative int
+        StepVerifier.create(new RemoteWriteV2Decoder().decode(request(series(1, 2, 5, -1).addSamples(sample(1, 1))), stats))
+                .expectErrorSatisfies(ex -> assertThat(ex)
+                        .isInstanceOf(InvalidProtocolBufferException.class)
+                        .hasMessageContaining("out of range: 4294967295"))
+                .verify();
+        StepVerifier.create(new RemoteWriteV2Decoder().decode(request(series(1, 2, 5).addSamples(sample(1, 1))), stats))
+                .expectError(InvalidProtocolBufferException.class)
+                .verify();
+    }
+
+    @Test
+    void writesTheHistogramsAsTheirCountAndSum() {
+        final DataBuffer request = request(series(1, 8, 3, 4)
+                .addHistograms(Types.Histogram.newBuilder().setTimestamp(1).setCountInt(10).setSum(2.5).setSchema(3).addPositiveDeltas(4))
+                .addHistograms(Types.Histogram.newBuilder().setTimestamp(2).setCountFloat(12.5).setSum(3.75))
+                .addHistograms(Types.Histogram.newBuilder().setTimestamp(3).setCountInt(-1)));
+
+        assertThat(decode(new RemoteWriteV2Decoder(), request)).containsExactly(
+                "{__name__=http_duration_count, job=node} 1=10.0 2=12.5 3=1.8446744073709552E19",
+                "{__name__=http_duration_sum, job=node} 1=2.5 2=3.75 3=0.0");
+        assertThat(stats.getHistograms()).isEqualTo(3);
+        assertThat(stats.getSamples()).isZero();
+    }
+
+    @Test
+    void writesTheSamplesAndHistogramsOfASeries() {
+        final DataBuffer request = request(series(1, 8)
+                .addSamples(sample(1, 5))
+                .addHistograms(Types.Histogram.newBuilder().setTimestamp(1).setCountInt(2).setSum(1)));
+
+        assertThat(decode(new RemoteWriteV2Decoder(), request)).containsExactly(
+                "{__name__=http_duration} 1=5.0",
+                "{__name__=http_duration_count} 1=2.0",
+                "{__name__=http_duration_sum} 1=1.0");
+    }
+
+    @Test
+    void skipsTheSeriesWithoutSamples() {
+        final DataBuffer request = request(
+                series(1, 2).addExemplars(Types.Exemplar.newBuilder().setValue(1).setTimestamp(1))
+                        .setMetadata(Types.Metadata.newBuilder().setType(Types.Metadata.MetricType.METRIC_TYPE_GAUGE).setHelpRef(2))
+                        .setCreatedTimestamp(1),
+                series(1, 2).addSamples(sample(2, 1)));
+
+        assertThat(decode(new RemoteWriteV2Decoder(), request)).containsExactly("{__name__=up} 2=1.0");
+        assertThat(stats.getSamples()).isEqualTo(1);
+        assertThat(stats.getExemplars()).isZero();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.protobuf;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnknownFieldSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import prometheus.Remote;
+import prometheus.Types;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Decodes requests built with the generated messages, checking the series against the ones {@link ProtobufRemoteWriteDecoder} decodes
+ */
+class StreamingRemoteWriteDecoderTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SeriesCache cache = new SeriesCache(100, registry);
+
+    private static DataBuffer wrap(byte[] bytes) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(bytes);
+    }
+
+    private static Types.Label label(String name, String value) {
+        return Types.Label.newBuilder().setName(name).setValue(value).build();
+    }
+
+    private static Types.Sample sample(long timestamp, double value) {
+        return Types.Sample.newBuilder().setTimestamp(timestamp).setValue(value).build();
+    }
+
+    private static Types.TimeSeries timeSeries(int i) {
+        return Types.TimeSeries.newBuilder()
+                .addLabels(label("__name__", "metric_" + (i % 3)))
+                .addLabels(label("instance", "host-" + i))
+                .addLabels(label("job", "node"))
+                .addSamples(sample(1_600_000_000_000L + i, i))
+                .addSamples(sample(1_600_000_015_000L + i, i + 0.5))
+                .build();
+    }
+
+    private static byte[] request(int series) {
+        final Remote.WriteRequest.Builder request = Remote.WriteRequest.newBuilder();
+        for (int i = 0; i < series; i++) {
+            request.addTimeseries(timeSeries(i));
+        }
+        return request.build().toByteArray();
+    }
+
+    /**
+     * Describes the series, so that the ones of both decoders can be compared
+     */
+    private static List<String> describe(List<PrometheusSeries> series) {
+        final List<String> described = new ArrayList<>();
+        for (PrometheusSeries s : series) {
+            final StringBuilder description = new StringBuilder(new TreeMap<>(s.getLabels()).toString());
+            for (int i = 0; i < s.size(); i++) {
+                description.append(' ').append(s.getTimestamp(i)).append('=').append(s.getValue(i));
+            }
+            described.add(description.toString());
+        }
+        return described;
+    }
+
+    private static List<String> decode(RemoteWriteDecoder decoder, byte[] body) {
+        return describe(decoder.decode(wrap(body)).collectList().block());
+    }
+
+    private double cacheMisses() {
+        return registry.get("cache.gets").tag("cache", "series").tag("result", "miss").functionCounter().count();
+    }
+
+    @Test
+    void decodesLikeTheProtobufDecoder() {
+        final byte[] body = request(20);
+        final List<String> expected = decode(new ProtobufRemoteWriteDecoder(), body);
+
+        assertThat(expected).hasSize(20);
+        assertThat(decode(new StreamingRemoteWriteDecoder(), body)).isEqualTo(expected);
+        assertThat(decode(new StreamingRemoteWriteDecoder(cache), body)).isEqualTo(expected);
+        assertThat(decode(new StreamingRemoteWriteDecoder(cache), body)).isEqualTo(expected);
+        assertThat(cacheMisses()).isEqualTo(20);
+    }
+
+    @Test
+    void skipsTheUnknownFields() {
+        final UnknownFieldSet unknown = UnknownFieldSet.newBuilder()
+                .addField(9, UnknownFieldSet.Field.newBuilder().addVarint(42).build())
+                .addField(10, UnknownFieldSet.Field.newBuilder().addLengthDelimited(ByteString.copyFromUtf8("unknown")).build())
+                .addField(11, UnknownFieldSet.Field.newBuilder().addFixed64(7).addFixed32(3).build())
+                .build();
+        final Remote.WriteRequest.Builder request = Remote.WriteRequest.newBuilder().setUnknownFields(unknown);
+        for (int i = 0; i < 5; i++) {
+            final Types.TimeSeries.Builder series = timeSeries(i).toBuilder().setUnknownFields(unknown);
+            series.setLabels(0, series.getLabels(0).toBuilder().setUnknownFields(unknown));
+            series.setSamples(1, series.getSamples(1).toBuilder().setUnknownFields(unknown));
+            request.addTimeseries(series);
+        }
+        final byte[] body = request.build().toByteArray();
+        final List<String> expected = decode(new ProtobufRemoteWriteDecoder(), body);
+
+        assertThat(expected).hasSize(5);
+        assertThat(decode(new StreamingRemoteWriteDecoder(), body)).isEqualTo(expected);
+        assertThat(decode(new StreamingRemoteWriteDecoder(cache), body)).isEqualTo(expected);
+    }
+
+    @Test
+    void decodesTheLabelsLaidOutBetweenTheSamples() throws IOException {
+        final Types.TimeSeries series = timeSeries(1);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CodedOutputStream timeSeries = CodedOutputStream.newInstance(bytes);
+        timeSeries.writeMessage(1, series.getLabels(0));
+        timeSeries.writeMessage(2, series.getSamples(0));
+        timeSeries.writeMessage(1, series.getLabels(1));
+        timeSeries.writeMessage(2, series.getSamples(1));
+        timeSeries.writeMessage(1, series.getLabels(2));
+        timeSeries.flush();
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        final CodedOutputStream output = CodedOutputStream.newInstance(request);
+        output.writeByteArray(1, bytes.toByteArray());
+        output.flush();
+        final byte[] body = request.toByteArray();
+
+        final List<String> expected = decode(new ProtobufRemoteWriteDecoder(), body);
+
+        assertThat(expected).containsExactly("{__name__=metric_1, instance=host-1, job=node} 1600000000001=1.0 1600000015001=1.5");
+        assertThat(decode(new StreamingRemoteWriteDecoder(cache), body)).isEqualTo(expected);
+        assertThat(cacheMisses()).isZero();
+    }
+
+    @Test
+    void decodesTheEmptySeries() {
+        final byte[] body = Remote.WriteRequest.newBuilder()
+                .addTimeseries(Types.TimeSeries.newBuilder().addLabels(label("__name__", "up")))
+                .addTimeseries(Types.TimeSeries.newBuilder().addSamples(sample(1, 1)))
+                .addTimeseries(Types.TimeSeries.newBuilder())
+                .build()
+                .toByteArray();
+        final List<String> expected = decode(new ProtobufRemoteWriteDecoder(), body);
+
+        assertThat(expected).containsExactly("{__name__=up}", "{} 1=1.0", "{}");
+        assertThat(decode(new StreamingRemoteWriteDecoder(), body)).isEqualTo(expected);
+        assertThat(decode(new StreamingRemoteWriteDecoder(cache), body)).isEqualTo(expected);
+        assertThat(decode(new StreamingRemoteWriteDecoder(cache), new byte[0])).isEmpty();
+    }
+
+    @Test
+    void decodesTheChunksOfASplitRequest() throws IOException {
+        final byte[] body = request(10);
+        final List<String> expected = decode(new ProtobufRemoteWriteDecoder(), body);
+        final StreamingRemoteWriteDecoder decoder = new StreamingRemoteWriteDecoder(cache);
+
+        final List<DataBuffer> chunks = decoder.split(wrap(body), 3);
+        final List<String> decoded = new ArrayList<>();
+        for (DataBuffer chunk : chunks) {
+            decoded.addAll(describe(decoder.decode(chunk).collectList().block()));
+        }
+
+        assertThat(chunks).hasSize(4);
+        assertThat(decoded).isEqualTo(expected);
+        assertThat(decoder.split(wrap(body), 10)).hasSize(1);
+    }
+}
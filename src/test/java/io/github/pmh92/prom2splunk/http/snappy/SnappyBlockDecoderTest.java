@@ -0,0 +1,280 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.http.snappy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Decodes bodies compressed by snappy-java, and hand-written bodies using the elements snappy-java does not emit, checking the result
+ * against what snappy-java decompresses
+ */
+class SnappyBlockDecoderTest {
+
+    private static final DefaultDataBufferFactory FACTORY = new DefaultDataBufferFactory();
+    private static final long MAX_LENGTH = 16 * 1024 * 1024;
+    private static final long UNKNOWN_LENGTH = -1L;
+
+    private static byte[] decode(byte[] body, long compressedLength, int... splits) {
+        final SnappyBlockDecoder decoder = new SnappyBlockDecoder(MAX_LENGTH, compressedLength, size -> {
+        });
+        try {
+            int from = 0;
+            for (int split : splits) {
+                decoder.decode(FACTORY.wrap(Arrays.copyOfRange(body, from, split)));
+                from = split;
+            }
+            decoder.decode(FACTORY.wrap(Arrays.copyOfRange(body, from, body.length)));
+            final DataBuffer decoded = decoder.finish();
+            final byte[] bytes = new byte[decoded.readableByteCount()];
+            decoded.read(bytes);
+            DataBufferUtils.release(decoded);
+            return bytes;
+        } finally {
+            decoder.release();
+        }
+    }
+
+    private static byte[] decode(byte[] body, int... splits) {
+        return decode(body, body.length, splits);
+    }
+
+    private static byte[] text(int length) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < length; i++) {
+            text.append("node_cpu_seconds_total{cpu=\"").append(i % 8).append("\",mode=\"idle\"} ").append(i * 31).append('\n');
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int length, long seed) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a body by hand, from the uncompressed length and the raw bytes of its elements
+     */
+    private static final class Body {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Body(long length) {
+            while (length >= 0x80) {
+                out.write((int) (length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            out.write((int) length);
+        }
+
+        /**
+         * Writes a literal with its length in the given number of extra bytes, 0 for a length held by the tag
+         */
+        Body literal(byte[] literal, int lengthBytes) {
+            if (lengthBytes == 0) {
+                out.write((literal.length - 1) << 2);
+            } else {
+                out.write((59 + lengthBytes) << 2);
+                bytes(literal.length - 1, lengthBytes);
+            }
+            out.write(literal, 0, literal.length);
+            return this;
+        }
+
+        Body copy1(int offset, int length) {
+            out.write(((offset >>> 8) << 5) | ((length - 4) << 2) | 1);
+            out.write(offset & 0xFF);
+            return this;
+        }
+
+        Body copy2(int offset, int length) {
+            out.write(((length - 1) << 2) | 2);
+            bytes(offset, 2);
+            return this;
+        }
+
+        Body copy4(int offset, int length) {
+            out.write(((length - 1) << 2) | 3);
+            bytes(offset, 4);
+            return this;
+        }
+
+        Body raw(int... bytes) {
+            for (int b : bytes) {
+                out.write(b);
+            }
+            return this;
+        }
+
+        private void bytes(long value, int count) {
+            for (int i = 0; i < count; i++) {
+                out.write((int) (value >>> (8 * i)) & 0xFF);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void decodesWhatSnappyCompresses() throws IOException {
+        for (byte[] uncompressed : Arrays.asList(new byte[0], text(1), text(100_000), random(100_000, 1), text(300_000))) {
+            assertThat(decode(Snappy.compress(uncompressed))).isEqualTo(uncompressed);
+        }
+    }
+
+    @Test
+    void decodesABodySplitAtEveryByte() throws IOException {
+        final byte[] uncompressed = new byte[3_000];
+        System.arraycopy(text(2_000), 0, uncompressed, 0, 2_000);
+        System.arraycopy(random(1_000, 2), 0, uncompressed, 2_000, 1_000);
+        final byte[] body = Snappy.compress(uncompressed);
+
+        for (int split = 0; split <= body.length; split++) {
+            assertThat(decode(body, split)).as("split at %d", split).isEqualTo(uncompressed);
+        }
+        final int[] everyByte = new int[body.length - 1];
+        Arrays.setAll(everyByte, i -> i + 1);
+        assertThat(decode(body, everyByte)).isEqualTo(uncompressed);
+    }
+
+    @Test
+    void decodesABodyOfUnknownLength() throws IOException {
+        final byte[] uncompressed = text(200_000);
+        final byte[] body = Snappy.compress(uncompressed);
+        final int[] splits = new int[body.length / 100];
+        Arrays.setAll(splits, i -> (i + 1) * 100);
+
+        assertThat(decode(body, UNKNOWN_LENGTH, splits)).isEqualTo(uncompressed);
+    }
+
+    @Test
+    void decodesTheLiteralsOfEveryLengthTag() throws IOException {
+        final byte[] inline = random(60, 3);
+        final byte[] oneByte = random(256, 4);
+        final byte[] twoBytes = random(65_536, 5);
+        final byte[] threeBytes = random(70_000, 6);
+        final byte[] fourBytes = random(10, 7);
+        final byte[] body = new Body(inline.length + oneByte.length + twoBytes.length + threeBytes.length + fourBytes.length)
+                .literal(inline, 0)
+                .literal(oneByte, 1)
+                .literal(twoBytes, 2)
+                .literal(threeBytes, 3)
+                .literal(fourBytes, 4)
+                .toByteArray();
+
+        final byte[] decoded = decode(body);
+
+        assertThat(decoded).isEqualTo(Snappy.uncompress(body));
+        assertThat(Arrays.copyOfRange(decoded, decoded.length - 10, decoded.length)).isEqualTo(fourBytes);
+    }
+
+    @Test
+    void decodesTheCopiesOfEveryOffsetTag() throws IOException {
+        final byte[] literal = random(3_000, 8);
+        final byte[] body = new Body(3_000 + 11 + 64 + 64 + 1)
+                .literal(literal, 2)
+                .copy1(2_047, 11)
+                .copy2(3_000, 64)
+                .copy4(2_999, 64)
+                .copy4(1, 1)
+                .toByteArray();
+
+        final byte[] decoded = decode(body);
+
+        assertThat(decoded).isEqualTo(Snappy.uncompress(body));
+        assertThat(Arrays.copyOfRange(decoded, 3_000, 3_011)).isEqualTo(Arrays.copyOfRange(literal, 953, 964));
+    }
+
+    @Test
+    void decodesOverlappingCopies() throws IOException {
+        final byte[] body = new Body(2 + 10 + 64 + 40)
+                .literal("ab".getBytes(StandardCharsets.UTF_8), 0)
+                .copy1(1, 10)
+                .copy2(2, 64)
+                .copy4(3, 40)
+                .toByteArray();
+
+        final byte[] decoded = decode(body);
+
+        assertThat(decoded).isEqualTo(Snappy.uncompress(body));
+        assertThat(new String(decoded, 0, 12, StandardCharsets.UTF_8)).isEqualTo("abbbbbbbbbbb");
+    }
+
+    @Test
+    void rejectsALengthAboveWhatTheBodyMayExpandTo() {
+        final byte[] body = new Body(22 * 6 + 1).copy1(1, 4).raw(0, 0).toByteArray();
+
+        assertThatThrownBy(() -> decode(body))
+                .isInstanceOf(ServerWebInputException.class)
+                .hasMessageContaining("exceeds what");
+    }
+
+    @Test
+    void rejectsALengthAboveTheLimit() {
+        final byte[] body = new Body(MAX_LENGTH + 1).toByteArray();
+
+        assertThatThrownBy(() -> decode(body, UNKNOWN_LENGTH))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatus()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+    }
+
+    @Test
+    void rejectsATruncatedBody() throws IOException {
+        final byte[] body = Snappy.compress(text(10_000));
+
+        for (int length : new int[]{0, 1, body.length / 2, body.length - 1}) {
+            assertThatThrownBy(() -> decode(Arrays.copyOf(body, length)))
+                    .as("truncated at %d", length)
+                    .isInstanceOf(ServerWebInputException.class);
+        }
+    }
+
+    @Test
+    void rejectsInvalidElements() {
+        assertThatThrownBy(() -> decode(new Body(10).copy1(5, 4).toByteArray()))
+                .isInstanceOf(ServerWebInputException.class)
+                .hasMessageContaining("Invalid copy offset");
+        assertThatThrownBy(() -> decode(new Body(2).literal(new byte[4], 0).toByteArray()))
+                .isInstanceOf(ServerWebInputException.class)
+                .hasMessageContaining("exceeds the uncompressed length");
+        assertThatThrownBy(() -> decode(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80}, UNKNOWN_LENGTH))
+                .isInstanceOf(ServerWebInputException.class)
+                .hasMessageContaining("Invalid uncompressed length");
+    }
+
+    @Test
+    void rejectsGarbageWithABadRequest() {
+        for (long seed = 0; seed < 1_000; seed++) {
+            final byte[] body = random(1 + (int) (seed % 200), seed);
+            try {
+                decode(body);
+            } catch (ResponseStatusException ex) {
+                // Expected for most of the bodies
+            }
+        }
+    }
+}
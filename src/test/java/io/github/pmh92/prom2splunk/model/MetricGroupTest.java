@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class MetricGroupTest {
+
+    private static PrometheusSeries series(String name, String instance, long[] timestamps, double[] values) {
+        final Map<String, String> labels = new HashMap<>();
+        labels.put("__name__", name);
+        labels.put("instance", instance);
+        return new PrometheusSeries(LabelSet.of(labels), timestamps, values, timestamps.length);
+    }
+
+    /**
+     * Walks every event of the group as a list of "timestamp name=value..." strings
+     */
+    private static List<String> events(MetricGroup group) {
+        final List<String> events = new ArrayList<>();
+        final MetricGroup.Cursor cursor = group.cursor();
+        while (cursor.next()) {
+            final StringBuilder event = new StringBuilder().append(cursor.getTimestamp());
+            for (int i = 0; i < cursor.size(); i++) {
+                event.append(' ').append(cursor.getName(i)).append('=').append(cursor.getValue(i));
+            }
+            events.add(event.toString());
+        }
+        return events;
+    }
+
+    @Test
+    void groupsTheSeriesByTheirLabelsButTheName() {
+        final List<MetricGroup> groups = MetricGroup.group(Arrays.asList(
+                series("up", "b", new long[]{1}, new double[]{1}),
+                series("up", "a", new long[]{1}, new double[]{1}),
+                series("load", "b", new long[]{1}, new double[]{2})));
+
+        assertThat(groups).hasSize(2);
+        assertThat(groups.get(0).getDimensions().getLabels()).containsOnly(entry("instance", "b"));
+        assertThat(groups.get(0).getSeries()).hasSize(2);
+        assertThat(groups.get(1).getDimensions().getLabels()).containsOnly(entry("instance", "a"));
+        assertThat(groups.get(1).getSeries()).hasSize(1);
+    }
+
+    @Test
+    void walksTheSamplesInTimestampOrder() {
+        final MetricGroup group = MetricGroup.group(Arrays.asList(
+                series("up", "a", new long[]{1, 3}, new double[]{1, 1}),
+                series("load", "a", new long[]{2, 3}, new double[]{0.5, 0.75}))).get(0);
+
+        assertThat(events(group)).containsExactly("1 up=1.0", "2 load=0.5", "3 up=1.0 load=0.75");
+    }
+
+    @Test
+    void skipsTheNonFiniteSamples() {
+        final MetricGroup group = MetricGroup.group(Arrays.asList(
+                series("up", "a", new long[]{1, 2}, new double[]{Double.NaN, 1}),
+                series("load", "a", new long[]{1, 3}, new double[]{0.5, Double.POSITIVE_INFINITY}))).get(0);
+
+        assertThat(events(group)).containsExactly("1 load=0.5", "2 up=1.0");
+    }
+
+    @Test
+    void keepsTheLastValueOfARepeatedName() {
+        final MetricGroup group = MetricGroup.group(Arrays.asList(
+                series("up", "a", new long[]{1, 2}, new double[]{1, 1}),
+                series("load", "a", new long[]{1}, new double[]{0.5}),
+                series("up", "a", new long[]{1}, new double[]{0}))).get(0);
+
+        assertThat(events(group)).containsExactly("1 up=0.0 load=0.5", "2 up=1.0");
+    }
+
+    @Test
+    void keepsTheFiniteValueOfARepeatedName() {
+        final MetricGroup group = MetricGroup.group(Arrays.asList(
+                series("up", "a", new long[]{1}, new double[]{1}),
+                series("up", "a", new long[]{1}, new double[]{Double.NaN}))).get(0);
+
+        assertThat(events(group)).containsExactly("1 up=1.0");
+    }
+
+    @Test
+    void countsTheEvents() {
+        final MetricGroup group = MetricGroup.group(Arrays.asList(
+                series("up", "a", new long[]{1, 2, 3}, new double[]{1, Double.NaN, 1}),
+                series("load", "a", new long[]{3, 4}, new double[]{0.5, 0.75}))).get(0);
+
+        assertThat(group.countEvents()).isEqualTo(3);
+    }
+
+    @Test
+    void countsTheEventsWhileWalkingThem() {
+        final MetricGroup group = MetricGroup.group(Arrays.asList(
+                series("up", "a", new long[]{1, 2}, new double[]{1, 1}),
+                series("load", "a", new long[]{2, 3}, new double[]{0.5, 0.75}))).get(0);
+
+        assertThat(events(group)).hasSize(3);
+        assertThat(group.countEvents()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DedicatedSinkConnectionTest {
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private DisposableServer server;
+    private DedicatedSinkConnection connection;
+
+    @BeforeEach
+    void startServer() {
+        server = TcpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle((in, out) -> in.receive().then())
+                .bindNow();
+        // Counted on the client side, as the connection is handed out once connected
+        connection = new DedicatedSinkConnection(TcpClient.create()
+                .host("localhost")
+                .port(server.port())
+                .doOnConnected(c -> connections.incrementAndGet())
+                .connect());
+    }
+
+    @AfterEach
+    void stopServer() {
+        connection.dispose();
+        server.disposeNow();
+    }
+
+    @Test
+    void writesOneAfterTheOther() {
+        final AtomicInteger inProgress = new AtomicInteger();
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+
+        StepVerifier.create(Flux.range(0, 10).flatMap(i -> connection.write(c -> Mono.defer(() -> {
+                    assertThat(inProgress.incrementAndGet()).isEqualTo(1);
+                    order.add(i);
+                    return Mono.delay(Duration.ofMillis(10)).then(Mono.fromRunnable(inProgress::decrementAndGet));
+                }))))
+                .verifyComplete();
+
+        assertThat(order).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        assertThat(connections.get()).isEqualTo(1);
+    }
+
+    @Test
+    void reconnectsOnceAWriteFails() {
+        StepVerifier.create(connection.write(c -> Mono.error(new IllegalStateException("failed")))).verifyError();
+        StepVerifier.create(connection.write(c -> Mono.empty())).verifyComplete();
+
+        assertThat(connections.get()).isEqualTo(2);
+    }
+
+    @Test
+    void doesNotRunAWriteCancelledWhileWaiting() {
+        final AtomicInteger written = new AtomicInteger();
+        final Mono<Void> slow = connection.write(c -> Mono.delay(Duration.ofMillis(200)).then());
+
+        StepVerifier.create(Mono.when(slow, connection.write(c -> Mono.fromRunnable(written::incrementAndGet))
+                        .timeout(Duration.ofMillis(50), Mono.empty())))
+                .verifyComplete();
+        StepVerifier.create(connection.write(c -> Mono.fromRunnable(written::incrementAndGet))).verifyComplete();
+
+        assertThat(written.get()).isEqualTo(1);
+    }
+
+    @Test
+    void failsTheWritesOnceDisposed() {
+        connection.dispose();
+
+        StepVerifier.create(connection.write(c -> Mono.empty())).verifyError(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.metrics.BufferMetrics;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.TcpSinkConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Writes encoded events to a stub sink under paranoid leak detection, so that every buffer not released along the way is counted by
+ * {@code buffers.leaks}. The counting detector must be installed before the first buffer is allocated, which the {@code leak-detection}
+ * profile ensures by running every test class in its own JVM.
+ */
+class DefaultTcpSplunkSinkLeakTest {
+
+    private static final SimpleMeterRegistry BUFFER_REGISTRY = new SimpleMeterRegistry();
+    private static final ByteBufAllocator ALLOC;
+
+    static {
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        ALLOC = new PooledByteBufAllocator(true);
+        new BufferMetrics(ALLOC).bindTo(BUFFER_REGISTRY);
+    }
+
+    private final AtomicLong received = new AtomicLong();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TcpSinkConfigurationProperties properties = new TcpSinkConfigurationProperties();
+    private DisposableServer server;
+    private DefaultTcpSplunkSink sink;
+
+    @BeforeEach
+    void startServer() {
+        server = TcpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle((in, out) -> in.receive().doOnNext(buf -> received.addAndGet(buf.readableBytes())).then())
+                .bindNow();
+        properties.setHost("localhost");
+        properties.setPort(server.port());
+        properties.setMaxConnections(4);
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (sink != null) {
+            sink.close();
+        }
+        server.disposeNow();
+    }
+
+    private DefaultTcpSplunkSink sink() {
+        final ExecutionResources execution = new ExecutionResources(null, null, false, ALLOC, null, null, 0, 0);
+        sink = new DefaultTcpSplunkSink(registry, properties, new ObjectMapper(), StageMetrics.DISABLED, execution);
+        return sink;
+    }
+
+    private static Flux<PrometheusSeries> series(int count) {
+        return Flux.range(0, count).map(i -> {
+            final Map<String, String> labels = new HashMap<>();
+            labels.put("__name__", "metric_" + (i % 10));
+            labels.put("instance", "host-" + i);
+            return new PrometheusSeries(LabelSet.of(labels), new long[]{1_600_000_000_000L, 1_600_000_015_000L}, new double[]{i, i + 1}, 2);
+        });
+    }
+
+    private static Flux<PrometheusSample> samples(int count) {
+        return Flux.range(0, count).map(i -> new PrometheusSample(1_600_000_000_000L + i,
+                Collections.singletonMap("__name__", "metric_" + i), i));
+    }
+
+    /**
+     * Collects the buffers no longer referenced, then allocates, so the leak detector reports the leaked ones
+     */
+    private static double leaks() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            ALLOC.buffer(16).release();
+        }
+        return BUFFER_REGISTRY.get("buffers.leaks").counter().count();
+    }
+
+    @Test
+    void releasesTheBatchedSeries() {
+        properties.getBatch().setEnabled(true);
+        properties.getBatch().setMaxEvents(7);
+        properties.getBatch().setMaxLinger(Duration.ofMillis(10));
+
+        StepVerifier.create(sink().handleSeries(series(500))).verifyComplete();
+
+        assertThat(registry.get("sink.events").tag("exception", "None").counter().count()).isEqualTo(1000);
+        assertThat(received.get()).isPositive();
+        assertThat(leaks()).isZero();
+    }
+
+    @Test
+    void releasesTheCoalescedSeries() {
+        properties.getOutput().setCoalesce(true);
+
+        StepVerifier.create(sink().handleSeries(series(500))).verifyComplete();
+
+        assertThat(registry.get("sink.events").tag("exception", "None").counter().count()).isEqualTo(1000);
+        assertThat(leaks()).isZero();
+    }
+
+    @Test
+    void releasesTheBatchedSamples() {
+        properties.getBatch().setEnabled(true);
+        properties.getBatch().setMaxEvents(10);
+
+        StepVerifier.create(sink().handleBatch(samples(100))).verifyComplete();
+
+        assertThat(registry.get("sink.events").tag("exception", "None").counter().count()).isEqualTo(100);
+        assertThat(leaks()).isZero();
+    }
+
+    @Test
+    void releasesTheEventsOfAFailedWrite() {
+        properties.getBatch().setEnabled(true);
+        server.disposeNow();
+
+        StepVerifier.create(sink().handleSeries(series(50))).expectError().verify(Duration.ofSeconds(10));
+
+        assertThat(leaks()).isZero();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.encoder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.MetricGroup;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the events written by {@link DirectJsonSampleEncoder} are the same bytes {@link JacksonSampleEncoder} writes
+ */
+class DirectJsonSampleEncoderTest {
+
+    private static final ByteBufAllocator ALLOC = new UnpooledByteBufAllocator(false);
+    private static final long TIMESTAMP = 1_600_000_000_000L;
+
+    private final DirectJsonSampleEncoder direct = new DirectJsonSampleEncoder();
+    private final JacksonSampleEncoder jackson = new JacksonSampleEncoder(new ObjectMapper());
+
+    private static String text(ByteBuf buffer) {
+        try {
+            return buffer.toString(StandardCharsets.UTF_8);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static Map<String, String> labels(String... namesAndValues) {
+        final Map<String, String> labels = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            labels.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return labels;
+    }
+
+    private void assertSameSample(Map<String, String> labels, double value) {
+        final PrometheusSample sample = new PrometheusSample(TIMESTAMP, labels, value);
+        assertThat(text(direct.encode(sample, ALLOC))).isEqualTo(text(jackson.encode(sample, ALLOC)));
+    }
+
+    private static double[] values() {
+        final List<Double> values = new ArrayList<>(Arrays.asList(0.0, -0.0, 1.0, -1.0, 0.5, 0.125, 0.001, -0.001, 1.2345, 3.14159,
+                0.1 + 0.2, 123456.789, 9999999.999, 1e7, 1e-3, 9.999e-4, 1e21, 1e-10, 4503599627370496.5, 9007199254740993.0, Double.MIN_VALUE,
+                Double.MAX_VALUE, -Double.MAX_VALUE, (double) Long.MAX_VALUE, (double) Long.MIN_VALUE, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+        final Random random = new Random(1);
+        for (int i = 0; i < 1_000; i++) {
+            values.add(random.nextDouble() * Math.pow(10, random.nextInt(16) - 6));
+            values.add(random.nextInt(100_000) / 1000.0);
+            values.add(-random.nextInt(10_000_000) / 100.0);
+        }
+        return values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    @Test
+    void writesTheValuesAsJackson() {
+        for (double value : values()) {
+            assertSameSample(labels("__name__", "up"), value);
+        }
+    }
+
+    @Test
+    void escapesTheLabelsAsJackson() {
+        assertSameSample(labels("__name__", "quoted \"name\"", "back\\slash", "value \\ with \"quotes\""), 1);
+        assertSameSample(labels("control", "tab\tnew line\ncarriage\rform\fback\b", "\u0001\u001f", "\u0000 \u007f"), 1);
+        assertSameSample(labels("unicode", "café 日本 🚀", "été", "mixed é\"\n🚀 end"), 1);
+        assertSameSample(labels("surrogates", "lone \uD83D high", "\uDE80", "reversed \uDE80\uD83D"), 1);
+        assertSameSample(labels("empty", "", "", "empty name"), 1);
+        assertSameSample(labels(), 1);
+    }
+
+    @Test
+    void writesTheSeriesAsJackson() {
+        final double[] values = values();
+        final long[] timestamps = new long[values.length];
+        Arrays.setAll(timestamps, i -> TIMESTAMP + i * 15_000L);
+        final PrometheusSeries series = new PrometheusSeries(LabelSet.of(labels("__name__", "up", "job", "nöde \"1\"")), timestamps,
+                values, values.length);
+
+        assertThat(text(direct.encode(series, ALLOC))).isEqualTo(text(jackson.encode(series, ALLOC)));
+    }
+
+    @Test
+    void writesTheGroupsAsJackson() {
+        final List<PrometheusSeries> series = Arrays.asList(
+                new PrometheusSeries(LabelSet.of(labels("__name__", "up", "job", "node \"1\"")), new long[]{1, 2, 3},
+                        new double[]{1, Double.NaN, 0.25}, 3),
+                new PrometheusSeries(LabelSet.of(labels("__name__", "loadé", "job", "node \"1\"")), new long[]{2, 3},
+                        new double[]{1.23456, 1e21}, 2),
+                new PrometheusSeries(LabelSet.of(labels("__name__", "up", "job", "other")), new long[]{1}, new double[]{-0.0}, 1));
+
+        for (MetricGroup group : MetricGroup.group(series)) {
+            assertThat(text(direct.encode(group, ALLOC))).isEqualTo(text(jackson.encode(group, ALLOC)));
+        }
+    }
+
+    @Test
+    void reusesTheEncodedLabelsOfAnInternedLabelSet() {
+        final LabelSet labels = LabelSet.interned(labels("__name__", "up", "job", "café \"1\"\n"));
+        final String expected = text(jackson.encode(new PrometheusSample(TIMESTAMP, labels, 1), ALLOC));
+
+        assertThat(labels.getEncoded()).isNull();
+        assertThat(text(direct.encode(new PrometheusSample(TIMESTAMP, labels, 1), ALLOC))).isEqualTo(expected);
+        final byte[] encoded = labels.getEncoded();
+        assertThat(encoded).isNotNull();
+        assertThat(text(direct.encode(new PrometheusSample(TIMESTAMP, labels, 1), ALLOC))).isEqualTo(expected);
+        assertThat(labels.getEncoded()).isSameAs(encoded);
+        assertThat(LabelSet.of(labels.getLabels()).getEncoded()).isNull();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.model.PrometheusSeries;
+import io.github.pmh92.prom2splunk.properties.DeduplicationConfigurationProperties;
+import io.github.pmh92.prom2splunk.sink.SplunkSink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the elections with explicit times, in milliseconds, under the default failover timeout of 30s and idle timeout of 10m
+ */
+class DeduplicationSinkFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DeduplicationConfigurationProperties properties = new DeduplicationConfigurationProperties();
+    private DeduplicationSinkFilter filter;
+
+    @AfterEach
+    void closeFilter() {
+        if (filter != null) {
+            filter.close();
+        }
+    }
+
+    private DeduplicationSinkFilter filter() {
+        filter = new DeduplicationSinkFilter(properties, registry);
+        return filter;
+    }
+
+    private static LabelSet labels(String cluster, String replica) {
+        final Map<String, String> labels = new HashMap<>();
+        labels.put("__name__", "up");
+        labels.put("cluster", cluster);
+        labels.put("__replica__", replica);
+        return LabelSet.of(labels);
+    }
+
+    private double samples(String cluster, String result) {
+        return registry.get("deduplication.samples").tag("cluster", cluster).tag("result", result).counter().count();
+    }
+
+    private double counter(String name) {
+        return registry.get(name).counter().count();
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).gauge().value();
+    }
+
+    @Test
+    void electsTheFirstReplicaSendingSamples() {
+        final DeduplicationSinkFilter filter = filter();
+
+        final LabelSet accepted = filter.accept(labels("a", "r1"), 2, 1_000);
+        assertThat(accepted.getLabels()).doesNotContainKey("__replica__").containsEntry("cluster", "a");
+        assertThat(filter.accept(labels("a", "r2"), 3, 1_001)).isNull();
+
+        assertThat(samples("a", "accepted")).isEqualTo(2);
+        assertThat(samples("a", "dropped")).isEqualTo(3);
+        assertThat(gauge("deduplication.clusters")).isEqualTo(1);
+    }
+
+    @Test
+    void keepsTheReplicaLabelWhenAsked() {
+        properties.setDropReplicaLabel(false);
+        final LabelSet labels = labels("a", "r1");
+
+        assertThat(filter().accept(labels, 1, 1_000)).isSameAs(labels);
+    }
+
+    @Test
+    void keepsTheElectedReplicaWhileItSendsSamples() {
+        final DeduplicationSinkFilter filter = filter();
+
+        assertThat(filter.accept(labels("a", "r1"), 1, 0)).isNotNull();
+        assertThat(filter.accept(labels("a", "r1"), 1, 25_000)).isNotNull();
+        assertThat(filter.accept(labels("a", "r1"), 1, 50_000)).isNotNull();
+        assertThat(filter.accept(labels("a", "r2"), 1, 70_000)).isNull();
+
+        assertThat(counter("deduplication.failovers")).isZero();
+    }
+
+    @Test
+    void failsOverOnceTheElectedReplicaTimesOut() {
+        final DeduplicationSinkFilter filter = filter();
+
+        assertThat(filter.accept(labels("a", "r1"), 1, 0)).isNotNull();
+        assertThat(filter.accept(labels("a", "r2"), 1, 30_000)).isNull();
+        assertThat(filter.accept(labels("a", "r2"), 1, 30_001)).isNotNull();
+        assertThat(filter.accept(labels("a", "r1"), 1, 30_002)).isNull();
+        assertThat(counter("deduplication.failovers")).isEqualTo(1);
+
+        assertThat(filter.accept(labels("a", "r1"), 1, 60_001)).isNull();
+        assertThat(filter.accept(labels("a", "r1"), 1, 60_002)).isNotNull();
+        assertThat(counter("deduplication.failovers")).isEqualTo(2);
+    }
+
+    @Test
+    void forgetsTheIdleClusters() {
+        final DeduplicationSinkFilter filter = filter();
+        filter.accept(labels("a", "r1"), 1, 0);
+        filter.accept(labels("b", "r1"), 1, 0);
+        filter.accept(labels("b", "r1"), 1, 500_000);
+
+        filter.sweep(600_001);
+
+        assertThat(gauge("deduplication.clusters")).isEqualTo(1);
+        assertThat(registry.find("deduplication.samples").tag("cluster", "a").counters()).isEmpty();
+        assertThat(registry.find("deduplication.samples").tag("cluster", "b").counters()).hasSize(2);
+
+        // The cluster is tracked anew, electing the first replica sending samples without counting a failover
+        assertThat(filter.accept(labels("a", "r2"), 1, 600_002)).isNotNull();
+        assertThat(filter.accept(labels("a", "r1"), 1, 600_003)).isNull();
+        assertThat(samples("a", "accepted")).isEqualTo(1);
+        assertThat(counter("deduplication.failovers")).isZero();
+    }
+
+    @Test
+    void sendsTheSeriesLackingTheLabelsUnchanged() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("__name__", "up");
+        map.put("cluster", "a");
+        final LabelSet labels = LabelSet.of(map);
+
+        assertThat(filter().accept(labels, 4, 0)).isSameAs(labels);
+        assertThat(registry.get("deduplication.untracked").tag("reason", "labels").counter().count()).isEqualTo(4);
+        assertThat(gauge("deduplication.clusters")).isZero();
+    }
+
+    @Test
+    void sendsTheClustersBeyondTheMaximumUnchanged() {
+        properties.setMaxClusters(1);
+        final DeduplicationSinkFilter filter = filter();
+        final LabelSet untracked = labels("b", "r2");
+
+        assertThat(filter.accept(labels("a", "r1"), 1, 0)).isNotNull();
+        assertThat(filter.accept(untracked, 1, 0)).isSameAs(untracked);
+        assertThat(filter.accept(labels("b", "r1"), 1, 0)).isNotNull();
+        assertThat(registry.get("deduplication.untracked").tag("reason", "max_clusters").counter().count()).isEqualTo(2);
+
+        filter.sweep(600_001);
+        assertThat(filter.accept(labels("b", "r1"), 1, 600_002)).isNotNull();
+        assertThat(filter.accept(labels("b", "r2"), 1, 600_003)).isNull();
+    }
+
+    @Test
+    void stripsTheInternedLabelsOnce() {
+        final DeduplicationSinkFilter filter = filter();
+        final LabelSet interned = LabelSet.interned(labels("a", "r1").getLabels());
+
+        final LabelSet stripped = filter.accept(interned, 1, 0);
+        assertThat(stripped.isInterned()).isTrue();
+        assertThat(filter.accept(interned, 1, 1)).isSameAs(stripped);
+    }
+
+    @Test
+    void dropsTheSeriesOfTheOtherReplicas() {
+        final List<PrometheusSeries> handled = new CopyOnWriteArrayList<>();
+        final SplunkSink next = filter().apply(new SplunkSink() {
+            @Override
+            public Mono<Void> handle(PrometheusSample sample) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Void> handleSeries(Flux<PrometheusSeries> series) {
+                return series.doOnNext(handled::add).then();
+            }
+        });
+
+        StepVerifier.create(next.handleSeries(Flux.just(
+                        new PrometheusSeries(labels("a", "r1"), new long[]{1, 2}, new double[]{1, 2}, 2),
+                        new PrometheusSeries(labels("a", "r2"), new long[]{1, 2}, new double[]{1, 2}, 2))))
+                .verifyComplete();
+
+        assertThat(handled).hasSize(1);
+        assertThat(handled.get(0).getLabels()).doesNotContainKey("__replica__");
+        assertThat(samples("a", "dropped")).isEqualTo(2);
+    }
+}
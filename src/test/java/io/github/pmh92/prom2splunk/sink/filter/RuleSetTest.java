@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties.Action;
+import io.github.pmh92.prom2splunk.properties.RoutingConfigurationProperties.MatchType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RuleSetTest {
+
+    private static final int ARCHIVE = 0;
+    private static final int AUDIT = 1;
+    private static final List<String> SINKS = Arrays.asList("archive", "audit");
+
+    private static RoutingConfigurationProperties.Matcher matcher(String name, MatchType type, String value) {
+        final RoutingConfigurationProperties.Matcher matcher = new RoutingConfigurationProperties.Matcher();
+        matcher.setName(name);
+        matcher.setType(type);
+        matcher.setValue(value);
+        return matcher;
+    }
+
+    private static RoutingConfigurationProperties.Rule rule(Action action, RoutingConfigurationProperties.Matcher... matchers) {
+        final RoutingConfigurationProperties.Rule rule = new RoutingConfigurationProperties.Rule();
+        rule.setAction(action);
+        rule.setMatchers(Arrays.asList(matchers));
+        return rule;
+    }
+
+    private static RoutingConfigurationProperties.Rule route(String sink, RoutingConfigurationProperties.Matcher... matchers) {
+        final RoutingConfigurationProperties.Rule rule = rule(Action.ROUTE, matchers);
+        rule.setSink(sink);
+        return rule;
+    }
+
+    private static RuleSet rules(RoutingConfigurationProperties.Rule... rules) {
+        return new RuleSet(Arrays.asList(rules), SINKS);
+    }
+
+    private static LabelSet labels(String name, String... pairs) {
+        final Map<String, String> labels = new HashMap<>();
+        if (name != null) {
+            labels.put("__name__", name);
+        }
+        for (int i = 0; i < pairs.length; i += 2) {
+            labels.put(pairs[i], pairs[i + 1]);
+        }
+        return LabelSet.of(labels);
+    }
+
+    @Test
+    void appliesTheRulesInOrder() {
+        final RuleSet rules = rules(
+                route("audit", matcher("job", MatchType.EQ, "critical")),
+                rule(Action.DROP, matcher("__name__", MatchType.RE, "go_.*")),
+                route("archive", matcher("__name__", MatchType.EQ, "up")));
+
+        assertThat(rules.evaluate(labels("go_gc", "job", "critical")).getRoute()).isEqualTo(AUDIT);
+        assertThat(rules.evaluate(labels("go_gc", "job", "api"))).isNull();
+        assertThat(rules.evaluate(labels("up", "job", "api")).getRoute()).isEqualTo(ARCHIVE);
+
+        final LabelSet other = labels("http_requests", "job", "api");
+        final RuleSet.Decision decision = rules.evaluate(other);
+        assertThat(decision.getRoute()).isEqualTo(RuleSet.DEFAULT_ROUTE);
+        assertThat(decision.getLabels()).isSameAs(other);
+    }
+
+    @Test
+    void dropsTheSeriesNotKept() {
+        final RuleSet rules = rules(
+                rule(Action.KEEP, matcher("__name__", MatchType.RE, "node_.*")),
+                rule(Action.KEEP, matcher("env", MatchType.NEQ, "dev")),
+                route("archive", matcher("__name__", MatchType.EQ, "up")));
+
+        assertThat(rules.evaluate(labels("up"))).isNull();
+        assertThat(rules.evaluate(labels("node_cpu", "env", "dev"))).isNull();
+        assertThat(rules.evaluate(labels("node_cpu", "env", "prod")).getRoute()).isEqualTo(RuleSet.DEFAULT_ROUTE);
+    }
+
+    @Test
+    void evaluatesTheKeepRulesFailingOnTheNameInOrder() {
+        final RuleSet rules = rules(
+                route("archive", matcher("__name__", MatchType.EQ, "up")),
+                rule(Action.KEEP, matcher("__name__", MatchType.RE, "node_.*")),
+                route("audit", matcher("__name__", MatchType.EQ, "go_gc")));
+
+        assertThat(rules.evaluate(labels("up")).getRoute()).isEqualTo(ARCHIVE);
+        assertThat(rules.evaluate(labels("go_gc"))).isNull();
+        assertThat(rules.evaluate(labels("node_cpu")).getRoute()).isEqualTo(RuleSet.DEFAULT_ROUTE);
+    }
+
+    @Test
+    void appliesTheRulesOfTheNewNameOnceRenamed() {
+        final RoutingConfigurationProperties.Rule rename = rule(Action.RELABEL, matcher("__name__", MatchType.EQ, "old_metric"));
+        rename.setLabels(Collections.singletonMap("__name__", "new_metric"));
+        final RuleSet rules = rules(
+                route("audit", matcher("__name__", MatchType.EQ, "new_metric")),
+                rename,
+                rule(Action.DROP, matcher("__name__", MatchType.EQ, "old_metric")),
+                route("archive", matcher("__name__", MatchType.EQ, "new_metric"), matcher("job", MatchType.EQ, "api")));
+
+        final RuleSet.Decision decision = rules.evaluate(labels("old_metric", "job", "api"));
+        assertThat(decision.getRoute()).isEqualTo(ARCHIVE);
+        assertThat(decision.getLabels().getLabels()).containsEntry("__name__", "new_metric").containsEntry("job", "api");
+
+        assertThat(rules.evaluate(labels("old_metric", "job", "web")).getRoute()).isEqualTo(RuleSet.DEFAULT_ROUTE);
+        assertThat(rules.evaluate(labels("new_metric", "job", "api")).getRoute()).isEqualTo(AUDIT);
+    }
+
+    @Test
+    void appliesTheRulesOfTheMissingNameOnceRemoved() {
+        final RoutingConfigurationProperties.Rule remove = rule(Action.RELABEL, matcher("__name__", MatchType.EQ, "scratch"));
+        remove.setRemoveLabels(Collections.singletonList("__name__"));
+        final RuleSet rules = rules(
+                remove,
+                route("archive", matcher("__name__", MatchType.EQ, "scratch")),
+                route("audit", matcher("__name__", MatchType.EQ, "")));
+
+        final RuleSet.Decision decision = rules.evaluate(labels("scratch", "job", "api"));
+        assertThat(decision.getRoute()).isEqualTo(AUDIT);
+        assertThat(decision.getLabels().getLabels()).doesNotContainKey("__name__").containsEntry("job", "api");
+
+        final RuleSet kept = rules(remove, rule(Action.KEEP, matcher("__name__", MatchType.RE, ".+")));
+        assertThat(kept.evaluate(labels("scratch"))).isNull();
+        assertThat(kept.evaluate(labels("up"))).isNotNull();
+    }
+
+    @Test
+    void matchesTheLabelsSetByAPreviousRule() {
+        final RoutingConfigurationProperties.Rule tag = rule(Action.RELABEL, matcher("job", MatchType.EQ, "billing"));
+        tag.setLabels(Collections.singletonMap("team", "finance"));
+        final RuleSet rules = rules(tag, route("audit", matcher("team", MatchType.EQ, "finance")));
+
+        assertThat(rules.evaluate(labels("up", "job", "billing")).getRoute()).isEqualTo(AUDIT);
+        assertThat(rules.evaluate(labels("up", "job", "api")).getRoute()).isEqualTo(RuleSet.DEFAULT_ROUTE);
+        assertThat(rules.evaluate(labels(null, "job", "billing")).getRoute()).isEqualTo(AUDIT);
+    }
+
+    @Test
+    void rejectsTheRoutesToUnknownSinks() {
+        assertThatThrownBy(() -> rules(route("missing", matcher("job", MatchType.EQ, "api"))))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
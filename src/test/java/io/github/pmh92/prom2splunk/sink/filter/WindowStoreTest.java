@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.filter;
+
+import io.github.pmh92.prom2splunk.model.LabelSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class WindowStoreTest {
+
+    private static LabelSet series(String instance) {
+        return LabelSet.of(Collections.singletonMap("instance", instance));
+    }
+
+    /**
+     * Drains the store, copying the windows since the view handed to the consumer is reused
+     */
+    private static Map<LabelSet, Window> drain(WindowStore store) {
+        final Map<LabelSet, Window> windows = new HashMap<>();
+        store.drain(window -> windows.put(window.getLabels(), new Window(window)));
+        return windows;
+    }
+
+    @Test
+    void aggregatesTheSamplesOfTheWindow() {
+        final WindowStore store = new WindowStore(1, 100);
+        store.add(series("a"), 3, 1_000, 4);
+        store.add(series("a"), 3, 2_000, 1);
+        store.add(series("a"), 3, 3_000, 7);
+
+        final Window window = drain(store).get(series("a"));
+        assertThat(window.rule).isEqualTo(3);
+        assertThat(window.timestamp).isEqualTo(3_000);
+        assertThat(window.count).isEqualTo(3);
+        assertThat(window.last).isEqualTo(7);
+        assertThat(window.min).isEqualTo(1);
+        assertThat(window.max).isEqualTo(7);
+        assertThat(window.sum).isEqualTo(12);
+    }
+
+    @Test
+    void accountsForCounterResets() {
+        final WindowStore store = new WindowStore(1, 100);
+        store.add(series("a"), 0, 0, 10);
+        store.add(series("a"), 0, 1_000, 20);
+        store.add(series("a"), 0, 2_000, 5);
+
+        // 10 before the reset, then 5 from zero, over two seconds
+        assertThat(drain(store).get(series("a")).rate).isEqualTo(7.5);
+    }
+
+    @Test
+    void measuresTheRateFromThePreviousWindow() {
+        final WindowStore store = new WindowStore(1, 100);
+        store.add(series("a"), 0, 1_000, 10);
+
+        assertThat(drain(store).get(series("a")).rate).isNaN();
+
+        store.add(series("a"), 0, 3_000, 16);
+        assertThat(drain(store).get(series("a")).rate).isEqualTo(3);
+    }
+
+    @Test
+    void leavesTheOutOfOrderSamplesOutOfTheRate() {
+        final WindowStore store = new WindowStore(1, 100);
+        store.add(series("a"), 0, 1_000, 10);
+        store.add(series("a"), 0, 3_000, 30);
+        store.add(series("a"), 0, 2_000, 100);
+
+        final Window window = drain(store).get(series("a"));
+        assertThat(window.count).isEqualTo(3);
+        assertThat(window.max).isEqualTo(100);
+        assertThat(window.last).isEqualTo(30);
+        assertThat(window.timestamp).isEqualTo(3_000);
+        assertThat(window.rate).isEqualTo(10);
+    }
+
+    @Test
+    void rejectsTheNewSeriesOnceFull() {
+        final WindowStore store = new WindowStore(1, 2);
+        assertThat(store.add(series("a"), 0, 1_000, 1)).isTrue();
+        assertThat(store.add(series("b"), 0, 1_000, 1)).isTrue();
+
+        assertThat(store.add(series("c"), 0, 1_000, 1)).isFalse();
+        assertThat(store.add(series("a"), 0, 2_000, 2)).isTrue();
+        assertThat(drain(store)).containsOnlyKeys(series("a"), series("b"));
+    }
+
+    @Test
+    void forgetsTheSeriesWithoutSamplesInTheWindow() {
+        final WindowStore store = new WindowStore(1, 2);
+        store.add(series("a"), 0, 1_000, 1);
+        store.add(series("b"), 0, 1_000, 1);
+        drain(store);
+
+        store.add(series("a"), 0, 2_000, 2);
+        assertThat(drain(store)).containsOnlyKeys(series("a"));
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.add(series("c"), 0, 3_000, 1)).isTrue();
+    }
+
+    @Test
+    void keepsTheAggregatesOfTheSeriesMovedByTheDrain() {
+        final WindowStore store = new WindowStore(4, 10_000);
+        for (int i = 0; i < 500; i++) {
+            store.add(series("host-" + i), i, 1_000, i);
+        }
+        drain(store);
+        for (int i = 1; i < 500; i += 2) {
+            store.add(series("host-" + i), i, 2_000, i + 2);
+        }
+        assertThat(drain(store)).hasSize(250);
+        for (int i = 1; i < 500; i += 2) {
+            store.add(series("host-" + i), i, 4_000, i + 6);
+        }
+
+        final Map<LabelSet, Window> windows = drain(store);
+        assertThat(windows).hasSize(250);
+        assertThat(store.size()).isEqualTo(250);
+        for (int i = 1; i < 500; i += 2) {
+            final Window window = windows.get(series("host-" + i));
+            assertThat(window.rule).isEqualTo(i);
+            assertThat(window.count).isEqualTo(1);
+            assertThat(window.last).isEqualTo(i + 6);
+            assertThat(window.rate).isCloseTo(2, within(1e-9));
+        }
+    }
+
+    private static final class Window {
+        private final int rule;
+        private final long timestamp;
+        private final long count;
+        private final double last;
+        private final double min;
+        private final double max;
+        private final double sum;
+        private final double rate;
+
+        private Window(WindowStore.Window window) {
+            this.rule = window.getRule();
+            this.timestamp = window.getTimestamp();
+            this.count = window.getCount();
+            this.last = window.getLast();
+            this.min = window.getMin();
+            this.max = window.getMax();
+            this.sum = window.getSum();
+            this.rate = window.getRate();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.pmh92.prom2splunk.sink.hec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.pmh92.prom2splunk.execution.ExecutionResources;
+import io.github.pmh92.prom2splunk.metrics.StageMetrics;
+import io.github.pmh92.prom2splunk.model.PrometheusSample;
+import io.github.pmh92.prom2splunk.properties.HecSinkConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the sink against a stub HTTP Event Collector listening on an ephemeral port
+ */
+class HecSplunkSinkTest {
+
+    private static final String PATH = "/prefix/services/collector";
+
+    private final List<Post> posts = new CopyOnWriteArrayList<>();
+    private final Queue<HttpResponseStatus> statuses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ackQueries = new AtomicInteger();
+    private volatile int unacknowledgedQueries;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final HecSinkConfigurationProperties properties = new HecSinkConfigurationProperties();
+    private DisposableServer server;
+    private HecSplunkSink sink;
+
+    @BeforeEach
+    void startCollector() {
+        server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .post(PATH + "/ack", this::acknowledge)
+                        .post(PATH, this::collect))
+                .bindNow();
+        properties.setUrl(URI.create("http://localhost:" + server.port()));
+        properties.setPath(PATH);
+        properties.setToken("token");
+        properties.getRetry().setMinBackoff(Duration.ofMillis(100));
+        properties.getRetry().setMaxBackoff(Duration.ofMillis(200));
+    }
+
+    @AfterEach
+    void stopCollector() {
+        if (sink != null) {
+            sink.close();
+        }
+        server.disposeNow();
+    }
+
+    /**
+     * Answers the statuses queued, then succeeds. Every request is given the next ack id
+     */
+    private Mono<Void> collect(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive().aggregate().asByteArray().flatMap(body -> {
+            final boolean gzip = "gzip".equals(request.requestHeaders().get(HttpHeaderNames.CONTENT_ENCODING));
+            posts.add(new Post(System.nanoTime(), gzip, request.requestHeaders().get("X-Splunk-Request-Channel"), gzip ? gunzip(body) : body));
+            final HttpResponseStatus status = statuses.poll();
+            if (status != null) {
+                return response.status(status).sendString(Mono.just("{\"text\":\"" + status.reasonPhrase() + "\"}")).then();
+            }
+            return response.sendString(Mono.just("{\"text\":\"Success\",\"code\":0,\"ackId\":" + (posts.size() - 1) + "}")).then();
+        });
+    }
+
+    /**
+     * Acknowledges the events once the given number of queries have been answered negatively
+     */
+    private Mono<Void> acknowledge(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive().aggregate().asString().flatMap(body -> {
+            final String ackId = body.replaceAll("\\D", "");
+            final boolean acknowledged = ackQueries.incrementAndGet() > unacknowledgedQueries;
+            return response.sendString(Mono.just("{\"acks\":{\"" + ackId + "\":" + acknowledged + "}}")).then();
+        });
+    }
+
+    private HecSplunkSink sink() {
+        sink = new HecSplunkSink("hec", properties, new ObjectMapper(), registry, StageMetrics.DISABLED, ExecutionResources.DEFAULT);
+        return sink;
+    }
+
+    private static Flux<PrometheusSample> samples(int count) {
+        return Flux.range(0, count).map(i -> new PrometheusSample(1_600_000_000_000L + i,
+                Collections.singletonMap("__name__", "metric_" + i), i));
+    }
+
+    @Test
+    void postsBatchesOfAtMostMaxEvents() {
+        properties.getBatch().setMaxEvents(10);
+        properties.getBatch().setMaxLinger(Duration.ofSeconds(10));
+
+        StepVerifier.create(sink().handleBatch(samples(25))).verifyComplete();
+
+        assertThat(posts.stream().map(Post::events).sorted().collect(Collectors.toList())).containsExactly(5, 10, 10);
+    }
+
+    @Test
+    void postsBatchesOfAtMostMaxBytes() {
+        properties.getBatch().setMaxBytes(DataSize.ofBytes(1));
+
+        StepVerifier.create(sink().handleBatch(samples(3))).verifyComplete();
+
+        assertThat(posts).hasSize(3).allSatisfy(post -> assertThat(post.events()).isEqualTo(1));
+    }
+
+    @Test
+    void postsBatchOnceMaxLingerElapses() {
+        properties.getBatch().setMaxLinger(Duration.ofMillis(100));
+        final Flux<PrometheusSample> samples = Flux.concat(samples(3), Mono.delay(Duration.ofSeconds(1)).thenMany(samples(2)));
+
+        StepVerifier.create(sink().handleBatch(samples)).verifyComplete();
+
+        assertThat(posts).extracting(Post::events).containsExactly(3, 2);
+    }
+
+    @Test
+    void compressesBodyWithGzip() {
+        properties.setGzip(true);
+
+        StepVerifier.create(sink().handleBatch(samples(2))).verifyComplete();
+
+        assertThat(posts).hasSize(1);
+        assertThat(posts.get(0).gzip).isTrue();
+        assertThat(posts.get(0).text()).contains("\"metric_name\":\"metric_0\"").contains("\"metric_name\":\"metric_1\"");
+    }
+
+    @Test
+    void sendsUncompressedBodyWhenGzipIsDisabled() {
+        properties.setGzip(false);
+
+        StepVerifier.create(sink().handleBatch(samples(2))).verifyComplete();
+
+        assertThat(posts).hasSize(1);
+        assertThat(posts.get(0).gzip).isFalse();
+        assertThat(posts.get(0).events()).isEqualTo(2);
+    }
+
+    @Test
+    void retriesServerErrorsAndThrottlingWithBackoff() {
+        statuses.add(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        statuses.add(HttpResponseStatus.TOO_MANY_REQUESTS);
+
+        StepVerifier.create(sink().handleBatch(samples(4))).verifyComplete();
+
+        assertThat(posts).hasSize(3);
+        assertThat(posts).extracting(Post::text).containsOnly(posts.get(0).text());
+        // The backoff is jittered by half of its value at most
+        assertThat(posts.get(1).nanos - posts.get(0).nanos).isGreaterThanOrEqualTo(Duration.ofMillis(50).toNanos());
+        assertThat(posts.get(2).nanos - posts.get(1).nanos).isGreaterThanOrEqualTo(Duration.ofMillis(50).toNanos());
+        assertThat(registry.get("sink.retries").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void failsOnceRetriesAreExhausted() {
+        properties.getRetry().setMaxAttempts(2);
+        for (int i = 0; i < 5; i++) {
+            statuses.add(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+
+        StepVerifier.create(sink().handleBatch(samples(1)))
+                .expectErrorSatisfies(ex -> assertThat(ex).isInstanceOf(HecException.class)
+                        .extracting(e -> ((HecException) e).getStatus()).isEqualTo(503))
+                .verify(Duration.ofSeconds(10));
+
+        assertThat(posts).hasSize(3);
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        statuses.add(HttpResponseStatus.BAD_REQUEST);
+
+        StepVerifier.create(sink().handleBatch(samples(1)))
+                .expectErrorSatisfies(ex -> assertThat(ex).isInstanceOf(HecException.class)
+                        .extracting(e -> ((HecException) e).getStatus()).isEqualTo(400))
+                .verify(Duration.ofSeconds(10));
+
+        assertThat(posts).hasSize(1);
+    }
+
+    @Test
+    void pollsAcknowledgementUntilEventsAreIndexed() {
+        properties.getAck().setEnabled(true);
+        properties.getAck().setPollInterval(Duration.ofMillis(50));
+        unacknowledgedQueries = 2;
+
+        StepVerifier.create(sink().handleBatch(samples(2))).verifyComplete();
+
+        assertThat(posts).hasSize(1);
+        assertThat(posts.get(0).channel).isNotEmpty();
+        assertThat(ackQueries).hasValue(3);
+    }
+
+    @Test
+    void failsWithoutPostingAgainWhenAcknowledgementTimesOut() {
+        properties.getAck().setEnabled(true);
+        properties.getAck().setPollInterval(Duration.ofMillis(50));
+        properties.getAck().setTimeout(Duration.ofMillis(300));
+        unacknowledgedQueries = Integer.MAX_VALUE;
+
+        StepVerifier.create(sink().handleBatch(samples(2)))
+                .expectErrorSatisfies(ex -> assertThat(ex).isInstanceOf(HecException.class)
+                        .extracting(e -> ((HecException) e).isRetryable()).isEqualTo(false))
+                .verify(Duration.ofSeconds(10));
+
+        assertThat(posts).hasSize(1);
+        assertThat(ackQueries.get()).isGreaterThan(0);
+    }
+
+    @Test
+    void derivesAckPathFromEventPath() {
+        assertThat(HecSplunkSink.ackPath("/services/collector")).isEqualTo("/services/collector/ack");
+        assertThat(HecSplunkSink.ackPath("/services/collector/event")).isEqualTo("/services/collector/ack");
+        assertThat(HecSplunkSink.ackPath("/splunk/services/collector/raw")).isEqualTo("/splunk/services/collector/ack");
+        assertThat(HecSplunkSink.ackPath("/collector/")).isEqualTo("/collector/ack");
+    }
+
+    private static byte[] gunzip(byte[] body) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return StreamUtils.copyToByteArray(gzip);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * A request received by the stub collector, with its body decompressed
+     */
+    private static final class Post {
+        private final long nanos;
+        private final boolean gzip;
+        private final String channel;
+        private final byte[] body;
+
+        private Post(long nanos, boolean gzip, String channel, byte[] body) {
+            this.nanos = nanos;
+            this.gzip = gzip;
+            this.channel = channel;
+            this.body = body;
+        }
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * The events are sent one per line
+         */
+        int events() {
+            final List<String> lines = new ArrayList<>();
+            for (String line : text().split("\n")) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            return lines.size();
+        }
+    }
+}
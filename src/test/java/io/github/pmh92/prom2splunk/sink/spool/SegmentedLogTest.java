@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022. Pedro Morales
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.pmh92.prom2splunk.sink.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Every record is 56 bytes long, so a segment of 64 bytes holds a single record
+ */
+class SegmentedLogTest {
+
+    private static final int HEADER_SIZE = 16;
+    private static final int PAYLOAD_SIZE = 40;
+    private static final int SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] record(int index) {
+        return String.format("%-" + PAYLOAD_SIZE + "s", "record-" + index).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static List<Integer> read(SegmentedLog log) throws IOException {
+        return log.read(100).stream()
+                .map(payload -> Integer.parseInt(new String(payload, StandardCharsets.US_ASCII).trim().substring("record-".length())))
+                .collect(Collectors.toList());
+    }
+
+    private static void append(SegmentedLog log, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            log.append(record(i), i);
+        }
+    }
+
+    /**
+     * Overwrites a byte of a segment file, which the mapped segments see as well
+     */
+    private void corrupt(long segment, int offset) throws IOException {
+        final Path path = directory.resolve(String.format("%020d.log", segment));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, offset);
+            value.flip();
+            value.put(0, (byte) ~value.get(0));
+            channel.write(value, offset);
+        }
+    }
+
+    @Test
+    void readsTheRecordsInOrder() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE * 4, Long.MAX_VALUE);
+        append(log, 1, 10);
+
+        assertThat(read(log)).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertThat(read(log)).isEmpty();
+        assertThat(log.oldestPendingTimestamp()).isEqualTo(1);
+    }
+
+    @Test
+    void recoversFromATornFinalRecordOnRestart() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE * 4, Long.MAX_VALUE);
+        append(log, 1, 3);
+        log.close();
+        corrupt(0, 3 * (HEADER_SIZE + PAYLOAD_SIZE) - 1);
+
+        final SegmentedLog restarted = new SegmentedLog(directory, SEGMENT_SIZE * 4, Long.MAX_VALUE);
+        assertThat(read(restarted)).containsExactly(1, 2);
+
+        append(restarted, 4, 4);
+        assertThat(read(restarted)).containsExactly(4);
+    }
+
+    @Test
+    void rewindsToTheCheckpoint() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE, Long.MAX_VALUE);
+        append(log, 1, 5);
+
+        assertThat(log.read(2)).hasSize(2);
+        log.commit();
+        assertThat(log.read(2)).hasSize(2);
+        log.rewind();
+        assertThat(read(log)).containsExactly(3, 4, 5);
+
+        log.rewind();
+        log.close();
+        final SegmentedLog restarted = new SegmentedLog(directory, SEGMENT_SIZE, Long.MAX_VALUE);
+        assertThat(restarted.oldestPendingTimestamp()).isEqualTo(3);
+        assertThat(read(restarted)).containsExactly(3, 4, 5);
+    }
+
+    @Test
+    void deletesTheCommittedSegments() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE, Long.MAX_VALUE);
+        append(log, 1, 5);
+
+        assertThat(read(log)).containsExactly(1, 2, 3, 4, 5);
+        log.commit();
+
+        assertThat(log.pendingBytes()).isZero();
+        assertThat(directory.toFile().list((dir, name) -> name.endsWith(".log"))).hasSize(1);
+    }
+
+    @Test
+    void dropsTheOldestSegmentsPastTheReader() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE, 3 * SEGMENT_SIZE);
+        append(log, 1, 1);
+        assertThat(read(log)).containsExactly(1);
+
+        append(log, 2, 10);
+
+        assertThat(log.droppedSegments()).isEqualTo(7);
+        assertThat(log.oldestPendingTimestamp()).isEqualTo(8);
+        assertThat(read(log)).containsExactly(8, 9, 10);
+    }
+
+    @Test
+    void skipsTheRestOfACorruptedSegment() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE, Long.MAX_VALUE);
+        append(log, 1, 3);
+        corrupt(1, HEADER_SIZE);
+
+        assertThat(read(log)).containsExactly(1, 3);
+        assertThat(log.droppedSegments()).isEqualTo(1);
+    }
+
+    @Test
+    void skipsACorruptedRecordOfTheSegmentBeingWritten() throws IOException {
+        final SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE * 4, Long.MAX_VALUE);
+        append(log, 1, 2);
+        corrupt(0, HEADER_SIZE);
+
+        assertThat(assertTimeoutPreemptively(Duration.ofSeconds(5), () -> read(log))).isEmpty();
+        assertThat(log.droppedSegments()).isEqualTo(1);
+
+        append(log, 3, 3);
+        assertThat(read(log)).containsExactly(3);
+    }
+}